@@ -0,0 +1,86 @@
+package no.ssb.sagalog.benchmarks;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogPool;
+import no.ssb.sagalog.file.FileSagaLogPool;
+import no.ssb.sagalog.memory.MemorySagaLogPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * A pool and a connected saga-log of one of the implementations under benchmark: "memory" and "file" are the built-in
+ * backends, and "synchronized" is a copy of the original memory saga-log kept as a baseline.
+ */
+class SagaLogFixture implements AutoCloseable {
+
+    static final int FILE_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    final SagaLogPool pool;
+    final SagaLog sagaLog;
+    private final Path folder;
+
+    SagaLogFixture(String implementation, String logName) throws IOException {
+        switch (implementation) {
+            case "memory":
+                folder = null;
+                pool = new MemorySagaLogPool("benchmark");
+                sagaLog = pool.connect(pool.registerInstanceLocalIdFor(logName));
+                break;
+            case "synchronized":
+                folder = null;
+                pool = new MemorySagaLogPool("benchmark");
+                sagaLog = new SynchronizedMemorySagaLog(pool.registerInstanceLocalIdFor(logName));
+                break;
+            case "file":
+                folder = Files.createTempDirectory("sagalog-benchmark");
+                pool = new FileSagaLogPool("benchmark", folder, FILE_SEGMENT_SIZE);
+                sagaLog = pool.connect(pool.registerInstanceLocalIdFor(logName));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown saga-log implementation: " + implementation);
+        }
+    }
+
+    /**
+     * Write the given number of entries as a start, action and end entry for each of a third as many executions, and
+     * return the last entry written. The entries of the executions are interleaved, as they are with concurrent sagas.
+     * Only the last write is awaited, so a file backend can group-commit the writes.
+     */
+    SagaLogEntry populate(int entries) {
+        CompletableFuture<SagaLogEntry> last = null;
+        int executions = Math.max(1, entries / 3);
+        for (int i = 0; i < entries; i++) {
+            String executionId = "execution-" + (i % executions);
+            switch (i / executions) {
+                case 0:
+                    last = sagaLog.write(sagaLog.builder().startSaga(executionId, "benchmark", "{\"input\":" + i + "}"));
+                    break;
+                case 1:
+                    last = sagaLog.write(sagaLog.builder().endAction(executionId, "action", "{\"output\":" + i + "}"));
+                    break;
+                default:
+                    last = sagaLog.write(sagaLog.builder().endSaga(executionId));
+            }
+        }
+        return last == null ? null : last.join();
+    }
+
+    @Override
+    public void close() throws Exception {
+        sagaLog.close();
+        pool.shutdown();
+        if (folder != null) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
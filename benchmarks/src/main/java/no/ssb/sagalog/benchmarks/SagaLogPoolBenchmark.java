@@ -0,0 +1,90 @@
+package no.ssb.sagalog.benchmarks;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogOwner;
+import no.ssb.sagalog.SagaLogPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Churn of acquiring and releasing instance-local saga-logs from a pool, with 1, 8 and 64 competing threads. Each
+ * thread acts as its own owner, and counts an attempt where no saga-log was available as an operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SagaLogPoolBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class PoolState {
+
+        @Param({"memory", "file"})
+        String implementation;
+
+        @Param({"1", "16"})
+        int instanceLocalLogs;
+
+        SagaLogFixture fixture;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            fixture = new SagaLogFixture(implementation, "log-0");
+            for (int i = 1; i < instanceLocalLogs; i++) {
+                fixture.pool.registerInstanceLocalIdFor("log-" + i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            fixture.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnerState {
+        final SagaLogOwner owner = new SagaLogOwner("owner-" + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean acquireRelease1(PoolState pool, OwnerState owner) {
+        return acquireRelease(pool.fixture.pool, owner.owner);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean acquireRelease8(PoolState pool, OwnerState owner) {
+        return acquireRelease(pool.fixture.pool, owner.owner);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean acquireRelease64(PoolState pool, OwnerState owner) {
+        return acquireRelease(pool.fixture.pool, owner.owner);
+    }
+
+    static boolean acquireRelease(SagaLogPool pool, SagaLogOwner owner) {
+        SagaLog sagaLog = pool.tryAcquire(owner);
+        if (sagaLog == null) {
+            return false;
+        }
+        pool.release(sagaLog.id());
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package no.ssb.sagalog.benchmarks;
+
+import no.ssb.sagalog.SagaLogEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovery reads of a log holding 10k, 100k and 1M entries: a full scan of the incomplete sagas, and the snapshot of
+ * the entries of a single execution grouped by node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SagaLogReadBenchmark {
+
+    @Param({"memory", "synchronized", "file"})
+    String implementation;
+
+    @Param({"10000", "100000", "1000000"})
+    int logLength;
+
+    SagaLogFixture fixture;
+    int executions;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SagaLogFixture(implementation, "read");
+        fixture.populate(logLength);
+        executions = logLength / 3;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void readIncompleteSagas(Blackhole blackhole) {
+        fixture.sagaLog.readIncompleteSagas().forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void readIncompleteSagasJsonData(Blackhole blackhole) {
+        fixture.sagaLog.readIncompleteSagas().map(SagaLogEntry::getJsonData).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public Map<String, List<SagaLogEntry>> getSnapshotOfSagaLogEntriesByNodeId() {
+        String executionId = "execution-" + ThreadLocalRandom.current().nextInt(executions);
+        return fixture.sagaLog.getSnapshotOfSagaLogEntriesByNodeId(executionId);
+    }
+}
@@ -0,0 +1,61 @@
+package no.ssb.sagalog.benchmarks;
+
+import no.ssb.sagalog.SagaLogEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of truncating the whole log as a function of the log length. Every invocation truncates a freshly populated
+ * log, so the time of each invocation is measured on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaLogTruncateBenchmark {
+
+    @Param({"memory", "synchronized", "file"})
+    String implementation;
+
+    @Param({"1000", "10000", "100000"})
+    int logLength;
+
+    SagaLogFixture fixture;
+    SagaLogEntry lastEntry;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        fixture = new SagaLogFixture(implementation, "truncate");
+        lastEntry = fixture.populate(logLength);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void truncateToLastEntry() {
+        fixture.sagaLog.truncate(lastEntry.getId()).join();
+    }
+
+    @Benchmark
+    public void truncateAll() {
+        fixture.sagaLog.truncate().join();
+    }
+}
@@ -0,0 +1,104 @@
+package no.ssb.sagalog.benchmarks;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write throughput with 1, 8 and 64 concurrent writers. Each writer truncates the log up to its own last entry every
+ * {@link #TRUNCATE_INTERVAL} writes, to keep the log at a bounded size like a saga coordinator would. The pooled
+ * variants reuse builders from {@link SagaLog#pooledBuilder()}, run with {@code -prof gc} to compare the allocation per
+ * write.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SagaLogWriteBenchmark {
+
+    static final int TRUNCATE_INTERVAL = 4096;
+
+    @State(Scope.Benchmark)
+    public static class LogState {
+
+        @Param({"memory", "synchronized", "file"})
+        String implementation;
+
+        SagaLogFixture fixture;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            fixture = new SagaLogFixture(implementation, "write");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            fixture.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WriterState {
+        final String executionId = "execution-" + Thread.currentThread().getId();
+        int writes;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public SagaLogEntry write1(LogState log, WriterState writer) {
+        return write(log.fixture.sagaLog, writer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public SagaLogEntry write8(LogState log, WriterState writer) {
+        return write(log.fixture.sagaLog, writer);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public SagaLogEntry write64(LogState log, WriterState writer) {
+        return write(log.fixture.sagaLog, writer);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public SagaLogEntry writePooled1(LogState log, WriterState writer) {
+        return write(log.fixture.sagaLog, log.fixture.sagaLog.pooledBuilder(), writer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public SagaLogEntry writePooled8(LogState log, WriterState writer) {
+        return write(log.fixture.sagaLog, log.fixture.sagaLog.pooledBuilder(), writer);
+    }
+
+    static SagaLogEntry write(SagaLog sagaLog, WriterState writer) {
+        return write(sagaLog, sagaLog.builder(), writer);
+    }
+
+    static SagaLogEntry write(SagaLog sagaLog, SagaLogEntryBuilder builder, WriterState writer) {
+        SagaLogEntry entry = sagaLog.write(builder.endAction(writer.executionId, "node", "{\"key\":\"value\"}")).join();
+        if (++writer.writes % TRUNCATE_INTERVAL == 0) {
+            sagaLog.truncate(entry.getId()).join();
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,133 @@
+package no.ssb.sagalog.benchmarks;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import no.ssb.sagalog.SagaLogEntryId;
+import no.ssb.sagalog.SagaLogId;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Copy of the original memory saga-log, where writes are serialized by a monitor and truncate scans and removes the
+ * entries one by one. Used as the baseline when measuring the built-in memory saga-log.
+ */
+class SynchronizedMemorySagaLog implements SagaLog {
+
+    private final SagaLogId sagaLogId;
+    private final AtomicLong nextId = new AtomicLong(0);
+    private final Deque<SagaLogEntry> incompleteEntries = new ConcurrentLinkedDeque<>();
+
+    SynchronizedMemorySagaLog(SagaLogId sagaLogId) {
+        this.sagaLogId = sagaLogId;
+    }
+
+    @Override
+    public SagaLogId id() {
+        return sagaLogId;
+    }
+
+    @Override
+    public Stream<SagaLogEntry> readEntries(String executionId) {
+        return incompleteEntries.stream().filter(e -> executionId.equals(e.getExecutionId()));
+    }
+
+    @Override
+    public CompletableFuture<SagaLogEntry> write(SagaLogEntryBuilder builder) {
+        synchronized (this) {
+            if (builder.id() == null) {
+                builder.id(new EntryId(nextId.getAndIncrement()));
+            }
+            SagaLogEntry entry = builder.build();
+            incompleteEntries.add(entry);
+            return CompletableFuture.completedFuture(entry);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> truncate(SagaLogEntryId entryId) {
+        Set<SagaLogEntry> toBeRemoved = new LinkedHashSet<>();
+        Set<SagaLogEntryId> toBeRemovedIds = new LinkedHashSet<>();
+        for (SagaLogEntry sle : incompleteEntries) {
+            toBeRemoved.add(sle);
+            toBeRemovedIds.add(sle.getId());
+            if (entryId.equals(sle.getId())) {
+                break;
+            }
+        }
+        if (toBeRemovedIds.contains(entryId)) {
+            incompleteEntries.removeAll(toBeRemoved);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> truncate() {
+        SagaLogEntry lastEntry = incompleteEntries.peekLast();
+        if (lastEntry == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return truncate(lastEntry.getId());
+    }
+
+    @Override
+    public Stream<SagaLogEntry> readIncompleteSagas() {
+        return incompleteEntries.stream();
+    }
+
+    @Override
+    public String toString(SagaLogEntryId id) {
+        return String.valueOf(((EntryId) id).id);
+    }
+
+    @Override
+    public SagaLogEntryId fromString(String idString) {
+        return new EntryId(Long.parseLong(idString));
+    }
+
+    @Override
+    public byte[] toBytes(SagaLogEntryId id) {
+        byte[] bytes = new byte[8];
+        ByteBuffer.wrap(bytes).putLong(((EntryId) id).id);
+        return bytes;
+    }
+
+    @Override
+    public SagaLogEntryId fromBytes(byte[] idBytes) {
+        return new EntryId(ByteBuffer.wrap(idBytes).getLong());
+    }
+
+    @Override
+    public void close() {
+        incompleteEntries.clear();
+    }
+
+    static class EntryId implements SagaLogEntryId {
+        final long id;
+
+        EntryId(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            EntryId that = (EntryId) o;
+            return id == that.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 import no.ssb.sagalog.SagaLogInitializer;
+import no.ssb.sagalog.file.FileSagaLogInitializer;
 import no.ssb.sagalog.memory.MemorySagaLogInitializer;
 
 module no.ssb.sagalog {
     requires java.base;
 
     exports no.ssb.sagalog;
+    exports no.ssb.sagalog.replication;
 
-    provides SagaLogInitializer with MemorySagaLogInitializer;
+    provides SagaLogInitializer with MemorySagaLogInitializer, FileSagaLogInitializer;
 }
@@ -1,25 +1,31 @@
 package no.ssb.sagalog;
 
-import java.time.ZonedDateTime;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public abstract class AbstractSagaLogPool implements SagaLogPool {
 
+    private static final SagaLogOwner SCALING_OWNER = new SagaLogOwner("auto-scaling");
+    private static final SagaLogOwner EVICTION_OWNER = new SagaLogOwner("eviction");
+
     private final String clusterInstanceId;
     private final Set<SagaLogId> registeredInstanceLocalSagaLogIds = new CopyOnWriteArraySet();
     private final Map<SagaLogId, SagaLog> sagaLogByLogId = new ConcurrentHashMap<>();
-    private final Map<SagaLogId, SagaLogOwnership> ownershipByLogId = new ConcurrentHashMap<>();
-    private final Map<SagaLogId, Semaphore> exclusiveLockByLogId = new ConcurrentHashMap<>();
-    private final BlockingDeque<SagaLogId> availableInstanceLocalIds = new LinkedBlockingDeque<>();
+    private final Map<SagaLogId, SagaLogOwnershipSlot> slotByLogId = new ConcurrentHashMap<>();
+    private final SagaLogAcquireQueue availableInstanceLocalIds = new SagaLogAcquireQueue();
+    private final SagaLogMetrics metrics = new SagaLogMetrics();
+    private final Set<SagaLogId> autoScaledLogIds = ConcurrentHashMap.newKeySet();
+    private volatile AutoScaling autoScaling;
 
     protected AbstractSagaLogPool(String clusterInstanceId) {
         this.clusterInstanceId = clusterInstanceId;
@@ -34,14 +40,178 @@ public abstract class AbstractSagaLogPool implements SagaLogPool {
 
     @Override
     public SagaLog connect(SagaLogId logId) throws SagaLogBusyException {
-        return sagaLogByLogId.computeIfAbsent(logId, lId -> connectExternal(logId));
+        SagaLog sagaLog = sagaLogByLogId.get(logId);
+        if (sagaLog != null) {
+            return sagaLog;
+        }
+        try {
+            return sagaLogByLogId.computeIfAbsent(logId, this::connectExternal);
+        } catch (SagaLogBusyException e) {
+            metrics.recordBusy();
+            throw e;
+        }
+    }
+
+    @Override
+    public SagaLogMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Let the pool register additional instance-local saga-logs when acquirers have to wait. Whenever an acquirer has
+     * waited for longer than the threshold, a log named by the prefix and a sequence number is registered and handed
+     * to the longest waiting acquirer, until the pool has the given maximum number of instance-local logs. A log that
+     * was added this way is retired, removed and deleted when it is released fully truncated while no acquirer is
+     * waiting and another log is available. Only tryAcquire with a timeout and acquireAsync wait, and so drive scaling.
+     *
+     * @param logNamePrefix          the prefix of the names of added logs.
+     * @param maxInstanceLocalLogs   the maximum number of instance-local logs, including the logs registered by the user.
+     * @param acquireWaitThreshold   how long an acquirer waits before another log is added.
+     */
+    public void enableAutoScaling(String logNamePrefix, int maxInstanceLocalLogs, Duration acquireWaitThreshold) {
+        this.autoScaling = new AutoScaling(logNamePrefix, maxInstanceLocalLogs, acquireWaitThreshold.toNanos());
+    }
+
+    /**
+     * Enable auto-scaling from the configuration options pool.auto-scaling.max-logs, where 0 means disabled,
+     * pool.auto-scaling.wait-threshold-ms and pool.auto-scaling.log-name-prefix, as used by saga-log initializers.
+     */
+    public void configureAutoScaling(Map<String, String> configuration) {
+        int maxLogs = Integer.parseInt(configuration.getOrDefault("pool.auto-scaling.max-logs", "0"));
+        if (maxLogs > 0) {
+            enableAutoScaling(configuration.getOrDefault("pool.auto-scaling.log-name-prefix", "auto-scaled-"), maxLogs,
+                    Duration.ofMillis(Long.parseLong(configuration.getOrDefault("pool.auto-scaling.wait-threshold-ms", "50"))));
+        }
+    }
+
+    private static class AutoScaling {
+        final String logNamePrefix;
+        final int maxInstanceLocalLogs;
+        final long acquireWaitThresholdNanos;
+
+        AutoScaling(String logNamePrefix, int maxInstanceLocalLogs, long acquireWaitThresholdNanos) {
+            this.logNamePrefix = logNamePrefix;
+            this.maxInstanceLocalLogs = maxInstanceLocalLogs;
+            this.acquireWaitThresholdNanos = acquireWaitThresholdNanos;
+        }
+    }
+
+    /**
+     * Schedule a check that adds a log if the acquirer is still waiting when the threshold has passed.
+     *
+     * @return the flag to clear when the acquirer stops waiting, or null if auto-scaling is disabled.
+     */
+    private AtomicBoolean scaleUpIfStillWaiting() {
+        AutoScaling scaling = autoScaling;
+        if (scaling == null) {
+            return null;
+        }
+        AtomicBoolean waiting = new AtomicBoolean(true);
+        CompletableFuture.delayedExecutor(scaling.acquireWaitThresholdNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            if (waiting.get()) {
+                scaleUp(scaling);
+            }
+        });
+        return waiting;
+    }
+
+    private void scaleUp(AutoScaling scaling) {
+        synchronized (autoScaledLogIds) {
+            if (registeredInstanceLocalSagaLogIds.size() >= scaling.maxInstanceLocalLogs) {
+                return;
+            }
+            for (int i = 0; ; i++) {
+                String logName = scaling.logNamePrefix + i;
+                SagaLogId logId = idFor(clusterInstanceId, logName);
+                if (!registeredInstanceLocalSagaLogIds.contains(logId)) {
+                    autoScaledLogIds.add(logId);
+                    registerInstanceLocalIdFor(logName);
+                    metrics.recordScaleUp();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Retire a released log that was added by auto-scaling if it is no longer needed. The log is owned by the pool
+     * while it is inspected and removed, so that nobody takes it in the meantime.
+     *
+     * @return true if the log was retired.
+     */
+    private boolean retireIfIdleSurplus(SagaLogId logId) {
+        if (!autoScaledLogIds.contains(logId) || availableInstanceLocalIds.waiting() > 0 || availableInstanceLocalIds.available() == 0) {
+            return false;
+        }
+        SagaLogOwnershipSlot slot = slotFor(logId);
+        if (!slot.tryOwn(SCALING_OWNER)) {
+            return false;
+        }
+        try {
+            SagaLog sagaLog = sagaLogByLogId.get(logId);
+            if (sagaLog != null) {
+                try (Stream<SagaLogEntry> entries = sagaLog.readIncompleteSagas()) {
+                    if (entries.findAny().isPresent()) {
+                        return false; // not fully truncated
+                    }
+                }
+            }
+            synchronized (autoScaledLogIds) {
+                registeredInstanceLocalSagaLogIds.remove(logId);
+                autoScaledLogIds.remove(logId);
+            }
+            remove(logId);
+            deleteExternal(logId);
+            metrics.recordScaleDown();
+            return true;
+        } finally {
+            slot.release();
+            retireSlot(logId);
+        }
+    }
+
+    /**
+     * Close and remove a connected instance-local log that is available for acquiring, if it matches the predicate.
+     * The log stays registered and is connected again the next time it is acquired. The log is taken out of the
+     * available logs and owned by the pool while it is inspected and removed, so that nobody takes it in the meantime.
+     *
+     * @return true if the log was evicted.
+     */
+    protected boolean evictIfAvailable(SagaLogId logId, Predicate<SagaLog> evictable) {
+        if (!registeredInstanceLocalSagaLogIds.contains(logId) || !availableInstanceLocalIds.remove(logId)) {
+            return false;
+        }
+        SagaLogOwnershipSlot slot = slotFor(logId);
+        boolean owned = slot.tryOwn(EVICTION_OWNER);
+        try {
+            SagaLog sagaLog = sagaLogByLogId.get(logId);
+            if (!owned || sagaLog == null || !evictable.test(sagaLog)) {
+                return false;
+            }
+            remove(logId);
+            metrics.recordEviction();
+            return true;
+        } finally {
+            if (owned) {
+                slot.release();
+                retireSlot(logId);
+            }
+            availableInstanceLocalIds.offerLast(logId);
+        }
+    }
+
+    /**
+     * @return the ids of the logs that are currently connected through this pool.
+     */
+    protected Set<SagaLogId> connectedLogIds() {
+        return Collections.unmodifiableSet(sagaLogByLogId.keySet());
     }
 
     @Override
     public SagaLogId registerInstanceLocalIdFor(String logName) {
         SagaLogId sagaLogId = idFor(clusterInstanceId, logName);
         if (registeredInstanceLocalSagaLogIds.add(sagaLogId)) {
-            availableInstanceLocalIds.add(sagaLogId);
+            availableInstanceLocalIds.offerLast(sagaLogId);
         }
         return sagaLogId;
     }
@@ -53,22 +223,29 @@ public abstract class AbstractSagaLogPool implements SagaLogPool {
 
     @Override
     public Set<SagaLogOwnership> instanceLocalSagaLogOwnerships() {
-        LinkedHashSet<SagaLogOwnership> ownerships = new LinkedHashSet<>(ownershipByLogId.values());
-        ownerships.removeIf(ownership -> !clusterInstanceId.equals(ownership.getLogId().getClusterInstanceId()));
+        LinkedHashSet<SagaLogOwnership> ownerships = new LinkedHashSet<>();
+        for (SagaLogOwnershipSlot slot : slotByLogId.values()) {
+            SagaLogOwnership ownership = slot.ownership();
+            if (ownership != null && clusterInstanceId.equals(slot.logId.getClusterInstanceId())) {
+                ownerships.add(ownership);
+            }
+        }
         return ownerships;
     }
 
     @Override
     public void remove(SagaLogId logId) {
         SagaLog sagaLog = sagaLogByLogId.remove(logId);
-        if (sagaLog != null) {
-            try {
+        try {
+            if (sagaLog != null) {
                 sagaLog.close();
-            } catch (RuntimeException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new RuntimeException(e);
             }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            retireSlot(logId);
         }
     }
 
@@ -78,6 +255,81 @@ public abstract class AbstractSagaLogPool implements SagaLogPool {
         if (sagaLogId == null) {
             return null; // no available saga-logs right now
         }
+        return takeOwnershipOfAvailable(owner, sagaLogId);
+    }
+
+    /**
+     * Waits for an available instance-local saga-log in FIFO order with other waiting owners. The timeout is a single
+     * deadline for the whole call. An available saga-log is usually not owned by anyone and is taken without waiting,
+     * but one that is held through a direct tryTakeOwnership is waited for until the deadline.
+     */
+    @Override
+    public SagaLog tryAcquire(SagaLogOwner owner, int timeout, TimeUnit unit) throws InterruptedException, SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        SagaLogId sagaLogId = availableInstanceLocalIds.poll();
+        if (sagaLogId == null) {
+            AtomicBoolean waiting = scaleUpIfStillWaiting();
+            try {
+                sagaLogId = availableInstanceLocalIds.poll(deadline);
+            } finally {
+                if (waiting != null) {
+                    waiting.set(false);
+                }
+            }
+        }
+        SagaLog sagaLog = sagaLogId == null ? null : takeOwnershipOfAvailable(owner, sagaLogId, deadline);
+        metrics.recordAcquireWait(System.nanoTime() - start);
+        if (sagaLog == null) {
+            metrics.recordAcquireTimeout();
+            return null; // timeout
+        }
+        return sagaLog;
+    }
+
+    @Override
+    public CompletableFuture<SagaLog> acquireAsync(SagaLogOwner owner, Duration timeout) {
+        long start = System.nanoTime();
+        CompletableFuture<SagaLogId> idFuture = availableInstanceLocalIds.pollAsync();
+        idFuture.completeOnTimeout(null, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        if (!idFuture.isDone()) {
+            AtomicBoolean waiting = scaleUpIfStillWaiting();
+            if (waiting != null) {
+                idFuture.whenComplete((sagaLogId, failure) -> waiting.set(false));
+            }
+        }
+        CompletableFuture<SagaLog> result = new CompletableFuture<>();
+        idFuture.whenComplete((sagaLogId, failure) -> {
+            metrics.recordAcquireWait(System.nanoTime() - start);
+            if (failure != null) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            if (sagaLogId == null) {
+                metrics.recordAcquireTimeout();
+                result.complete(null);
+                return;
+            }
+            SagaLog sagaLog;
+            try {
+                sagaLog = takeOwnershipOfAvailable(owner, sagaLogId);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return;
+            }
+            if (!result.complete(sagaLog)) {
+                release(sagaLogId); // cancelled concurrently
+            }
+        });
+        result.whenComplete((sagaLog, failure) -> {
+            if (failure != null) {
+                idFuture.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    private SagaLog takeOwnershipOfAvailable(SagaLogOwner owner, SagaLogId sagaLogId) {
         boolean lockAcquired = false;
         try {
             SagaLog sagaLog = tryTakeOwnership(owner, sagaLogId);
@@ -88,28 +340,26 @@ public abstract class AbstractSagaLogPool implements SagaLogPool {
             return sagaLog;
         } finally {
             if (!lockAcquired) {
-                availableInstanceLocalIds.addFirst(sagaLogId);
+                availableInstanceLocalIds.offerFirst(sagaLogId);
             }
         }
     }
 
-    @Override
-    public SagaLog tryAcquire(SagaLogOwner owner, int timeout, TimeUnit unit) throws InterruptedException, SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException {
-        SagaLogId sagaLogId = availableInstanceLocalIds.poll(timeout, unit);
-        if (sagaLogId == null) {
-            return null; // timeout
-        }
+    /**
+     * Take ownership of an available saga-log that may be held through a direct tryTakeOwnership, waiting for it until
+     * the deadline.
+     *
+     * @return the saga-log, or null if it was still held at the deadline, in which case it is made available again.
+     */
+    private SagaLog takeOwnershipOfAvailable(SagaLogOwner owner, SagaLogId sagaLogId, long deadline) throws InterruptedException {
         boolean lockAcquired = false;
         try {
-            SagaLog sagaLog = tryTakeOwnership(owner, sagaLogId, timeout, unit);
-            if (sagaLog == null) {
-                throw new IllegalStateException("instance-local saga-log-id was available, but lock was unavailable.");
-            }
-            lockAcquired = true;
+            SagaLog sagaLog = tryTakeOwnership(owner, sagaLogId, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            lockAcquired = sagaLog != null;
             return sagaLog;
         } finally {
             if (!lockAcquired) {
-                availableInstanceLocalIds.addFirst(sagaLogId);
+                availableInstanceLocalIds.offerFirst(sagaLogId);
             }
         }
     }
@@ -119,70 +369,132 @@ public abstract class AbstractSagaLogPool implements SagaLogPool {
         try {
             releaseOwnership(logId);
         } finally {
-            if (registeredInstanceLocalSagaLogIds.contains(logId)) {
-                availableInstanceLocalIds.addLast(logId);
+            if (registeredInstanceLocalSagaLogIds.contains(logId) && !retireIfIdleSurplus(logId)) {
+                availableInstanceLocalIds.offerLast(logId);
             }
         }
     }
 
-    private SagaLog doAssignPoolLocalOwnership(SagaLogOwner owner, SagaLogId logId) {
-        SagaLog sagaLog = connect(logId);
-        SagaLogOwnership ownership = ownershipByLogId.computeIfAbsent(logId, id -> new SagaLogOwnership(owner, id, ZonedDateTime.now()));
-        if (!owner.equals(ownership.getOwner())) {
-            throw new SagaLogAlreadyAquiredByOtherOwnerException(String.format("SagaLogOwner %s was unable to acquire saga-log with id %s. Already owned by %s.", owner.getOwnerId(), logId, ownership.getOwner().getOwnerId()));
+    private SagaLogOwnershipSlot slotFor(SagaLogId logId) {
+        SagaLogOwnershipSlot slot = slotByLogId.get(logId);
+        if (slot != null) {
+            return slot;
         }
-        return sagaLog;
+        return slotByLogId.computeIfAbsent(logId, SagaLogOwnershipSlot::new);
     }
 
-    @Override
-    public SagaLog tryTakeOwnership(SagaLogOwner owner, SagaLogId logId) throws SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException {
-        Semaphore semaphore = exclusiveLockByLogId.computeIfAbsent(logId, id -> new Semaphore(1));
-        if (!semaphore.tryAcquire()) {
-            return null; // lock unavailable
-        }
+    private SagaLog connectOwned(SagaLogOwnershipSlot slot) {
         SagaLog sagaLog = null;
         try {
-            if (semaphore.availablePermits() > 0) {
-                throw new IllegalStateException("More than one permit available. Most likely the saga-log was released when no ownership or lock/permit is held.");
-            }
-            return (sagaLog = doAssignPoolLocalOwnership(owner, logId));
+            return (sagaLog = connect(slot.logId));
         } finally {
             if (sagaLog == null) {
-                exclusiveLockByLogId.get(logId).release();
+                slot.release();
             }
         }
     }
 
     @Override
-    public SagaLog tryTakeOwnership(SagaLogOwner owner, SagaLogId logId, long timeout, TimeUnit unit) throws InterruptedException, SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException {
-        Semaphore semaphore = exclusiveLockByLogId.computeIfAbsent(logId, id -> new Semaphore(1));
-        if (!semaphore.tryAcquire(timeout, unit)) {
-            return null; // timeout
+    public SagaLog tryTakeOwnership(SagaLogOwner owner, SagaLogId logId) throws SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException {
+        while (true) {
+            SagaLogOwnershipSlot slot = slotFor(logId);
+            if (slot.tryOwn(owner)) {
+                return connectOwned(slot);
+            }
+            if (!slot.isRetired()) {
+                metrics.recordAlreadyOwned();
+                return null; // lock unavailable
+            }
         }
-        SagaLog sagaLog = null;
-        try {
-            if (semaphore.availablePermits() > 0) {
-                throw new IllegalStateException("Acquired permit, but there are still permits available. Someone has released this saga-log-id when no ownership or lock/permit is held.");
+    }
+
+    @Override
+    public SagaLog tryTakeOwnership(SagaLogOwner owner, SagaLogId logId, long timeout, TimeUnit unit) throws InterruptedException, SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            SagaLogOwnershipSlot slot = slotFor(logId);
+            if (slot.tryOwn(owner, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return connectOwned(slot);
             }
-            return (sagaLog = doAssignPoolLocalOwnership(owner, logId));
-        } finally {
-            if (sagaLog == null) {
-                exclusiveLockByLogId.get(logId).release();
+            if (!slot.isRetired()) {
+                metrics.recordAlreadyOwned();
+                return null; // timeout
             }
         }
     }
 
+    /**
+     * The log is connected on the thread that completes the future, which is the thread that releases the log when
+     * the caller had to wait.
+     */
     @Override
-    public void releaseOwnership(SagaLogId logId) {
-        try {
-            ownershipByLogId.remove(logId);
-        } finally {
-            Semaphore semaphore = exclusiveLockByLogId.get(logId);
-            if (semaphore.availablePermits() > 0) {
-                throw new IllegalStateException("Lock already released");
+    public CompletableFuture<SagaLog> takeOwnershipAsync(SagaLogOwner owner, SagaLogId logId, Duration timeout) {
+        CompletableFuture<SagaLog> result = new CompletableFuture<>();
+        takeOwnershipAsync(owner, logId, System.nanoTime() + timeout.toNanos(), result);
+        return result;
+    }
+
+    private void takeOwnershipAsync(SagaLogOwner owner, SagaLogId logId, long deadlineNanos, CompletableFuture<SagaLog> result) {
+        SagaLogOwnershipSlot slot = slotFor(logId);
+        CompletableFuture<Boolean> owned = slot.ownAsync(owner);
+        owned.completeOnTimeout(false, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        owned.whenComplete((isOwned, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else if (!isOwned) {
+                if (slot.isRetired()) {
+                    takeOwnershipAsync(owner, logId, deadlineNanos, result);
+                } else {
+                    metrics.recordAlreadyOwned();
+                    result.complete(null); // timeout
+                }
+            } else {
+                SagaLog sagaLog;
+                try {
+                    sagaLog = connectOwned(slot);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                    return;
+                }
+                if (!result.complete(sagaLog)) {
+                    slot.release(); // cancelled concurrently
+                }
             }
-            semaphore.release();
+        });
+        result.whenComplete((sagaLog, failure) -> {
+            if (failure != null) {
+                owned.cancel(false);
+            }
+        });
+    }
+
+    @Override
+    public void releaseOwnership(SagaLogId logId) {
+        SagaLogOwnershipSlot slot = slotByLogId.get(logId);
+        long acquiredNanos = slot == null ? 0 : slot.acquiredNanos();
+        if (slot == null || !slot.release()) {
+            throw new IllegalStateException("Lock already released");
         }
+        metrics.recordOwnershipHeld(System.nanoTime() - acquiredNanos);
+    }
+
+    /**
+     * Drop the ownership slot of the given log if the log is not owned, so that the pool does not keep state for logs
+     * that are no longer in use.
+     */
+    private void retireSlot(SagaLogId logId) {
+        SagaLogOwnershipSlot slot = slotByLogId.get(logId);
+        if (slot != null && slot.retire()) {
+            slotByLogId.remove(logId, slot);
+        }
+    }
+
+    int waitingAcquirerCount() {
+        return availableInstanceLocalIds.waiting();
+    }
+
+    int ownershipSlotCount() {
+        return slotByLogId.size();
     }
 
     @Override
@@ -190,11 +502,16 @@ public abstract class AbstractSagaLogPool implements SagaLogPool {
         if (sagaLogByLogId.containsKey(logId)) {
             throw new RuntimeException("Saga-log with id %s must be removed from pool before it can be deleted.");
         }
+        retireSlot(logId);
         return deleteExternal(logId);
     }
 
     protected abstract boolean deleteExternal(SagaLogId logId);
 
+    /**
+     * Close and remove all connected logs. The ownership of logs that are still owned is kept, so that their owners can
+     * release them after shutdown as usual.
+     */
     @Override
     public void shutdown() {
         for (SagaLog sagaLog : sagaLogByLogId.values()) {
@@ -207,6 +524,8 @@ public abstract class AbstractSagaLogPool implements SagaLogPool {
             }
         }
         sagaLogByLogId.clear();
-        ownershipByLogId.clear();
+        for (SagaLogId logId : slotByLogId.keySet()) {
+            retireSlot(logId);
+        }
     }
 }
@@ -1,11 +1,12 @@
 package no.ssb.sagalog;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.Flow;
 import java.util.stream.Stream;
 
 public interface SagaLog extends AutoCloseable {
@@ -14,10 +15,56 @@ public interface SagaLog extends AutoCloseable {
 
     CompletableFuture<SagaLogEntry> write(SagaLogEntryBuilder builder);
 
+    /**
+     * Write a batch of entries with a single call. Implementations that support it natively assign contiguous ids to
+     * the batch, append it without interleaving entries from other writers, and complete the returned future once for
+     * the whole batch. The default implementation writes the entries one at a time.
+     *
+     * @param builders the entries to write, in order
+     * @return a future that completes with the written entries, in the same order as the builders.
+     */
+    default CompletableFuture<List<SagaLogEntry>> writeAll(List<SagaLogEntryBuilder> builders) {
+        List<CompletableFuture<SagaLogEntry>> futures = new ArrayList<>(builders.size());
+        for (SagaLogEntryBuilder builder : builders) {
+            futures.add(write(builder));
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            List<SagaLogEntry> entries = new ArrayList<>(futures.size());
+            for (CompletableFuture<SagaLogEntry> future : futures) {
+                entries.add(future.join());
+            }
+            return entries;
+        });
+    }
+
     CompletableFuture<Void> truncate(SagaLogEntryId id);
 
     CompletableFuture<Void> truncate();
 
+    /**
+     * Remove the entries of saga executions that have both started and ended from the log, also when they are not at
+     * the head of the log, so that the log only holds entries of sagas that are still running. Backends may also
+     * compact in the background. The default implementation does nothing, and entries are then only removed by
+     * truncate.
+     *
+     * @return a future that completes when the executions that had ended when this method was called are compacted.
+     */
+    default CompletableFuture<Void> compact() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Persist a checkpoint of the entries of the incomplete saga executions, so that recovery reads the checkpoint and
+     * only the entries written after it instead of every entry since the last truncate. Executions that have both
+     * started and ended are left out of the checkpoint, and are no longer returned by readIncompleteSagas. Backends
+     * that do not need to replay the log on restart can keep the default implementation, which does nothing.
+     *
+     * @return a future that completes when the checkpoint is durable.
+     */
+    default CompletableFuture<Void> checkpoint() {
+        return CompletableFuture.completedFuture(null);
+    }
+
     Stream<SagaLogEntry> readIncompleteSagas();
 
     Stream<SagaLogEntry> readEntries(String executionId);
@@ -30,21 +77,56 @@ public interface SagaLog extends AutoCloseable {
 
     SagaLogEntryId fromBytes(byte[] idBytes);
 
+    /**
+     * Compare two entry ids of this log by their position in the log. The default implementation compares the bytes of
+     * the ids as unsigned values in lexicographic order, which is the log order for backends whose ids encode their
+     * position big-endian. Backends with other ids should override it, and backends can override it to compare without
+     * encoding the ids.
+     *
+     * @return a negative number, zero, or a positive number if id1 is before, the same as, or after id2 in the log.
+     */
+    default int compare(SagaLogEntryId id1, SagaLogEntryId id2) {
+        return Arrays.compareUnsigned(toBytes(id1), toBytes(id2));
+    }
+
     default SagaLogEntryBuilder builder() {
         return new SagaLogEntryBuilder();
     }
 
+    /**
+     * A builder from the pool of the calling thread, see {@link SagaLogEntryBuilderPool}. The log resets the builder and
+     * returns it to the pool before write or writeAll returns, also when they throw, so callers must not use the builder
+     * after passing it to write or writeAll, and must not read builder.id(), which is null once the builder is reset.
+     * Use the id of the entry returned by the write instead.
+     */
+    default SagaLogEntryBuilder pooledBuilder() {
+        return SagaLogEntryBuilderPool.acquire();
+    }
+
     default Map<String, List<SagaLogEntry>> getSnapshotOfSagaLogEntriesByNodeId(String executionId) {
         Map<String, List<SagaLogEntry>> recoverySagaLogEntriesBySagaNodeId = new LinkedHashMap<>();
-        List<SagaLogEntry> entries = readEntries(executionId).collect(Collectors.toList());
-        for (SagaLogEntry entry : entries) {
-            List<SagaLogEntry> nodeEntries = recoverySagaLogEntriesBySagaNodeId.get(entry.getNodeId());
-            if (nodeEntries == null) {
-                nodeEntries = new ArrayList<>(4);
-                recoverySagaLogEntriesBySagaNodeId.put(entry.getNodeId(), nodeEntries);
-            }
-            nodeEntries.add(entry);
+        try (Stream<SagaLogEntry> entries = readEntries(executionId)) {
+            entries.forEachOrdered(entry -> {
+                List<SagaLogEntry> nodeEntries = recoverySagaLogEntriesBySagaNodeId.get(entry.getNodeId());
+                if (nodeEntries == null) {
+                    nodeEntries = new ArrayList<>(4);
+                    recoverySagaLogEntriesBySagaNodeId.put(entry.getNodeId(), nodeEntries);
+                }
+                nodeEntries.add(entry);
+            });
         }
         return recoverySagaLogEntriesBySagaNodeId;
     }
+
+    /**
+     * Read the incomplete sagas of this log grouped per saga execution, for recovery of logs that are too large to be
+     * buffered. Executions are published as soon as the end of the saga has been read, and executions that have not
+     * ended are published when the end of the log is reached. The log is read lazily according to subscriber demand,
+     * and memory use is proportional to the entries of the executions that are open at the same point in the log.
+     *
+     * @return a publisher that reads the log from the start for each subscriber.
+     */
+    default Flow.Publisher<SagaLogExecutionEntries> readIncompleteExecutions() {
+        return new SagaLogRecoveryPublisher(this::readIncompleteSagas);
+    }
 }
@@ -0,0 +1,206 @@
+package no.ssb.sagalog;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The instance-local saga-log ids that are available for acquiring, and a FIFO queue of the threads and futures waiting
+ * for one. An id that becomes available while there are waiters is handed directly to the longest waiter, so an id is
+ * only ever in the available queue when there are no waiters, and waiters are served in arrival order. Futures are
+ * completed outside the lock, and an id handed to a future that has been cancelled or timed out is passed on.
+ */
+class SagaLogAcquireQueue {
+
+    private final ArrayDeque<SagaLogId> available = new ArrayDeque<>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    synchronized SagaLogId poll() {
+        return available.pollFirst();
+    }
+
+    /**
+     * Take an available id, waiting until one is handed over or the deadline is reached.
+     *
+     * @param deadlineNanos deadline in System.nanoTime units
+     * @return the id, or null if the deadline was reached first
+     */
+    SagaLogId poll(long deadlineNanos) throws InterruptedException {
+        Waiter waiter;
+        synchronized (this) {
+            SagaLogId logId = available.pollFirst();
+            if (logId != null) {
+                return logId;
+            }
+            waiter = new ThreadWaiter(Thread.currentThread());
+            waiters.addLast(waiter);
+        }
+        while (true) {
+            if (waiter.logId != null) {
+                return waiter.logId;
+            }
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0 || Thread.interrupted()) {
+                synchronized (this) {
+                    if (waiter.logId == null) {
+                        waiters.remove(waiter);
+                        if (remaining <= 0) {
+                            return null;
+                        }
+                        throw new InterruptedException();
+                    }
+                }
+                if (remaining > 0) {
+                    offerFirst(waiter.logId); // handed over concurrently with interrupt, pass it on
+                    throw new InterruptedException();
+                }
+                return waiter.logId;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * Take an available id without blocking the calling thread.
+     *
+     * @return a future that completes with the id when one is handed over, or with null when the future is completed
+     * by the caller on timeout. Cancelling or completing the future removes it from the queue.
+     */
+    CompletableFuture<SagaLogId> pollAsync() {
+        FutureWaiter waiter;
+        synchronized (this) {
+            SagaLogId logId = available.pollFirst();
+            if (logId != null) {
+                return CompletableFuture.completedFuture(logId);
+            }
+            waiter = new FutureWaiter();
+            waiters.addLast(waiter);
+        }
+        return waiter.future;
+    }
+
+    /**
+     * Make the id available, handing it to the longest waiter if any, or else to the next poll.
+     */
+    void offerFirst(SagaLogId logId) {
+        while (true) {
+            Waiter waiter;
+            synchronized (this) {
+                waiter = handOff(logId);
+                if (waiter == null) {
+                    available.addFirst(logId);
+                    return;
+                }
+            }
+            if (waiter.signal()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Make the id available, handing it to the longest waiter if any, or else after all other available ids.
+     */
+    void offerLast(SagaLogId logId) {
+        Waiter waiter;
+        synchronized (this) {
+            waiter = handOff(logId);
+            if (waiter == null) {
+                available.addLast(logId);
+                return;
+            }
+        }
+        if (!waiter.signal()) {
+            offerFirst(logId); // waiter is gone, the id stays ahead of ids made available later
+        }
+    }
+
+    /**
+     * Take the given id out of the available ids.
+     *
+     * @return false if the id was not available.
+     */
+    synchronized boolean remove(SagaLogId logId) {
+        return available.remove(logId);
+    }
+
+    synchronized int available() {
+        return available.size();
+    }
+
+    synchronized int waiting() {
+        return waiters.size();
+    }
+
+    private Waiter handOff(SagaLogId logId) {
+        Waiter waiter = waiters.pollFirst();
+        if (waiter != null) {
+            waiter.logId = logId;
+        }
+        return waiter;
+    }
+
+    private abstract static class Waiter {
+        volatile SagaLogId logId;
+
+        /**
+         * Wake the waiter after the id has been handed to it.
+         *
+         * @return false if the waiter no longer wants the id.
+         */
+        abstract boolean signal();
+    }
+
+    private static class ThreadWaiter extends Waiter {
+        final Thread thread;
+
+        ThreadWaiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        boolean signal() {
+            LockSupport.unpark(thread);
+            return true;
+        }
+    }
+
+    /**
+     * The future leaves the queue before it is completed by anything else than a hand-off, so that the waiter is gone
+     * by the time dependents of the future run.
+     */
+    private class FutureWaiter extends Waiter {
+        final CompletableFuture<SagaLogId> future = new CompletableFuture<>() {
+            @Override
+            public boolean complete(SagaLogId value) {
+                if (value == null) {
+                    leave();
+                }
+                return super.complete(value);
+            }
+
+            @Override
+            public boolean completeExceptionally(Throwable ex) {
+                leave();
+                return super.completeExceptionally(ex);
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                leave();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        private void leave() {
+            synchronized (SagaLogAcquireQueue.this) {
+                waiters.remove(this);
+            }
+        }
+
+        @Override
+        boolean signal() {
+            return future.complete(logId);
+        }
+    }
+}
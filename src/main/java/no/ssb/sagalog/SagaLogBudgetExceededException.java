@@ -0,0 +1,22 @@
+package no.ssb.sagalog;
+
+public class SagaLogBudgetExceededException extends RuntimeException {
+    public SagaLogBudgetExceededException() {
+    }
+
+    public SagaLogBudgetExceededException(String message) {
+        super(message);
+    }
+
+    public SagaLogBudgetExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public SagaLogBudgetExceededException(Throwable cause) {
+        super(cause);
+    }
+
+    public SagaLogBudgetExceededException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
@@ -1,5 +1,7 @@
 package no.ssb.sagalog;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 public class SagaLogEntry {
@@ -10,8 +12,20 @@ public class SagaLogEntry {
     final String nodeId;
     final String sagaName;
     final String jsonData;
+    final ByteBuffer jsonDataBytes;
 
     SagaLogEntry(SagaLogEntryId id, String executionId, SagaLogEntryType entryType, String nodeId, String sagaName, String jsonData) {
+        this(id, executionId, entryType, nodeId, sagaName, jsonData, null);
+    }
+
+    /**
+     * Create an entry where jsonData is kept as UTF-8 bytes and only decoded when accessed.
+     */
+    SagaLogEntry(SagaLogEntryId id, String executionId, SagaLogEntryType entryType, String nodeId, String sagaName, ByteBuffer jsonDataBytes) {
+        this(id, executionId, entryType, nodeId, sagaName, null, jsonDataBytes);
+    }
+
+    private SagaLogEntry(SagaLogEntryId id, String executionId, SagaLogEntryType entryType, String nodeId, String sagaName, String jsonData, ByteBuffer jsonDataBytes) {
         if (id == null) {
             throw new NullPointerException("id");
         }
@@ -30,6 +44,14 @@ public class SagaLogEntry {
         this.nodeId = nodeId;
         this.sagaName = sagaName;
         this.jsonData = jsonData;
+        this.jsonDataBytes = jsonDataBytes;
+    }
+
+    /**
+     * @return a copy of this entry with the given id, sharing the jsonData of this entry.
+     */
+    SagaLogEntry withId(SagaLogEntryId id) {
+        return new SagaLogEntry(id, executionId, entryType, nodeId, sagaName, jsonData, jsonDataBytes);
     }
 
     @Override
@@ -54,7 +76,7 @@ public class SagaLogEntry {
                 ", entryType=" + entryType +
                 ", nodeId='" + nodeId + '\'' +
                 ", sagaName='" + sagaName + '\'' +
-                ", jsonData='" + jsonData + '\'' +
+                ", jsonData='" + getJsonData() + '\'' +
                 '}';
     }
 
@@ -79,6 +101,18 @@ public class SagaLogEntry {
     }
 
     public String getJsonData() {
+        if (jsonDataBytes != null) {
+            return StandardCharsets.UTF_8.decode(jsonDataBytes.duplicate()).toString();
+        }
         return jsonData;
     }
+
+    /**
+     * @return true if this entry marks the end of its saga execution, either by the end of the saga or by the
+     * completed compensation of the start of the saga after an abort.
+     */
+    public boolean isEndOfSaga() {
+        return (entryType == SagaLogEntryType.End && "E".equals(nodeId))
+                || (entryType == SagaLogEntryType.Comp && "S".equals(nodeId));
+    }
 }
@@ -1,5 +1,7 @@
 package no.ssb.sagalog;
 
+import java.nio.ByteBuffer;
+
 public class SagaLogEntryBuilder {
 
     SagaLogEntryId id;
@@ -8,6 +10,7 @@ public class SagaLogEntryBuilder {
     String nodeId;
     String sagaName;
     String jsonData;
+    boolean pooled;
 
     public SagaLogEntryBuilder() {
     }
@@ -16,6 +19,48 @@ public class SagaLogEntryBuilder {
         return new SagaLogEntry(id, executionId, entryType, nodeId, sagaName, jsonData);
     }
 
+    /**
+     * Build an entry that uses the given UTF-8 bytes as jsonData instead of the jsonData of this builder. The bytes
+     * are referenced, not copied, by the entry and decoded every time getJsonData is called.
+     *
+     * @param jsonDataBytes the UTF-8 encoded jsonData from position to limit.
+     * @return the built entry.
+     */
+    public SagaLogEntry build(ByteBuffer jsonDataBytes) {
+        return new SagaLogEntry(id, executionId, entryType, nodeId, sagaName, jsonDataBytes.asReadOnlyBuffer());
+    }
+
+    /**
+     * Check that the fields required by an entry are present, without building or copying anything.
+     *
+     * @throws NullPointerException if executionId, entryType or nodeId is missing.
+     */
+    public SagaLogEntryBuilder validate() {
+        if (executionId == null) {
+            throw new NullPointerException("executionId");
+        }
+        if (entryType == null) {
+            throw new NullPointerException("entryType");
+        }
+        if (nodeId == null) {
+            throw new NullPointerException("nodeId");
+        }
+        return this;
+    }
+
+    /**
+     * Clear all fields, including the id, so that the builder can be used for another entry.
+     */
+    public SagaLogEntryBuilder reset() {
+        id = null;
+        executionId = null;
+        entryType = null;
+        nodeId = null;
+        sagaName = null;
+        jsonData = null;
+        return this;
+    }
+
     public SagaLogEntryBuilder startSaga(String executionId, String sagaName, String sagaInputJson) {
         return executionId(executionId).entryType(SagaLogEntryType.Start).nodeId("S").sagaName(sagaName).jsonData(sagaInputJson);
     }
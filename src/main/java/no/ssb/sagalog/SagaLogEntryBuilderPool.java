@@ -0,0 +1,69 @@
+package no.ssb.sagalog;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of builders per thread, so that writers can reuse builders instead of allocating one per write. Pooled
+ * builders are reset and returned to the pool of the writing thread by the backends before write or writeAll returns,
+ * also when they throw. A write that completes later on another thread works on a {@link #detach(SagaLogEntryBuilder)
+ * detached} copy, so builders never move to the pool of another thread. Each thread keeps at most
+ * {@link #MAX_POOLED_PER_THREAD} builders, any further builders that are released are left to the garbage collector.
+ */
+public final class SagaLogEntryBuilderPool {
+
+    public static final int MAX_POOLED_PER_THREAD = 16;
+
+    private static final ThreadLocal<ArrayDeque<SagaLogEntryBuilder>> POOL = ThreadLocal.withInitial(() -> new ArrayDeque<>(MAX_POOLED_PER_THREAD));
+
+    private SagaLogEntryBuilderPool() {
+    }
+
+    /**
+     * @return an empty builder from the pool of the calling thread, or a new one if the pool is empty. The builder
+     * must not be used after it has been passed to write or writeAll.
+     */
+    public static SagaLogEntryBuilder acquire() {
+        SagaLogEntryBuilder builder = POOL.get().pollFirst();
+        if (builder == null) {
+            builder = new SagaLogEntryBuilder();
+        }
+        builder.pooled = true;
+        return builder;
+    }
+
+    /**
+     * @return a copy of a pooled builder that is not pooled, for a write that uses the builder after the call that
+     * received it has returned, after which the pooled builder is released. Builders that are not pooled are returned
+     * as they are.
+     */
+    public static SagaLogEntryBuilder detach(SagaLogEntryBuilder builder) {
+        if (!builder.pooled) {
+            return builder;
+        }
+        SagaLogEntryBuilder copy = new SagaLogEntryBuilder()
+                .id(builder.id())
+                .executionId(builder.executionId())
+                .entryType(builder.entryType())
+                .nodeId(builder.nodeId())
+                .sagaName(builder.sagaName())
+                .jsonData(builder.jsonData());
+        release(builder);
+        return copy;
+    }
+
+    /**
+     * Reset the builder and return it to the pool of the calling thread. Builders that were not acquired from the pool,
+     * or that have already been released, are left untouched.
+     */
+    public static void release(SagaLogEntryBuilder builder) {
+        if (!builder.pooled) {
+            return;
+        }
+        builder.pooled = false;
+        builder.reset();
+        ArrayDeque<SagaLogEntryBuilder> pool = POOL.get();
+        if (pool.size() < MAX_POOLED_PER_THREAD) {
+            pool.addFirst(builder);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package no.ssb.sagalog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact, versioned binary encoding of saga-log entries that backends can use for storage and replication. The entry
+ * id is not part of the encoding, as the id is assigned by, and usually derived from the position in, the backend.
+ * <p>
+ * Version 1 layout: [byte version][byte entryType][executionId][nodeId][sagaName][jsonData], where each string is
+ * encoded as an unsigned varint holding the number of UTF-8 bytes plus one (zero means null) followed by the UTF-8
+ * bytes.
+ * <p>
+ * Version 2 layout: [byte version][jsonData][byte entryType][executionId][nodeId][sagaName], where jsonData is encoded
+ * as in version 1, and the other strings are references into a {@link SagaLogStringDictionary} shared by a sequence of
+ * entries, the executionId into its table of executionIds and the nodeId and sagaName into its table of names. A
+ * reference is an unsigned varint that is zero for null, the index in the table times two plus one for a string that is
+ * in the table, or the number of UTF-8 bytes plus one times two followed by the UTF-8 bytes for a string that is not,
+ * which is then added to the table if there is room. The head, up to and including jsonData, does not depend
+ * on the dictionary, so it can be encoded before the place of the entry in the sequence is known. Decoding a version 2
+ * entry requires the dictionary of all entries before it in the sequence.
+ * <p>
+ * Entries are encoded directly into the target buffer without intermediate byte arrays. Decoded entries reference the
+ * jsonData bytes in the source buffer, and only decode them to a String when getJsonData is called, so the source
+ * buffer must not be modified while decoded entries are in use.
+ */
+public class SagaLogEntryCodec {
+
+    public static final byte VERSION_1 = 1;
+    public static final byte VERSION_2 = 2;
+
+    private SagaLogEntryCodec() {
+    }
+
+    public static int encodedSize(SagaLogEntry entry) {
+        return 2 + stringSize(entry.executionId) + stringSize(entry.nodeId) + stringSize(entry.sagaName) + jsonDataSize(entry);
+    }
+
+    public static int encodedSize(SagaLogEntryBuilder builder) {
+        return 2 + stringSize(builder.executionId) + stringSize(builder.nodeId) + stringSize(builder.sagaName) + stringSize(builder.jsonData);
+    }
+
+    /**
+     * Encode the entry into the buffer starting at the buffer's position, and advance the position past the entry.
+     */
+    public static void encode(SagaLogEntry entry, ByteBuffer buffer) {
+        buffer.put(VERSION_1);
+        buffer.put((byte) entry.entryType.ordinal());
+        putString(buffer, entry.executionId);
+        putString(buffer, entry.nodeId);
+        putString(buffer, entry.sagaName);
+        if (entry.jsonDataBytes != null) {
+            putVarint(buffer, entry.jsonDataBytes.remaining() + 1);
+            buffer.put(entry.jsonDataBytes.duplicate());
+        } else {
+            putString(buffer, entry.jsonData);
+        }
+    }
+
+    /**
+     * Encode the fields of the builder into the buffer starting at the buffer's position, and advance the position
+     * past the entry. Only the entry type, without which the entry could not be decoded, is checked, callers that need
+     * full validation should call validate first.
+     *
+     * @throws NullPointerException if the builder has no entry type, before anything is written to the buffer.
+     */
+    public static void encode(SagaLogEntryBuilder builder, ByteBuffer buffer) {
+        if (builder.entryType == null) {
+            throw new NullPointerException("entryType");
+        }
+        buffer.put(VERSION_1);
+        buffer.put((byte) builder.entryType.ordinal());
+        putString(buffer, builder.executionId);
+        putString(buffer, builder.nodeId);
+        putString(buffer, builder.sagaName);
+        putString(buffer, builder.jsonData);
+    }
+
+    /**
+     * @return the size of the version 2 head of the builder, see {@link #encodeHead(SagaLogEntryBuilder, ByteBuffer)}.
+     */
+    public static int encodedHeadSize(SagaLogEntryBuilder builder) {
+        return 1 + stringSize(builder.jsonData);
+    }
+
+    /**
+     * Encode the version and jsonData of the builder as the head of a version 2 entry.
+     */
+    public static void encodeHead(SagaLogEntryBuilder builder, ByteBuffer buffer) {
+        buffer.put(VERSION_2);
+        putString(buffer, builder.jsonData);
+    }
+
+    /**
+     * @return the size of the tail of the builder when none of its strings are in the dictionary, which is the largest
+     * size that {@link #encodeTail(SagaLogEntryBuilder, ByteBuffer, SagaLogStringDictionary)} can use.
+     */
+    public static int maxEncodedTailSize(SagaLogEntryBuilder builder) {
+        return 1 + maxStringRefSize(builder.executionId) + maxStringRefSize(builder.nodeId) + maxStringRefSize(builder.sagaName);
+    }
+
+    /**
+     * Encode the entry type and strings of a validated builder as the tail of a version 2 entry, following the head,
+     * and add the strings that are not in the dictionary to it.
+     */
+    public static void encodeTail(SagaLogEntryBuilder builder, ByteBuffer buffer, SagaLogStringDictionary dictionary) {
+        buffer.put((byte) builder.entryType.ordinal());
+        putStringRef(buffer, builder.executionId, dictionary.executionIds);
+        putStringRef(buffer, builder.nodeId, dictionary.names);
+        putStringRef(buffer, builder.sagaName, dictionary.names);
+    }
+
+    /**
+     * @return the size of the entry as version 2 when none of its strings are in the dictionary, which is the largest
+     * size that {@link #encode(SagaLogEntry, ByteBuffer, SagaLogStringDictionary)} can use.
+     */
+    public static int maxEncodedSize(SagaLogEntry entry) {
+        return 2 + jsonDataSize(entry) + maxStringRefSize(entry.executionId) + maxStringRefSize(entry.nodeId) + maxStringRefSize(entry.sagaName);
+    }
+
+    /**
+     * Encode the entry as version 2, and add the strings that are not in the dictionary to it.
+     */
+    public static void encode(SagaLogEntry entry, ByteBuffer buffer, SagaLogStringDictionary dictionary) {
+        buffer.put(VERSION_2);
+        if (entry.jsonDataBytes != null) {
+            putVarint(buffer, entry.jsonDataBytes.remaining() + 1);
+            buffer.put(entry.jsonDataBytes.duplicate());
+        } else {
+            putString(buffer, entry.jsonData);
+        }
+        buffer.put((byte) entry.entryType.ordinal());
+        putStringRef(buffer, entry.executionId, dictionary.executionIds);
+        putStringRef(buffer, entry.nodeId, dictionary.names);
+        putStringRef(buffer, entry.sagaName, dictionary.names);
+    }
+
+    /**
+     * Decode an entry starting at the buffer's position, and advance the position past the entry. The jsonData of the
+     * returned entry is a read-only view of the bytes in the buffer, and is only decoded when accessed.
+     *
+     * @param id     the id of the decoded entry
+     * @param buffer the buffer to decode from
+     * @return the decoded entry
+     */
+    public static SagaLogEntry decode(SagaLogEntryId id, ByteBuffer buffer) {
+        return decode(id, buffer, null);
+    }
+
+    /**
+     * Decode a version 1 or version 2 entry starting at the buffer's position, and advance the position past the entry.
+     * Strings of a version 2 entry that are not in the dictionary are added to it.
+     *
+     * @param dictionary the dictionary of the entries before this one, or null if the entry is known to be version 1
+     * @throws IllegalArgumentException if the entry is version 2 and there is no dictionary.
+     */
+    public static SagaLogEntry decode(SagaLogEntryId id, ByteBuffer buffer, SagaLogStringDictionary dictionary) {
+        byte version = buffer.get();
+        if (version == VERSION_2) {
+            ByteBuffer jsonDataBytes = getJsonDataBytes(buffer);
+            SagaLogEntryType entryType = SagaLogEntryType.values()[buffer.get()];
+            String executionId = getStringRef(buffer, requireDictionary(dictionary).executionIds);
+            String nodeId = getStringRef(buffer, dictionary.names);
+            String sagaName = getStringRef(buffer, dictionary.names);
+            return new SagaLogEntry(id, executionId, entryType, nodeId, sagaName, jsonDataBytes);
+        }
+        if (version != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported saga-log entry codec version: " + version);
+        }
+        SagaLogEntryType entryType = SagaLogEntryType.values()[buffer.get()];
+        String executionId = getString(buffer);
+        String nodeId = getString(buffer);
+        String sagaName = getString(buffer);
+        return new SagaLogEntry(id, executionId, entryType, nodeId, sagaName, getJsonDataBytes(buffer));
+    }
+
+    /**
+     * Advance the position of the buffer past the entry at its position without decoding it, except for adding the
+     * strings of a version 2 entry that are not in the dictionary to it, and using the strings that are, exactly as
+     * decoding would. Used to build the dictionary of a sequence when reading from the middle of it.
+     */
+    public static void skip(ByteBuffer buffer, SagaLogStringDictionary dictionary) {
+        byte version = buffer.get();
+        if (version == VERSION_2) {
+            skipString(buffer);
+            buffer.get();
+            requireDictionary(dictionary);
+            skipStringRef(buffer, dictionary.executionIds);
+            skipStringRef(buffer, dictionary.names);
+            skipStringRef(buffer, dictionary.names);
+            return;
+        }
+        if (version != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported saga-log entry codec version: " + version);
+        }
+        buffer.get();
+        for (int i = 0; i < 4; i++) {
+            skipString(buffer);
+        }
+    }
+
+    private static ByteBuffer getJsonDataBytes(ByteBuffer buffer) {
+        int jsonDataLength = getVarint(buffer) - 1;
+        if (jsonDataLength < 0) {
+            return null;
+        }
+        ByteBuffer jsonDataBytes = buffer.slice().limit(jsonDataLength).asReadOnlyBuffer();
+        buffer.position(buffer.position() + jsonDataLength);
+        return jsonDataBytes;
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = getVarint(buffer) - 1;
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private static SagaLogStringDictionary requireDictionary(SagaLogStringDictionary dictionary) {
+        if (dictionary == null) {
+            throw new IllegalArgumentException("Decoding a version 2 entry requires a dictionary");
+        }
+        return dictionary;
+    }
+
+    private static int maxStringRefSize(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int length = utf8Length(value);
+        return varintSize((length + 1) << 1) + length;
+    }
+
+    private static void putStringRef(ByteBuffer buffer, String value, SagaLogStringDictionary.Table table) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        int index = table.indexOf(value);
+        if (index >= 0) {
+            putVarint(buffer, (index << 1) | 1);
+            return;
+        }
+        putVarint(buffer, (utf8Length(value) + 1) << 1);
+        putUtf8(buffer, value);
+        table.add(value);
+    }
+
+    private static String getStringRef(ByteBuffer buffer, SagaLogStringDictionary.Table table) {
+        int ref = getVarint(buffer);
+        if (ref == 0) {
+            return null;
+        }
+        if ((ref & 1) == 1) {
+            return table.get(ref >>> 1);
+        }
+        String value = getUtf8(buffer, (ref >>> 1) - 1);
+        table.add(value);
+        return value;
+    }
+
+    private static void skipStringRef(ByteBuffer buffer, SagaLogStringDictionary.Table table) {
+        int ref = getVarint(buffer);
+        if (ref == 0) {
+            return;
+        }
+        if ((ref & 1) == 1) {
+            table.get(ref >>> 1); // uses the string, which keeps the order of eviction the same as when decoding
+            return;
+        }
+        table.add(getUtf8(buffer, (ref >>> 1) - 1));
+    }
+
+    private static int jsonDataSize(SagaLogEntry entry) {
+        if (entry.jsonDataBytes != null) {
+            int length = entry.jsonDataBytes.remaining();
+            return varintSize(length + 1) + length;
+        }
+        return stringSize(entry.jsonData);
+    }
+
+    /**
+     * @return the number of bytes used by putString for the given, possibly null, string.
+     */
+    public static int stringSize(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int length = utf8Length(value);
+        return varintSize(length + 1) + length;
+    }
+
+    public static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        putVarint(buffer, utf8Length(value) + 1);
+        putUtf8(buffer, value);
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        return getUtf8(buffer, length);
+    }
+
+    private static String getUtf8(ByteBuffer buffer, int length) {
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * @return the value as 8 big-endian bytes.
+     */
+    public static byte[] longToBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the value of 8 big-endian bytes.
+     */
+    public static long longFromBytes(byte[] bytes) {
+        if (bytes.length != 8) {
+            throw new IllegalArgumentException("Expected 8 bytes, got " + bytes.length);
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * @return the number of bytes needed to encode value as UTF-8.
+     */
+    public static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // unpaired surrogate is encoded as '?', same as String.getBytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encode value as UTF-8 into the buffer without intermediate allocation, advancing the buffer position.
+     */
+    public static void putUtf8(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package no.ssb.sagalog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The entries of a single saga execution read from a saga-log, grouped by node id in log order.
+ */
+public class SagaLogExecutionEntries {
+
+    private final String executionId;
+    private final Map<String, List<SagaLogEntry>> entriesByNodeId = new LinkedHashMap<>();
+    private boolean complete;
+
+    SagaLogExecutionEntries(String executionId) {
+        this.executionId = executionId;
+    }
+
+    void add(SagaLogEntry entry) {
+        List<SagaLogEntry> nodeEntries = entriesByNodeId.get(entry.nodeId);
+        if (nodeEntries == null) {
+            nodeEntries = new ArrayList<>(4);
+            entriesByNodeId.put(entry.nodeId, nodeEntries);
+        }
+        nodeEntries.add(entry);
+        if (entry.isEndOfSaga()) {
+            complete = true;
+        }
+    }
+
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    public Map<String, List<SagaLogEntry>> getEntriesByNodeId() {
+        return Collections.unmodifiableMap(entriesByNodeId);
+    }
+
+    /**
+     * @return true if the log holds the end of this saga execution, false if the execution was still running when the
+     * log was last written.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return "SagaLogExecutionEntries{" +
+                "executionId='" + executionId + '\'' +
+                ", complete=" + complete +
+                ", entriesByNodeId=" + entriesByNodeId +
+                '}';
+    }
+}
@@ -0,0 +1,7 @@
+package no.ssb.sagalog;
+
+public enum SagaLogFsyncPolicy {
+    PerEntry, // every write is flushed to durable storage before its future is completed
+    PerBatch, // concurrent writes are flushed together as soon as the previous flush has completed
+    TimeWindow // writes are collected for a fixed time-window, then flushed together
+}
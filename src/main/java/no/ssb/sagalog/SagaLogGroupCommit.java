@@ -0,0 +1,183 @@
+package no.ssb.sagalog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Group-commit support for saga-log implementations. A saga-log appends the entry to its backing storage and then
+ * calls commit, which returns a future that is completed once a flush that includes the entry has completed. Depending
+ * on the fsync policy, concurrent commits are flushed together by a single flusher thread, so that many writers share
+ * the cost of each flush. The futures of a flushed batch are completed on an executor rather than on the flusher
+ * thread, so that dependent stages neither delay the next flush nor block the flusher on locks of the saga-log.
+ */
+public class SagaLogGroupCommit implements AutoCloseable {
+
+    private final SagaLogFsyncPolicy policy;
+    private final long timeWindowNanos;
+    private final Runnable flush;
+    private final Executor completionExecutor;
+    private final Queue<PendingCommit<?>> pendingCommits = new ConcurrentLinkedQueue<>();
+    private final Thread flusherThread;
+
+    private volatile boolean flusherIdle;
+    private volatile boolean closed;
+
+    /**
+     * @param name       used to name the flusher thread.
+     * @param policy     the fsync policy.
+     * @param timeWindow the time-window used to collect commits when policy is TimeWindow, ignored otherwise.
+     * @param unit       the unit of timeWindow.
+     * @param flush      makes everything appended so far durable, will be called by one thread at a time.
+     */
+    public SagaLogGroupCommit(String name, SagaLogFsyncPolicy policy, long timeWindow, TimeUnit unit, Runnable flush) {
+        this(name, policy, timeWindow, unit, flush, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param completionExecutor completes the futures of each flushed batch, one task per batch.
+     */
+    public SagaLogGroupCommit(String name, SagaLogFsyncPolicy policy, long timeWindow, TimeUnit unit, Runnable flush, Executor completionExecutor) {
+        this.policy = policy;
+        this.timeWindowNanos = unit.toNanos(timeWindow);
+        this.flush = flush;
+        this.completionExecutor = completionExecutor;
+        if (policy == SagaLogFsyncPolicy.PerEntry) {
+            this.flusherThread = null;
+        } else {
+            this.flusherThread = new Thread(this::flushLoop, "sagalog-group-commit-" + name);
+            this.flusherThread.setDaemon(true);
+            this.flusherThread.start();
+        }
+    }
+
+    public SagaLogFsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Commit a value that has already been appended to the saga-log storage.
+     *
+     * @param value the value that the returned future will be completed with
+     * @return a future that is completed with value after the value has been flushed.
+     */
+    public <T> CompletableFuture<T> commit(T value) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Group-commit is closed"));
+        }
+        if (flusherThread == null) {
+            synchronized (this) {
+                try {
+                    flush.run();
+                } catch (RuntimeException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+            return CompletableFuture.completedFuture(value);
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        PendingCommit<T> pendingCommit = new PendingCommit<>(value, future);
+        pendingCommits.add(pendingCommit);
+        if (flusherIdle) {
+            LockSupport.unpark(flusherThread);
+        }
+        if (closed && pendingCommits.remove(pendingCommit)) {
+            future.completeExceptionally(new IllegalStateException("Group-commit is closed"));
+        }
+        return future;
+    }
+
+    private void flushLoop() {
+        List<PendingCommit<?>> batch = new ArrayList<>();
+        while (true) {
+            if (pendingCommits.isEmpty()) {
+                if (closed) {
+                    return;
+                }
+                flusherIdle = true;
+                if (pendingCommits.isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                flusherIdle = false;
+                continue;
+            }
+            if (policy == SagaLogFsyncPolicy.TimeWindow && !closed) {
+                long deadline = System.nanoTime() + timeWindowNanos;
+                for (long remaining = timeWindowNanos; remaining > 0 && !closed; remaining = deadline - System.nanoTime()) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+            for (PendingCommit<?> pendingCommit; (pendingCommit = pendingCommits.poll()) != null; ) {
+                batch.add(pendingCommit);
+            }
+            RuntimeException failure = null;
+            try {
+                flush.run();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            completeOnExecutor(batch, failure);
+            batch = new ArrayList<>();
+        }
+    }
+
+    private void completeOnExecutor(List<PendingCommit<?>> batch, RuntimeException failure) {
+        Runnable completion = () -> {
+            for (PendingCommit<?> pendingCommit : batch) {
+                pendingCommit.complete(failure);
+            }
+        };
+        try {
+            completionExecutor.execute(completion);
+        } catch (RuntimeException rejected) {
+            completion.run();
+        }
+    }
+
+    /**
+     * Flush all pending commits, hand their futures to the completion executor, then stop the flusher thread. Must not
+     * be called while holding a lock that the dependent stages of commit futures may need.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (flusherThread != null) {
+            LockSupport.unpark(flusherThread);
+            boolean interrupted = false;
+            while (flusherThread.isAlive()) {
+                try {
+                    flusherThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class PendingCommit<T> {
+        final T value;
+        final CompletableFuture<T> future;
+
+        PendingCommit(T value, CompletableFuture<T> future) {
+            this.value = value;
+            this.future = future;
+        }
+
+        void complete(Throwable failure) {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package no.ssb.sagalog;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of a saga-log pool and the saga-logs connected through it. Counters are LongAdders and latencies are
+ * recorded in striped histograms, so that recording on the write and acquire paths does not become a contention point
+ * of its own. Gauges are registered by each connected saga-log and only read when the metrics are exported. Use
+ * {@link #export(SagaLogMetricsExporter)} to bridge the metrics to a monitoring system, or {@link #snapshot()} for a
+ * flat map of values. All durations are in nanoseconds.
+ */
+public class SagaLogMetrics {
+
+    public static final String WRITE_LATENCY = "sagalog.write.latency";
+    public static final String WRITE_ENTRIES = "sagalog.write.entries";
+    public static final String WRITE_BYTES = "sagalog.write.bytes";
+    public static final String TRUNCATE_LATENCY = "sagalog.truncate.latency";
+    public static final String LOG_ENTRIES = "sagalog.log.entries";
+    public static final String LOG_BYTES = "sagalog.log.bytes";
+    public static final String ACQUIRE_WAIT = "sagalog.pool.acquire.wait";
+    public static final String ACQUIRE_TIMEOUTS = "sagalog.pool.acquire.timeouts";
+    public static final String BUSY = "sagalog.pool.busy";
+    public static final String ALREADY_OWNED = "sagalog.pool.already-owned";
+    public static final String OWNERSHIP_HELD = "sagalog.pool.ownership.held";
+    public static final String SCALED_UP = "sagalog.pool.scaled-up";
+    public static final String SCALED_DOWN = "sagalog.pool.scaled-down";
+    public static final String EVICTED = "sagalog.pool.evicted";
+    public static final String WRITES_REJECTED = "sagalog.write.rejected";
+
+    private static final SagaLogMetrics DISABLED = new SagaLogMetrics(false);
+
+    /**
+     * @return metrics that ignore everything recorded, used by saga-logs that are not connected through a pool.
+     */
+    public static SagaLogMetrics disabled() {
+        return DISABLED;
+    }
+
+    private final boolean enabled;
+    private final SagaLogHistogram writeLatency = new SagaLogHistogram(WRITE_LATENCY);
+    private final LongAdder writeEntries = new LongAdder();
+    private final LongAdder writeBytes = new LongAdder();
+    private final SagaLogHistogram truncateLatency = new SagaLogHistogram(TRUNCATE_LATENCY);
+    private final SagaLogHistogram acquireWait = new SagaLogHistogram(ACQUIRE_WAIT);
+    private final LongAdder acquireTimeouts = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+    private final LongAdder alreadyOwned = new LongAdder();
+    private final SagaLogHistogram ownershipHeld = new SagaLogHistogram(OWNERSHIP_HELD);
+    private final LongAdder scaledUp = new LongAdder();
+    private final LongAdder scaledDown = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder writesRejected = new LongAdder();
+    private final Map<SagaLogId, Map<String, LongSupplier>> gaugesByLogId = new ConcurrentHashMap<>();
+
+    public SagaLogMetrics() {
+        this(true);
+    }
+
+    private SagaLogMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Record a write that started at startNanos, measured until the returned future completes.
+     */
+    public void recordWrite(long startNanos, int bytes, CompletableFuture<?> future) {
+        recordWrite(startNanos, 1, bytes, future);
+    }
+
+    /**
+     * Record a write of a batch of entries that started at startNanos, measured until the returned future completes.
+     */
+    public void recordWrite(long startNanos, int entries, long bytes, CompletableFuture<?> future) {
+        if (!enabled) {
+            return;
+        }
+        writeEntries.add(entries);
+        writeBytes.add(bytes);
+        if (future.isDone()) {
+            writeLatency.record(System.nanoTime() - startNanos);
+        } else {
+            future.whenComplete((result, failure) -> writeLatency.record(System.nanoTime() - startNanos));
+        }
+    }
+
+    public void recordTruncate(long startNanos) {
+        if (enabled) {
+            truncateLatency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public void recordAcquireWait(long waitNanos) {
+        if (enabled) {
+            acquireWait.record(waitNanos);
+        }
+    }
+
+    public void recordAcquireTimeout() {
+        if (enabled) {
+            acquireTimeouts.increment();
+        }
+    }
+
+    public void recordBusy() {
+        if (enabled) {
+            busy.increment();
+        }
+    }
+
+    public void recordAlreadyOwned() {
+        if (enabled) {
+            alreadyOwned.increment();
+        }
+    }
+
+    public void recordOwnershipHeld(long heldNanos) {
+        if (enabled) {
+            ownershipHeld.record(heldNanos);
+        }
+    }
+
+    public void recordScaleUp() {
+        if (enabled) {
+            scaledUp.increment();
+        }
+    }
+
+    public void recordScaleDown() {
+        if (enabled) {
+            scaledDown.increment();
+        }
+    }
+
+    public void recordEviction() {
+        if (enabled) {
+            evicted.increment();
+        }
+    }
+
+    public void recordWriteRejected() {
+        if (enabled) {
+            writesRejected.increment();
+        }
+    }
+
+    /**
+     * Register the gauges of a connected saga-log, replacing any gauges previously registered for the same log.
+     *
+     * @param entries the number of entries in the log, or null if the log does not know
+     * @param bytes   the number of bytes used by the entries in the log
+     */
+    public void registerLog(SagaLogId logId, LongSupplier entries, LongSupplier bytes) {
+        if (!enabled) {
+            return;
+        }
+        Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+        if (entries != null) {
+            gauges.put(LOG_ENTRIES, entries);
+        }
+        gauges.put(LOG_BYTES, bytes);
+        gaugesByLogId.put(logId, gauges);
+    }
+
+    public void unregisterLog(SagaLogId logId) {
+        gaugesByLogId.remove(logId);
+    }
+
+    public SagaLogHistogram writeLatency() {
+        return writeLatency;
+    }
+
+    public SagaLogHistogram truncateLatency() {
+        return truncateLatency;
+    }
+
+    public SagaLogHistogram acquireWait() {
+        return acquireWait;
+    }
+
+    public SagaLogHistogram ownershipHeld() {
+        return ownershipHeld;
+    }
+
+    public long writeEntries() {
+        return writeEntries.sum();
+    }
+
+    public long writeBytes() {
+        return writeBytes.sum();
+    }
+
+    public long acquireTimeouts() {
+        return acquireTimeouts.sum();
+    }
+
+    public long busy() {
+        return busy.sum();
+    }
+
+    public long alreadyOwned() {
+        return alreadyOwned.sum();
+    }
+
+    public long scaledUp() {
+        return scaledUp.sum();
+    }
+
+    public long scaledDown() {
+        return scaledDown.sum();
+    }
+
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    public long writesRejected() {
+        return writesRejected.sum();
+    }
+
+    public void export(SagaLogMetricsExporter exporter) {
+        exporter.counter(WRITE_ENTRIES, writeEntries.sum());
+        exporter.counter(WRITE_BYTES, writeBytes.sum());
+        exporter.counter(ACQUIRE_TIMEOUTS, acquireTimeouts.sum());
+        exporter.counter(BUSY, busy.sum());
+        exporter.counter(ALREADY_OWNED, alreadyOwned.sum());
+        exporter.counter(SCALED_UP, scaledUp.sum());
+        exporter.counter(SCALED_DOWN, scaledDown.sum());
+        exporter.counter(EVICTED, evicted.sum());
+        exporter.counter(WRITES_REJECTED, writesRejected.sum());
+        for (SagaLogHistogram histogram : List.of(writeLatency, truncateLatency, acquireWait, ownershipHeld)) {
+            exporter.histogram(histogram.getName(), histogram);
+        }
+        gaugesByLogId.forEach((logId, gauges) -> gauges.forEach((name, gauge) -> exporter.gauge(name, logId, gauge.getAsLong())));
+    }
+
+    /**
+     * @return the current value of every counter and gauge, and the count, p50, p99, p999 and max of every histogram,
+     * keyed by metric name. Gauges are summed over all connected saga-logs.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        export(new SagaLogMetricsExporter() {
+            @Override
+            public void counter(String name, long value) {
+                snapshot.put(name, value);
+            }
+
+            @Override
+            public void gauge(String name, SagaLogId logId, long value) {
+                snapshot.merge(name, value, Long::sum);
+            }
+
+            @Override
+            public void histogram(String name, SagaLogHistogram histogram) {
+                snapshot.put(name + ".count", histogram.count());
+                snapshot.put(name + ".p50", histogram.valueAtPercentile(50));
+                snapshot.put(name + ".p99", histogram.valueAtPercentile(99));
+                snapshot.put(name + ".p999", histogram.valueAtPercentile(99.9));
+                snapshot.put(name + ".max", histogram.max());
+            }
+        });
+        return snapshot;
+    }
+}
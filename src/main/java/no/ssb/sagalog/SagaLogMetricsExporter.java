@@ -0,0 +1,14 @@
+package no.ssb.sagalog;
+
+/**
+ * Receives the current value of each metric when {@link SagaLogMetrics#export(SagaLogMetricsExporter)} is called.
+ * Implement this to bridge the metrics to a monitoring system.
+ */
+public interface SagaLogMetricsExporter {
+
+    void counter(String name, long value);
+
+    void gauge(String name, SagaLogId logId, long value);
+
+    void histogram(String name, SagaLogHistogram histogram);
+}
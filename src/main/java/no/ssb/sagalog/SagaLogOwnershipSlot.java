@@ -0,0 +1,187 @@
+package no.ssb.sagalog;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Ownership state of a single saga-log in a pool. The owner field is the state word: null when the log is free, the
+ * owner when owned, and RETIRED once the slot has been removed from the pool, after which it can never be owned again.
+ * Taking and releasing ownership is a single CAS and does not allocate. The acquired timestamp is captured with
+ * System.nanoTime and only converted to wall-clock time when the ownership is inspected.
+ * <p>
+ * Threads wait for the slot on its monitor, while asynchronous waiters are queued and given the slot in FIFO order by
+ * the thread that releases it.
+ */
+class SagaLogOwnershipSlot {
+
+    static final SagaLogOwner RETIRED = new SagaLogOwner("retired");
+
+    private static final AtomicReferenceFieldUpdater<SagaLogOwnershipSlot, SagaLogOwner> OWNER =
+            AtomicReferenceFieldUpdater.newUpdater(SagaLogOwnershipSlot.class, SagaLogOwner.class, "owner");
+
+    private static final long EPOCH_MILLIS = System.currentTimeMillis();
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    final SagaLogId logId;
+    private volatile SagaLogOwner owner;
+    private volatile long acquiredNanos;
+    private volatile int waiters;
+    private final Queue<AsyncWaiter> asyncWaiters = new ConcurrentLinkedQueue<>();
+
+    SagaLogOwnershipSlot(SagaLogId logId) {
+        this.logId = logId;
+    }
+
+    SagaLogOwner owner() {
+        return owner;
+    }
+
+    long acquiredNanos() {
+        return acquiredNanos;
+    }
+
+    boolean isRetired() {
+        return owner == RETIRED;
+    }
+
+    boolean tryOwn(SagaLogOwner newOwner) {
+        if (owner != null || !OWNER.compareAndSet(this, null, newOwner)) {
+            return false;
+        }
+        acquiredNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Wait until the slot can be owned by the given owner, the slot is retired, or the timeout elapses.
+     *
+     * @return true if the slot is now owned by the given owner.
+     */
+    boolean tryOwn(SagaLogOwner newOwner, long timeout, TimeUnit unit) throws InterruptedException {
+        if (tryOwn(newOwner)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            waiters++;
+            try {
+                while (!tryOwn(newOwner)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || owner == RETIRED) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Own the slot without blocking, when it is free.
+     *
+     * @return a future that completes with true when the slot is owned by the given owner, or with false if the slot
+     * is retired first. The caller completes the future with false on timeout, and may cancel it.
+     */
+    CompletableFuture<Boolean> ownAsync(SagaLogOwner newOwner) {
+        if (tryOwn(newOwner)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        AsyncWaiter waiter = new AsyncWaiter(newOwner);
+        asyncWaiters.add(waiter);
+        waiter.future.whenComplete((owned, failure) -> {
+            if (!Boolean.TRUE.equals(owned)) {
+                asyncWaiters.remove(waiter);
+            }
+        });
+        signalAsyncWaiters(); // the slot may have been released before the waiter was queued
+        return waiter.future;
+    }
+
+    /**
+     * @return false if the slot was not owned.
+     */
+    boolean release() {
+        SagaLogOwner current = owner;
+        if (current == null || current == RETIRED || !OWNER.compareAndSet(this, current, null)) {
+            return false;
+        }
+        signalWaiters();
+        return true;
+    }
+
+    /**
+     * Retire the slot if it is free, so that it can be dropped from the pool.
+     *
+     * @return true if the slot is retired.
+     */
+    boolean retire() {
+        if (owner != RETIRED && !OWNER.compareAndSet(this, null, RETIRED)) {
+            return false;
+        }
+        signalWaiters();
+        return true;
+    }
+
+    private void signalWaiters() {
+        if (waiters > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        signalAsyncWaiters();
+    }
+
+    /**
+     * Give the slot to the first queued waiter that still wants it, or complete all waiters with false if the slot has
+     * been retired.
+     */
+    private void signalAsyncWaiters() {
+        for (AsyncWaiter waiter; (waiter = asyncWaiters.peek()) != null; ) {
+            if (waiter.future.isDone()) {
+                asyncWaiters.remove(waiter);
+            } else if (owner == RETIRED) {
+                asyncWaiters.remove(waiter);
+                waiter.future.complete(false);
+            } else if (tryOwn(waiter.owner)) {
+                asyncWaiters.remove(waiter);
+                if (!waiter.future.complete(true)) {
+                    OWNER.compareAndSet(this, waiter.owner, null); // cancelled or timed out meanwhile, pass it on
+                    signalWaiters();
+                }
+                return;
+            } else {
+                return; // owned by someone else, who will signal on release
+            }
+        }
+    }
+
+    private static class AsyncWaiter {
+        final SagaLogOwner owner;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        AsyncWaiter(SagaLogOwner owner) {
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * @return a snapshot of the ownership, or null if the slot is not owned.
+     */
+    SagaLogOwnership ownership() {
+        SagaLogOwner current = owner;
+        if (current == null || current == RETIRED) {
+            return null;
+        }
+        Instant acquired = Instant.ofEpochMilli(EPOCH_MILLIS).plusNanos(acquiredNanos - EPOCH_NANOS);
+        return new SagaLogOwnership(current, logId, ZonedDateTime.ofInstant(acquired, ZoneId.systemDefault()));
+    }
+}
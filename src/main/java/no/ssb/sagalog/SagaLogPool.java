@@ -1,6 +1,9 @@
 package no.ssb.sagalog;
 
+import java.time.Duration;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
 public interface SagaLogPool {
@@ -58,6 +61,15 @@ public interface SagaLogPool {
      */
     Set<SagaLogOwnership> instanceLocalSagaLogOwnerships();
 
+    /**
+     * Get the metrics of this pool and the saga-logs connected through it.
+     *
+     * @return the metrics, or disabled metrics if the pool is not instrumented.
+     */
+    default SagaLogMetrics metrics() {
+        return SagaLogMetrics.disabled();
+    }
+
     /**
      * Attempt to connect to the external saga-log resource associated with the given logId, which implies that this
      * pool will take exclusive ownership of such external resource. If successful, the ownership is awarded to this
@@ -101,6 +113,27 @@ public interface SagaLogPool {
      */
     SagaLog tryAcquire(SagaLogOwner owner, int timeout, TimeUnit unit) throws InterruptedException, SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException;
 
+    /**
+     * Acquire an available instance-local saga-log without blocking the calling thread. Waiting acquirers are served
+     * in FIFO order together with the threads blocked in tryAcquire, and the returned future is completed when a log
+     * is released. Cancelling the future stops waiting, and a log that is acquired concurrently with the cancellation
+     * is released again. The default implementation waits in tryAcquire on a thread of the common pool.
+     *
+     * @param owner   the owner that wants to acquire a saga-log.
+     * @param timeout the maximum time to wait for an available saga-log.
+     * @return a future that completes with the acquired saga-log, or with null on timeout.
+     */
+    default CompletableFuture<SagaLog> acquireAsync(SagaLogOwner owner, Duration timeout) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return tryAcquire(owner, (int) Math.min(Integer.MAX_VALUE, timeout.toMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        });
+    }
+
     /**
      * Releases ownership, then returns the saga-log with the given logId to the pool making it available through the
      * tryAcquire methods again.
@@ -138,6 +171,28 @@ public interface SagaLogPool {
      */
     SagaLog tryTakeOwnership(SagaLogOwner owner, SagaLogId logId, long timeout, TimeUnit unit) throws InterruptedException, SagaLogBusyException, SagaLogAlreadyAquiredByOtherOwnerException;
 
+    /**
+     * Take ownership of the saga-log with the given logId without blocking the calling thread. The returned future is
+     * completed when the log is released by its current owner, and cancelling it stops waiting. The default
+     * implementation waits in tryTakeOwnership on a thread of the common pool.
+     *
+     * @param owner   the owner that wants to acquire the saga-log.
+     * @param logId   the id of the saga-log to acquire.
+     * @param timeout the maximum time to wait for ownership.
+     * @return a future that completes with the saga-log, with null on timeout, or exceptionally with
+     * SagaLogBusyException if the saga-log is owned by another pool or external party.
+     */
+    default CompletableFuture<SagaLog> takeOwnershipAsync(SagaLogOwner owner, SagaLogId logId, Duration timeout) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return tryTakeOwnership(owner, logId, timeout.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        });
+    }
+
     /**
      * Release ownership of the saga-log with the given logId.
      *
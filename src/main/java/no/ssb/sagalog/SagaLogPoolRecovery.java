@@ -0,0 +1,143 @@
+package no.ssb.sagalog;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Recovers all cluster-wide saga-logs of a pool in parallel. A bounded number of workers run on the given executor,
+ * and each worker takes the next log from a shared queue when it is done with the previous one, so that a few large
+ * logs do not hold up the recovery of the rest. Each log is connected, its incomplete executions are streamed to the
+ * handler one at a time, and logs that are not instance-local are removed from the pool afterwards, as required by
+ * {@link SagaLogPool#clusterWideLogIds()}.
+ */
+public class SagaLogPoolRecovery {
+
+    private final SagaLogPool pool;
+    private final Executor executor;
+    private final int maxConcurrentLogs;
+
+    /**
+     * @param pool              the pool to recover
+     * @param executor          the executor that runs the workers, typically a ForkJoinPool
+     * @param maxConcurrentLogs the maximum number of logs that are connected and recovered at the same time
+     */
+    public SagaLogPoolRecovery(SagaLogPool pool, Executor executor, int maxConcurrentLogs) {
+        if (maxConcurrentLogs < 1) {
+            throw new IllegalArgumentException("maxConcurrentLogs must be at least 1");
+        }
+        this.pool = pool;
+        this.executor = executor;
+        this.maxConcurrentLogs = maxConcurrentLogs;
+    }
+
+    /**
+     * Recover all cluster-wide logs of the pool. The handler is called concurrently for different logs, but never
+     * concurrently for the same log. Recovery continues with the remaining logs when the recovery of a log fails.
+     *
+     * @param handler called with the connected log and each of its incomplete executions
+     * @return a future that completes with the ids of the recovered logs, or completes exceptionally with the failure
+     * of each log that could not be recovered added as suppressed exceptions.
+     */
+    public CompletableFuture<Set<SagaLogId>> recover(BiConsumer<SagaLog, SagaLogExecutionEntries> handler) {
+        Queue<SagaLogId> remaining = new ConcurrentLinkedQueue<>(pool.clusterWideLogIds());
+        Set<SagaLogId> recovered = ConcurrentHashMap.newKeySet();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CompletableFuture<Set<SagaLogId>> result = new CompletableFuture<>();
+        int workers = Math.max(1, Math.min(maxConcurrentLogs, remaining.size()));
+        AtomicInteger activeWorkers = new AtomicInteger(workers);
+        Runnable worker = () -> {
+            SagaLogId logId;
+            while ((logId = remaining.poll()) != null) {
+                try {
+                    recoverLog(logId, handler);
+                    recovered.add(logId);
+                } catch (Throwable t) {
+                    failures.add(new RuntimeException(String.format("Recovery of saga-log with id %s failed", logId), t));
+                }
+            }
+            if (activeWorkers.decrementAndGet() == 0) {
+                complete(result, recovered, failures);
+            }
+        };
+        for (int i = 0; i < workers; i++) {
+            executor.execute(worker);
+        }
+        return result;
+    }
+
+    private void recoverLog(SagaLogId logId, BiConsumer<SagaLog, SagaLogExecutionEntries> handler) {
+        try {
+            SagaLog sagaLog = pool.connect(logId);
+            HandlerSubscriber subscriber = new HandlerSubscriber(sagaLog, handler);
+            sagaLog.readIncompleteExecutions().subscribe(subscriber);
+            subscriber.done.join();
+        } finally {
+            if (!pool.instanceLocalLogIds().contains(logId)) {
+                pool.remove(logId);
+            }
+        }
+    }
+
+    private static void complete(CompletableFuture<Set<SagaLogId>> result, Set<SagaLogId> recovered, Queue<Throwable> failures) {
+        if (failures.isEmpty()) {
+            result.complete(Set.copyOf(recovered));
+            return;
+        }
+        RuntimeException failure = new RuntimeException(String.format("Recovery of %d saga-logs failed", failures.size()));
+        for (Throwable t : failures) {
+            failure.addSuppressed(t);
+        }
+        result.completeExceptionally(failure);
+    }
+
+    /**
+     * Requests one execution at a time and passes it to the handler. With the default publisher the log is read on the
+     * thread that requests, so the whole log is recovered on the worker thread that subscribes.
+     */
+    private static class HandlerSubscriber implements Flow.Subscriber<SagaLogExecutionEntries> {
+        final SagaLog sagaLog;
+        final BiConsumer<SagaLog, SagaLogExecutionEntries> handler;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        Flow.Subscription subscription;
+
+        HandlerSubscriber(SagaLog sagaLog, BiConsumer<SagaLog, SagaLogExecutionEntries> handler) {
+            this.sagaLog = sagaLog;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(SagaLogExecutionEntries execution) {
+            try {
+                handler.accept(sagaLog, execution);
+            } catch (Throwable t) {
+                subscription.cancel();
+                done.completeExceptionally(t);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package no.ssb.sagalog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Publishes the entries of a saga-log grouped per saga execution. Each subscription reads the log with its own lazy
+ * stream, and only reads as far as needed to satisfy the demand of the subscriber. An execution is published as soon
+ * as the end of the saga is read, and executions that have not ended are published at the end of the log in order of
+ * their first entry. Only the executions that are still open are held in memory.
+ * <p>
+ * Signals are delivered on the thread that calls request or cancel, and are serialized with a work-in-progress counter
+ * so that a subscriber calling request from onNext does not recurse.
+ */
+class SagaLogRecoveryPublisher implements Flow.Publisher<SagaLogExecutionEntries> {
+
+    private final Supplier<Stream<SagaLogEntry>> entriesSupplier;
+
+    SagaLogRecoveryPublisher(Supplier<Stream<SagaLogEntry>> entriesSupplier) {
+        this.entriesSupplier = entriesSupplier;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super SagaLogExecutionEntries> subscriber) {
+        Objects.requireNonNull(subscriber);
+        subscriber.onSubscribe(new Subscription(subscriber, entriesSupplier));
+    }
+
+    private static class Subscription implements Flow.Subscription {
+        final Flow.Subscriber<? super SagaLogExecutionEntries> subscriber;
+        final Supplier<Stream<SagaLogEntry>> entriesSupplier;
+        final AtomicLong demand = new AtomicLong();
+        final AtomicInteger workInProgress = new AtomicInteger();
+        volatile boolean cancelled;
+        volatile Throwable invalidRequest;
+
+        // only accessed by the thread that is draining
+        final Map<String, SagaLogExecutionEntries> openExecutions = new LinkedHashMap<>();
+        Stream<SagaLogEntry> stream;
+        Iterator<SagaLogEntry> entries;
+        Iterator<SagaLogExecutionEntries> unfinishedExecutions;
+        boolean done;
+
+        Subscription(Flow.Subscriber<? super SagaLogExecutionEntries> subscriber, Supplier<Stream<SagaLogEntry>> entriesSupplier) {
+            this.subscriber = subscriber;
+            this.entriesSupplier = entriesSupplier;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (workInProgress.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                emit();
+                missed = workInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            try {
+                if (entries == null) {
+                    stream = entriesSupplier.get();
+                    entries = stream.iterator();
+                }
+                while (demand.get() > 0 && !cancelled) {
+                    SagaLogExecutionEntries next = nextExecution();
+                    if (next == null) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(next);
+                }
+            } catch (RuntimeException e) {
+                finish();
+                subscriber.onError(e);
+                return;
+            }
+            if (cancelled) {
+                finish();
+            }
+        }
+
+        private SagaLogExecutionEntries nextExecution() {
+            while (entries.hasNext()) {
+                SagaLogEntry entry = entries.next();
+                if (entry.entryType == SagaLogEntryType.Ignore) {
+                    continue;
+                }
+                SagaLogExecutionEntries execution = openExecutions.get(entry.executionId);
+                if (execution == null) {
+                    execution = new SagaLogExecutionEntries(entry.executionId);
+                    openExecutions.put(entry.executionId, execution);
+                }
+                execution.add(entry);
+                if (execution.isComplete()) {
+                    openExecutions.remove(entry.executionId);
+                    return execution;
+                }
+            }
+            if (unfinishedExecutions == null) {
+                unfinishedExecutions = openExecutions.values().iterator();
+            }
+            if (!unfinishedExecutions.hasNext()) {
+                return null;
+            }
+            SagaLogExecutionEntries execution = unfinishedExecutions.next();
+            unfinishedExecutions.remove();
+            return execution;
+        }
+
+        private void finish() {
+            done = true;
+            openExecutions.clear();
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+}
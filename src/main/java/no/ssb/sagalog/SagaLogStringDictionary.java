@@ -0,0 +1,211 @@
+package no.ssb.sagalog;
+
+/**
+ * The strings of a sequence of version 2 encoded entries, such as the records of a segment or a checkpoint, that can
+ * be referenced by index instead of being repeated. Names, the nodeIds and sagaNames that come from the small graphs of
+ * the sagas, and executionIds are kept in separate tables, so that the many executionIds that are only used for a while
+ * do not push out the names that are used by every execution:
+ * <ul>
+ * <li>Names are never evicted. Once the name table is full, further names are encoded literally every time.</li>
+ * <li>ExecutionIds are evicted least recently used first, where both adding and referencing an executionId uses it.</li>
+ * </ul>
+ * Every string that is encoded literally is added to its table if there is room, so encoder and decoder agree on the
+ * index of each string as long as they see the same entries in the same order. Not thread-safe.
+ */
+public final class SagaLogStringDictionary {
+
+    public static final int NAME_CAPACITY = 1024;
+    public static final int EXECUTION_ID_CAPACITY = 4096;
+
+    final Table names;
+    final Table executionIds;
+
+    private SagaLogStringDictionary(int nameCapacity, int executionIdCapacity, boolean encoding) {
+        this.names = new Table(nameCapacity, false, encoding);
+        this.executionIds = new Table(executionIdCapacity, true, encoding);
+    }
+
+    /**
+     * @return an empty dictionary that can look up the index of a string, for encoding.
+     */
+    public static SagaLogStringDictionary forEncoding() {
+        return new SagaLogStringDictionary(NAME_CAPACITY, EXECUTION_ID_CAPACITY, true);
+    }
+
+    /**
+     * @return an empty dictionary that can only look up strings by index, for decoding.
+     */
+    public static SagaLogStringDictionary forDecoding() {
+        return new SagaLogStringDictionary(NAME_CAPACITY, EXECUTION_ID_CAPACITY, false);
+    }
+
+    static SagaLogStringDictionary forEncoding(int nameCapacity, int executionIdCapacity) {
+        return new SagaLogStringDictionary(nameCapacity, executionIdCapacity, true);
+    }
+
+    static SagaLogStringDictionary forDecoding(int nameCapacity, int executionIdCapacity) {
+        return new SagaLogStringDictionary(nameCapacity, executionIdCapacity, false);
+    }
+
+    /**
+     * @return the number of strings in the dictionary.
+     */
+    public int size() {
+        return names.size + executionIds.size;
+    }
+
+    /**
+     * A table of strings by index, with an open-addressed index from string to index when used for encoding, and a
+     * least recently used list over the indexes when it evicts.
+     */
+    static final class Table {
+
+        private final String[] strings;
+        private final boolean evicting;
+        private final int[] index; // slot + 1 by hash of the string, 0 is empty
+        private final int indexMask;
+        private final int[] older;
+        private final int[] newer;
+        private int oldest = -1;
+        private int newest = -1;
+        int size;
+
+        Table(int capacity, boolean evicting, boolean encoding) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.strings = new String[capacity];
+            this.evicting = evicting;
+            int indexCapacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+            this.index = encoding ? new int[indexCapacity] : null;
+            this.indexMask = indexCapacity - 1;
+            this.older = evicting ? new int[capacity] : null;
+            this.newer = evicting ? new int[capacity] : null;
+        }
+
+        /**
+         * Look up the index of the string, and use it if it is found.
+         *
+         * @return the index of the string, or -1 if the string is not in the table.
+         * @throws IllegalStateException if the table is for decoding.
+         */
+        int indexOf(String value) {
+            if (index == null) {
+                throw new IllegalStateException("Dictionary is for decoding");
+            }
+            for (int i = home(value); index[i] != 0; i = (i + 1) & indexMask) {
+                int slot = index[i] - 1;
+                if (strings[slot].equals(value)) {
+                    use(slot);
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Get the string at the index, and use it.
+         *
+         * @throws IllegalArgumentException if there is no string at the index.
+         */
+        String get(int slot) {
+            if (slot < 0 || slot >= size) {
+                throw new IllegalArgumentException("No string at index " + slot + " of dictionary with " + size + " strings");
+            }
+            use(slot);
+            return strings[slot];
+        }
+
+        /**
+         * Add a string that is not in the table. A full table that evicts replaces its least recently used string, and a
+         * full table that does not evict is left as it is.
+         */
+        void add(String value) {
+            int slot;
+            if (size < strings.length) {
+                slot = size++;
+            } else if (evicting) {
+                slot = oldest;
+                unlink(slot);
+                if (index != null) {
+                    removeFromIndex(strings[slot]);
+                }
+            } else {
+                return;
+            }
+            strings[slot] = value;
+            if (index != null) {
+                int i = home(value);
+                while (index[i] != 0) {
+                    i = (i + 1) & indexMask;
+                }
+                index[i] = slot + 1;
+            }
+            if (evicting) {
+                linkNewest(slot);
+            }
+        }
+
+        private void use(int slot) {
+            if (evicting && slot != newest) {
+                unlink(slot);
+                linkNewest(slot);
+            }
+        }
+
+        private void unlink(int slot) {
+            int o = older[slot];
+            int n = newer[slot];
+            if (o == -1) {
+                oldest = n;
+            } else {
+                newer[o] = n;
+            }
+            if (n == -1) {
+                newest = o;
+            } else {
+                older[n] = o;
+            }
+        }
+
+        private void linkNewest(int slot) {
+            older[slot] = newest;
+            newer[slot] = -1;
+            if (newest == -1) {
+                oldest = slot;
+            } else {
+                newer[newest] = slot;
+            }
+            newest = slot;
+        }
+
+        /**
+         * Remove the string from the linear-probing index by shifting the following entries of its probe sequence back.
+         */
+        private void removeFromIndex(String value) {
+            int i = home(value);
+            while (!strings[index[i] - 1].equals(value)) {
+                i = (i + 1) & indexMask;
+            }
+            int j = i;
+            while (true) {
+                j = (j + 1) & indexMask;
+                if (index[j] == 0) {
+                    break;
+                }
+                int k = home(strings[index[j] - 1]);
+                boolean movable = i <= j ? (k <= i || k > j) : (k <= i && k > j);
+                if (movable) {
+                    index[i] = index[j];
+                    i = j;
+                }
+            }
+            index[i] = 0;
+        }
+
+        private int home(String value) {
+            int h = value.hashCode() * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & indexMask;
+        }
+    }
+}
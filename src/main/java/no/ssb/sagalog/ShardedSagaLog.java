@@ -0,0 +1,305 @@
+package no.ssb.sagalog;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A saga-log that spreads the executions of one owner across several underlying logs, the shards, so that writes of
+ * different executions are not serialized through a single log. All entries of an execution are written to the shard
+ * selected by the hash of the execution-id, so an execution must always be written through a sharded log with the same
+ * shards in the same order. Entry ids are composite and hold a watermark per shard: truncating to the id of a written
+ * entry truncates every shard up to the last entry that was written to it when that entry was written, and truncating
+ * to the id of an entry that was read truncates only the shard of that entry.
+ */
+public class ShardedSagaLog implements SagaLog {
+
+    private final List<SagaLog> shards;
+    private final AtomicReferenceArray<SagaLogEntryId> lastIds;
+
+    public ShardedSagaLog(List<SagaLog> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+        this.lastIds = new AtomicReferenceArray<>(shards.size());
+    }
+
+    /**
+     * Acquire the shards of a sharded log from the pool. Shards that were acquired are released again if not all
+     * shards could be acquired within the timeout.
+     *
+     * @return the sharded log, or null on timeout.
+     */
+    public static ShardedSagaLog acquire(SagaLogPool pool, SagaLogOwner owner, int shardCount, int timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<SagaLog> shards = new ArrayList<>(shardCount);
+        try {
+            while (shards.size() < shardCount) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime()));
+                SagaLog shard = pool.tryAcquire(owner, (int) Math.min(Integer.MAX_VALUE, remainingMillis), TimeUnit.MILLISECONDS);
+                if (shard == null) {
+                    release(pool, shards);
+                    return null; // timeout
+                }
+                shards.add(shard);
+            }
+        } catch (RuntimeException | InterruptedException e) {
+            release(pool, shards);
+            throw e;
+        }
+        return new ShardedSagaLog(shards);
+    }
+
+    /**
+     * Release all shards of this log to the pool they were acquired from.
+     */
+    public void release(SagaLogPool pool) {
+        release(pool, shards);
+    }
+
+    private static void release(SagaLogPool pool, List<SagaLog> shards) {
+        for (SagaLog shard : shards) {
+            pool.release(shard.id());
+        }
+    }
+
+    public List<SagaLog> shards() {
+        return shards;
+    }
+
+    int shardOf(String executionId) {
+        return Math.floorMod(executionId.hashCode(), shards.size());
+    }
+
+    /**
+     * @return the id of the first shard.
+     */
+    @Override
+    public SagaLogId id() {
+        return shards.get(0).id();
+    }
+
+    @Override
+    public CompletableFuture<SagaLogEntry> write(SagaLogEntryBuilder builder) {
+        int shard = shardOf(builder.executionId());
+        return shards.get(shard).write(builder).thenApply(entry -> written(shard, entry));
+    }
+
+    @Override
+    public CompletableFuture<List<SagaLogEntry>> writeAll(List<SagaLogEntryBuilder> builders) {
+        List<List<SagaLogEntryBuilder>> buildersByShard = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            buildersByShard.add(new ArrayList<>());
+        }
+        int[] shardOfBuilder = new int[builders.size()];
+        for (int i = 0; i < builders.size(); i++) {
+            shardOfBuilder[i] = shardOf(builders.get(i).executionId());
+            buildersByShard.get(shardOfBuilder[i]).add(builders.get(i));
+        }
+        List<CompletableFuture<List<SagaLogEntry>>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            List<SagaLogEntryBuilder> shardBuilders = buildersByShard.get(i);
+            futures.add(shardBuilders.isEmpty() ? CompletableFuture.completedFuture(List.of()) : shards.get(i).writeAll(shardBuilders));
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            List<Iterator<SagaLogEntry>> entriesByShard = new ArrayList<>(shards.size());
+            for (CompletableFuture<List<SagaLogEntry>> future : futures) {
+                entriesByShard.add(future.join().iterator());
+            }
+            List<SagaLogEntry> entries = new ArrayList<>(builders.size());
+            for (int shard : shardOfBuilder) {
+                entries.add(written(shard, entriesByShard.get(shard).next()));
+            }
+            return entries;
+        });
+    }
+
+    /**
+     * Writes to a shard may complete out of order, so the last id of the shard only ever moves forward.
+     */
+    private SagaLogEntry written(int shard, SagaLogEntry entry) {
+        SagaLog shardLog = shards.get(shard);
+        lastIds.accumulateAndGet(shard, entry.getId(), (last, id) -> last == null || shardLog.compare(id, last) > 0 ? id : last);
+        SagaLogEntryId[] watermarks = new SagaLogEntryId[shards.size()];
+        for (int i = 0; i < watermarks.length; i++) {
+            watermarks[i] = lastIds.get(i);
+        }
+        watermarks[shard] = entry.getId();
+        return entry.withId(new ShardedSagaLogEntryId(watermarks));
+    }
+
+    private SagaLogEntry read(int shard, SagaLogEntry entry) {
+        SagaLogEntryId[] watermarks = new SagaLogEntryId[shards.size()];
+        watermarks[shard] = entry.getId();
+        return entry.withId(new ShardedSagaLogEntryId(watermarks));
+    }
+
+    @Override
+    public CompletableFuture<Void> truncate(SagaLogEntryId id) {
+        SagaLogEntryId[] watermarks = ((ShardedSagaLogEntryId) id).watermarks;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            if (watermarks[i] != null) {
+                futures.add(shards.get(i).truncate(watermarks[i]));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public CompletableFuture<Void> truncate() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            lastIds.set(i, null);
+            futures.add(shards.get(i).truncate());
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public CompletableFuture<Void> compact() {
+        return CompletableFuture.allOf(shards.stream().map(SagaLog::compact).toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public CompletableFuture<Void> checkpoint() {
+        return CompletableFuture.allOf(shards.stream().map(SagaLog::checkpoint).toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * @return the incomplete sagas of every shard, one shard after the other.
+     */
+    @Override
+    public Stream<SagaLogEntry> readIncompleteSagas() {
+        return IntStream.range(0, shards.size()).boxed()
+                .flatMap(shard -> shards.get(shard).readIncompleteSagas().map(entry -> read(shard, entry)));
+    }
+
+    @Override
+    public Stream<SagaLogEntry> readEntries(String executionId) {
+        int shard = shardOf(executionId);
+        return shards.get(shard).readEntries(executionId).map(entry -> read(shard, entry));
+    }
+
+    @Override
+    public SagaLogEntryBuilder builder() {
+        return shards.get(0).builder();
+    }
+
+    /**
+     * The string form is the url-safe base64 encoding of the bytes of the id.
+     */
+    @Override
+    public String toString(SagaLogEntryId id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(toBytes(id));
+    }
+
+    @Override
+    public SagaLogEntryId fromString(String id) {
+        return fromBytes(Base64.getUrlDecoder().decode(id));
+    }
+
+    /**
+     * Encoded as [varint shardCount] followed by [varint length + 1][watermark bytes] for each shard, where a length of
+     * 0 means that there is no watermark for the shard.
+     */
+    @Override
+    public byte[] toBytes(SagaLogEntryId id) {
+        SagaLogEntryId[] watermarks = ((ShardedSagaLogEntryId) id).watermarks;
+        byte[][] watermarkBytes = new byte[watermarks.length][];
+        int size = SagaLogEntryCodec.varintSize(watermarks.length);
+        for (int i = 0; i < watermarks.length; i++) {
+            if (watermarks[i] == null) {
+                size += SagaLogEntryCodec.varintSize(0);
+            } else {
+                watermarkBytes[i] = shards.get(i).toBytes(watermarks[i]);
+                size += SagaLogEntryCodec.varintSize(watermarkBytes[i].length + 1) + watermarkBytes[i].length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        SagaLogEntryCodec.putVarint(buffer, watermarks.length);
+        for (byte[] bytes : watermarkBytes) {
+            if (bytes == null) {
+                SagaLogEntryCodec.putVarint(buffer, 0);
+            } else {
+                SagaLogEntryCodec.putVarint(buffer, bytes.length + 1);
+                buffer.put(bytes);
+            }
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public SagaLogEntryId fromBytes(byte[] idBytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(idBytes);
+        int shardCount = SagaLogEntryCodec.getVarint(buffer);
+        if (shardCount != shards.size()) {
+            throw new IllegalArgumentException("Id has " + shardCount + " shards, but this log has " + shards.size());
+        }
+        SagaLogEntryId[] watermarks = new SagaLogEntryId[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            int length = SagaLogEntryCodec.getVarint(buffer) - 1;
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                watermarks[i] = shards.get(i).fromBytes(bytes);
+            }
+        }
+        return new ShardedSagaLogEntryId(watermarks);
+    }
+
+    /**
+     * A total order that compares the ids watermark by watermark in shard order, by the first shard where they differ,
+     * and where a missing watermark is before any other. Ids that are ordered in every shard, such as the ids of
+     * entries written one after the other, compare in write order. Ids of entries that were written to different shards
+     * concurrently, or read from different shards, are ordered by the first shard where they differ, which says nothing
+     * about the order in which they were written.
+     */
+    @Override
+    public int compare(SagaLogEntryId id1, SagaLogEntryId id2) {
+        SagaLogEntryId[] watermarks1 = ((ShardedSagaLogEntryId) id1).watermarks;
+        SagaLogEntryId[] watermarks2 = ((ShardedSagaLogEntryId) id2).watermarks;
+        for (int i = 0; i < watermarks1.length; i++) {
+            int c;
+            if (watermarks1[i] == null || watermarks2[i] == null) {
+                c = watermarks1[i] == null ? (watermarks2[i] == null ? 0 : -1) : 1;
+            } else {
+                c = shards.get(i).compare(watermarks1[i], watermarks2[i]);
+            }
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Close all shards.
+     */
+    @Override
+    public void close() {
+        RuntimeException failure = null;
+        for (SagaLog shard : shards) {
+            try {
+                shard.close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
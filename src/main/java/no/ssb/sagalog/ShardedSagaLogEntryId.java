@@ -0,0 +1,35 @@
+package no.ssb.sagalog;
+
+import java.util.Arrays;
+
+/**
+ * The id of an entry of a sharded saga-log. Holds one watermark per shard, the id of the last entry of that shard
+ * that the entry is ordered after, or null when the entry is not ordered after any entry of that shard.
+ */
+class ShardedSagaLogEntryId implements SagaLogEntryId {
+    final SagaLogEntryId[] watermarks;
+
+    ShardedSagaLogEntryId(SagaLogEntryId[] watermarks) {
+        this.watermarks = watermarks;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ShardedSagaLogEntryId that = (ShardedSagaLogEntryId) o;
+        return Arrays.equals(watermarks, that.watermarks);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(watermarks);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedSagaLogEntryId{" +
+                "watermarks=" + Arrays.toString(watermarks) +
+                '}';
+    }
+}
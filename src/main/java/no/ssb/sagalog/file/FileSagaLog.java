@@ -0,0 +1,623 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogBusyException;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import no.ssb.sagalog.SagaLogEntryBuilderPool;
+import no.ssb.sagalog.SagaLogEntryCodec;
+import no.ssb.sagalog.SagaLogEntryId;
+import no.ssb.sagalog.SagaLogEntryType;
+import no.ssb.sagalog.SagaLogFsyncPolicy;
+import no.ssb.sagalog.SagaLogGroupCommit;
+import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogMetrics;
+import no.ssb.sagalog.SagaLogStringDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only saga-log stored as a sequence of memory-mapped segment files in a folder. Writes are appended
+ * directly into the mapped buffer of the last segment, and a new segment is created when the last one is full. The
+ * truncation point is kept in a separate small file, and segments that are entirely truncated are deleted. Write
+ * futures are completed by a group-commit once the mapped buffer has been forced according to the fsync policy.
+ * <p>
+ * A checkpoint holds the entries of the executions that were incomplete at a position in the log, so that the
+ * segments before that position can be deleted and recovery only reads the checkpoint and the tail after it. Each
+ * checkpoint is built from the previous checkpoint and the tail, outside the write lock, and checkpoints are taken in
+ * the background when a configured number of bytes has been written since the last one.
+ */
+class FileSagaLog implements SagaLog {
+
+    static final String LOCK_FILE = "lock";
+    static final String TRUNCATED_FILE = "truncated";
+
+    private final SagaLogId sagaLogId;
+    private final Path folder;
+    private final int segmentSize;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final FileChannel truncatedChannel;
+    private final List<FileSagaLogSegment> segments = new ArrayList<>();
+    private final SagaLogGroupCommit groupCommit;
+    private final long checkpointIntervalBytes;
+    private final Object checkpointLock = new Object();
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+    private final SagaLogMetrics metrics;
+
+    private volatile List<FileSagaLogSegment> segmentsSnapshot;
+    private volatile long writePosition;
+    private volatile long truncatedPosition;
+    private volatile FileSagaLogCheckpoint checkpoint;
+    private volatile long retainedEntries; // entries that readIncompleteSagas returns, updated under the write lock
+    private SagaLogStringDictionary dictionary;
+    private boolean closed;
+
+    FileSagaLog(SagaLogId sagaLogId, Path folder, int segmentSize, SagaLogFsyncPolicy fsyncPolicy, long fsyncTimeWindowMillis) throws SagaLogBusyException {
+        this(sagaLogId, folder, segmentSize, fsyncPolicy, fsyncTimeWindowMillis, 0);
+    }
+
+    FileSagaLog(SagaLogId sagaLogId, Path folder, int segmentSize, SagaLogFsyncPolicy fsyncPolicy, long fsyncTimeWindowMillis, long checkpointIntervalBytes) throws SagaLogBusyException {
+        this(sagaLogId, folder, segmentSize, fsyncPolicy, fsyncTimeWindowMillis, checkpointIntervalBytes, SagaLogMetrics.disabled());
+    }
+
+    /**
+     * @param checkpointIntervalBytes take a checkpoint in the background each time this many bytes have been written
+     *                                since the last checkpoint, or never if zero.
+     */
+    FileSagaLog(SagaLogId sagaLogId, Path folder, int segmentSize, SagaLogFsyncPolicy fsyncPolicy, long fsyncTimeWindowMillis, long checkpointIntervalBytes, SagaLogMetrics metrics) throws SagaLogBusyException {
+        this.sagaLogId = sagaLogId;
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+        this.checkpointIntervalBytes = checkpointIntervalBytes;
+        this.metrics = metrics;
+        try {
+            Files.createDirectories(folder);
+            this.lockChannel = FileChannel.open(folder.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock;
+            try {
+                fileLock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                lockChannel.close();
+                throw new SagaLogBusyException(String.format("Saga-log with id %s is locked by another pool or process.", sagaLogId));
+            }
+            this.lock = fileLock;
+            this.truncatedChannel = FileChannel.open(folder.resolve(TRUNCATED_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.groupCommit = new SagaLogGroupCommit(sagaLogId.getLogName(), fsyncPolicy, fsyncTimeWindowMillis, TimeUnit.MILLISECONDS, this::force);
+        metrics.registerLog(sagaLogId, () -> retainedEntries, () -> writePosition - truncatedPosition);
+    }
+
+    private void recover() throws IOException {
+        ByteBuffer truncatedBuffer = ByteBuffer.allocate(8);
+        while (truncatedBuffer.hasRemaining() && truncatedChannel.read(truncatedBuffer, truncatedBuffer.position()) > 0) {
+        }
+        long truncated = truncatedBuffer.hasRemaining() ? 0 : truncatedBuffer.getLong(0);
+        Files.deleteIfExists(folder.resolve(FileSagaLogCheckpoint.TEMP_FILE_NAME)); // incomplete checkpoint
+        this.checkpoint = FileSagaLogCheckpoint.read(folder);
+
+        List<Path> segmentPaths;
+        try (Stream<Path> list = Files.list(folder)) {
+            segmentPaths = list.filter(FileSagaLogSegment::isSegmentFile)
+                    .sorted((a, b) -> Long.compare(FileSagaLogSegment.basePositionOf(a), FileSagaLogSegment.basePositionOf(b)))
+                    .collect(Collectors.toList());
+        }
+        for (Path segmentPath : segmentPaths) {
+            segments.add(FileSagaLogSegment.open(segmentPath));
+        }
+        if (segments.isEmpty()) {
+            segments.add(FileSagaLogSegment.create(folder, Math.max(truncated, checkpointPosition()), segmentSize));
+        }
+        FileSagaLogSegment last = segments.get(segments.size() - 1);
+        int endOffset = last.scanEndOffset(0);
+        if (endOffset + FileSagaLogSegment.RECORD_HEADER_SIZE <= last.capacity() && last.recordLength(endOffset) != 0) {
+            last.clearFrom(endOffset); // remove partially written record
+        }
+        this.writePosition = last.basePosition + endOffset;
+        this.dictionary = last.dictionary(endOffset);
+        this.truncatedPosition = checkpoint != null ? truncated : Math.max(truncated, segments.get(0).basePosition);
+        this.segmentsSnapshot = List.copyOf(segments);
+        this.retainedEntries = countEntries(truncatedPosition, writePosition);
+    }
+
+    @Override
+    public SagaLogId id() {
+        return sagaLogId;
+    }
+
+    /**
+     * The builder is validated, and the head of its entry is encoded and checksummed into a buffer of the calling
+     * thread, before the write lock is taken. Only the strings of the entry, which are encoded with the dictionary of
+     * the segment, are encoded under the lock. Pooled builders are returned to the pool before this method returns, also
+     * when it throws.
+     */
+    @Override
+    public CompletableFuture<SagaLogEntry> write(SagaLogEntryBuilder builder) {
+        long start = System.nanoTime();
+        ByteBuffer record;
+        SagaLogEntry entry;
+        try {
+            int slotSize = FileSagaLogSegment.recordSlotSize(builder.validate());
+            record = FileSagaLogSegment.recordBuffer(slotSize);
+            CRC32 crc = FileSagaLogSegment.checksums(1)[0];
+            FileSagaLogSegment.encodeRecordHead(builder, slotSize, record, crc);
+            record.flip();
+            synchronized (this) {
+                checkOpen();
+                entry = append(builder, record, crc);
+            }
+        } finally {
+            SagaLogEntryBuilderPool.release(builder);
+        }
+        long bytes = FileSagaLogSegment.RECORD_HEADER_SIZE + record.getInt(0);
+        maybeScheduleCheckpoint();
+        CompletableFuture<SagaLogEntry> future = groupCommit.commit(entry);
+        metrics.recordWrite(start, 1, bytes, future);
+        return future;
+    }
+
+    /**
+     * Appends the whole batch under the write lock, so that the entries get consecutive positions and readers see
+     * either none or all of the batch, and commits the batch with a single group-commit. The heads of the records are
+     * encoded back to back into a buffer of the calling thread before the lock is taken.
+     */
+    @Override
+    public CompletableFuture<List<SagaLogEntry>> writeAll(List<SagaLogEntryBuilder> builders) {
+        long start = System.nanoTime();
+        List<SagaLogEntry> entries = new ArrayList<>(builders.size());
+        long bytes = 0;
+        try {
+            int[] slotSizes = new int[builders.size()];
+            int slotsSize = 0;
+            for (int i = 0; i < slotSizes.length; i++) {
+                slotSizes[i] = FileSagaLogSegment.recordSlotSize(builders.get(i).validate());
+                slotsSize = Math.addExact(slotsSize, slotSizes[i]);
+            }
+            ByteBuffer records = FileSagaLogSegment.recordBuffer(slotsSize);
+            CRC32[] crcs = FileSagaLogSegment.checksums(builders.size());
+            for (int i = 0; i < slotSizes.length; i++) {
+                FileSagaLogSegment.encodeRecordHead(builders.get(i), slotSizes[i], records, crcs[i]);
+            }
+            records.flip();
+            synchronized (this) {
+                checkOpen();
+                for (int i = 0; i < slotSizes.length; i++) {
+                    int recordStart = records.position();
+                    entries.add(append(builders.get(i), records, crcs[i]));
+                    bytes += FileSagaLogSegment.RECORD_HEADER_SIZE + records.getInt(recordStart);
+                }
+            }
+        } finally {
+            for (SagaLogEntryBuilder builder : builders) {
+                SagaLogEntryBuilderPool.release(builder);
+            }
+        }
+        maybeScheduleCheckpoint();
+        CompletableFuture<List<SagaLogEntry>> future = groupCommit.commit(entries);
+        metrics.recordWrite(start, entries.size(), bytes, future);
+        return future;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(String.format("Saga-log with id %s is closed", sagaLogId));
+        }
+    }
+
+    /**
+     * Complete the record in the slot at the position of the records buffer with the dictionary of the last segment,
+     * append it at the write position, and set the id of the builder. A new segment is rolled when the last one does not
+     * have room for the largest the record can be, so that the dictionary of a segment only holds strings of records in
+     * it. If the record is not appended, the dictionary is rebuilt from the records before it, so that it does not keep
+     * the strings that the record added. Must hold the write lock.
+     */
+    SagaLogEntry append(SagaLogEntryBuilder builder, ByteBuffer records, CRC32 crc) {
+        int start = records.position();
+        int maxPayloadLength = FileSagaLogSegment.recordSlotSize(records) - FileSagaLogSegment.RECORD_HEADER_SIZE;
+        FileSagaLogSegment segment = segments.get(segments.size() - 1);
+        int offset = (int) (writePosition - segment.basePosition);
+        if (!segment.hasRoomFor(offset, maxPayloadLength)) {
+            segment = roll(segment, maxPayloadLength);
+            offset = 0;
+        }
+        SagaLogEntry entry = builder.id(new FileSagaLogEntryId(segment.basePosition + offset)).build();
+        int payloadLength;
+        try {
+            payloadLength = FileSagaLogSegment.encodeRecordTail(builder, records, crc, dictionary);
+            segment.append(offset, records);
+        } catch (RuntimeException | Error e) {
+            dictionary = segment.dictionary(offset);
+            throw e;
+        }
+        records.position(start + FileSagaLogSegment.RECORD_HEADER_SIZE + maxPayloadLength);
+        writePosition = segment.basePosition + offset + FileSagaLogSegment.RECORD_HEADER_SIZE + payloadLength;
+        retainedEntries++;
+        return entry;
+    }
+
+    private void maybeScheduleCheckpoint() {
+        if (checkpointIntervalBytes > 0 && writePosition - checkpointPosition() >= checkpointIntervalBytes) {
+            scheduleCheckpoint();
+        }
+    }
+
+    /**
+     * Force the last segment. Segments are forced when they are rolled, so the last segment is the only one that can
+     * hold appended entries that are not yet durable.
+     */
+    private void force() {
+        List<FileSagaLogSegment> snapshot = segmentsSnapshot;
+        snapshot.get(snapshot.size() - 1).force();
+    }
+
+    private FileSagaLogSegment roll(FileSagaLogSegment full, int payloadLength) {
+        try {
+            full.force();
+            int capacity = Math.max(segmentSize, FileSagaLogSegment.RECORD_HEADER_SIZE + payloadLength);
+            FileSagaLogSegment segment = FileSagaLogSegment.create(folder, full.endPosition(), capacity);
+            segments.add(segment);
+            segmentsSnapshot = List.copyOf(segments);
+            dictionary = SagaLogStringDictionary.forEncoding();
+            return segment;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> truncate(SagaLogEntryId entryId) {
+        long start = System.nanoTime();
+        long position = ((FileSagaLogEntryId) entryId).position;
+        synchronized (this) {
+            if (position >= truncatedPosition && position < writePosition) { // in log
+                if (position < checkpointPosition()) {
+                    doTruncate(position + 1); // segment may be deleted, any position up to the next entry will do
+                } else {
+                    FileSagaLogSegment segment = segmentContaining(position);
+                    int offset = (int) (position - segment.basePosition);
+                    doTruncate(position + FileSagaLogSegment.RECORD_HEADER_SIZE + segment.recordLength(offset));
+                }
+            }
+        }
+        metrics.recordTruncate(start);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> truncate() {
+        long start = System.nanoTime();
+        synchronized (this) {
+            doTruncate(writePosition);
+        }
+        metrics.recordTruncate(start);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void doTruncate(long position) {
+        if (position <= truncatedPosition) {
+            return;
+        }
+        try {
+            ByteBuffer truncatedBuffer = ByteBuffer.allocate(8).putLong(0, position);
+            while (truncatedBuffer.hasRemaining()) {
+                truncatedChannel.write(truncatedBuffer, truncatedBuffer.position());
+            }
+            truncatedChannel.force(false);
+            retainedEntries = position >= writePosition ? 0 : retainedEntries - countEntries(truncatedPosition, position);
+            truncatedPosition = position;
+            deleteSegmentsBefore(position);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void deleteSegmentsBefore(long position) throws IOException {
+        while (segments.size() > 1 && segments.get(0).endPosition() <= position) {
+            segments.remove(0).delete();
+        }
+        segmentsSnapshot = List.copyOf(segments);
+    }
+
+    private long checkpointPosition() {
+        FileSagaLogCheckpoint current = checkpoint;
+        return current == null ? 0 : current.position;
+    }
+
+    private void scheduleCheckpoint() {
+        if (checkpointScheduled.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    checkpoint();
+                } finally {
+                    checkpointScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Write a checkpoint of the executions that are incomplete at the current write position, and delete the segments
+     * that are no longer needed. Only the position and the segments are captured under the write lock, the checkpoint
+     * is built from the previous checkpoint and the segments after it while writers continue. Executions that have
+     * both started and ended are left out of the checkpoint.
+     */
+    @Override
+    public CompletableFuture<Void> checkpoint() {
+        synchronized (checkpointLock) {
+            long fromPosition;
+            long toPosition;
+            FileSagaLogCheckpoint previous;
+            List<FileSagaLogSegment> snapshot;
+            synchronized (this) {
+                if (closed) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                previous = checkpoint;
+                fromPosition = truncatedPosition;
+                toPosition = writePosition;
+                snapshot = segmentsSnapshot;
+            }
+            if (previous != null && previous.position == toPosition) {
+                return CompletableFuture.completedFuture(null); // nothing written since last checkpoint
+            }
+            Set<String> started = new HashSet<>();
+            Set<String> ended = new HashSet<>();
+            Iterator<SagaLogEntry> it = entries(previous, snapshot, fromPosition, toPosition);
+            while (it.hasNext()) {
+                SagaLogEntry entry = it.next();
+                if (entry.getEntryType() == SagaLogEntryType.Start && "S".equals(entry.getNodeId())) {
+                    started.add(entry.getExecutionId());
+                } else if (entry.isEndOfSaga()) {
+                    ended.add(entry.getExecutionId());
+                }
+            }
+            started.retainAll(ended);
+            Set<String> completed = started;
+            Iterator<SagaLogEntry> incomplete = StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries(previous, snapshot, fromPosition, toPosition), Spliterator.ORDERED), false)
+                    .filter(entry -> entry.getEntryType() != SagaLogEntryType.Ignore && !completed.contains(entry.getExecutionId()))
+                    .iterator();
+            try {
+                FileSagaLogCheckpoint written = FileSagaLogCheckpoint.write(folder, toPosition, incomplete);
+                synchronized (this) {
+                    if (closed) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    checkpoint = written;
+                    retainedEntries = countEntries(truncatedPosition, writePosition);
+                    deleteSegmentsBefore(toPosition);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Count the entries that readIncompleteSagas returns between the positions, from the checkpoint and the record
+     * headers of the segments after it, without decoding them. Must hold the write lock.
+     */
+    private long countEntries(long fromPosition, long toPosition) {
+        FileSagaLogCheckpoint current = checkpoint;
+        long count = current == null ? 0 : current.count(fromPosition, toPosition);
+        long from = Math.max(fromPosition, checkpointPosition());
+        for (FileSagaLogSegment segment : segments) {
+            if (segment.endPosition() <= from || segment.basePosition >= toPosition) {
+                continue;
+            }
+            int fromOffset = (int) Math.max(0, from - segment.basePosition);
+            int toOffset = (int) Math.min(segment.capacity(), toPosition - segment.basePosition);
+            count += segment.countRecords(fromOffset, toOffset);
+        }
+        return count;
+    }
+
+    long retainedEntries() {
+        return retainedEntries;
+    }
+
+    private FileSagaLogSegment segmentContaining(long position) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            FileSagaLogSegment segment = segments.get(i);
+            if (segment.basePosition <= position) {
+                return segment;
+            }
+        }
+        throw new IllegalArgumentException("No segment contains position " + position);
+    }
+
+    @Override
+    public Stream<SagaLogEntry> readIncompleteSagas() {
+        FileSagaLogCheckpoint currentCheckpoint;
+        List<FileSagaLogSegment> snapshot;
+        long fromPosition;
+        long toPosition;
+        synchronized (this) {
+            currentCheckpoint = checkpoint;
+            snapshot = segmentsSnapshot;
+            fromPosition = truncatedPosition;
+            toPosition = writePosition;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries(currentCheckpoint, snapshot, fromPosition, toPosition),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * @return the entries of the checkpoint followed by the entries of the segments after the checkpoint, limited to
+     * the given range of positions.
+     */
+    private static Iterator<SagaLogEntry> entries(FileSagaLogCheckpoint checkpoint, List<FileSagaLogSegment> segments, long fromPosition, long toPosition) {
+        if (checkpoint == null) {
+            return new EntryIterator(segments, fromPosition, toPosition);
+        }
+        Iterator<SagaLogEntry> checkpointEntries = checkpoint.entries(fromPosition);
+        Iterator<SagaLogEntry> segmentEntries = new EntryIterator(segments, Math.max(fromPosition, checkpoint.position), toPosition);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return checkpointEntries.hasNext() || segmentEntries.hasNext();
+            }
+
+            @Override
+            public SagaLogEntry next() {
+                return checkpointEntries.hasNext() ? checkpointEntries.next() : segmentEntries.next();
+            }
+        };
+    }
+
+    @Override
+    public Stream<SagaLogEntry> readEntries(String executionId) {
+        return readIncompleteSagas().filter(e -> executionId.equals(e.getExecutionId()));
+    }
+
+    @Override
+    public String toString(SagaLogEntryId id) {
+        return String.valueOf(((FileSagaLogEntryId) id).position);
+    }
+
+    @Override
+    public SagaLogEntryId fromString(String idString) {
+        return new FileSagaLogEntryId(Long.parseLong(idString));
+    }
+
+    @Override
+    public byte[] toBytes(SagaLogEntryId id) {
+        return SagaLogEntryCodec.longToBytes(((FileSagaLogEntryId) id).position);
+    }
+
+    @Override
+    public SagaLogEntryId fromBytes(byte[] idBytes) {
+        return new FileSagaLogEntryId(SagaLogEntryCodec.longFromBytes(idBytes));
+    }
+
+    @Override
+    public int compare(SagaLogEntryId id1, SagaLogEntryId id2) {
+        return Long.compare(((FileSagaLogEntryId) id1).position, ((FileSagaLogEntryId) id2).position);
+    }
+
+    /**
+     * Writers are rejected once the log is marked closed, and the group-commit is then closed without holding any lock
+     * of the log, so that dependent stages of pending writes that write again fail instead of waiting for close.
+     */
+    @Override
+    public void close() throws IOException {
+        metrics.unregisterLog(sagaLogId);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            groupCommit.close();
+        } finally {
+            synchronized (checkpointLock) { // let a running checkpoint finish while the folder is still locked
+                synchronized (this) {
+                    closeFiles();
+                }
+            }
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        try {
+            for (FileSagaLogSegment segment : segments) {
+                segment.force();
+                segment.close();
+            }
+            truncatedChannel.close();
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * Iterates the records of a snapshot of the segments between the truncated and write positions. Entries are
+     * decoded straight from the mapped segment buffers, and their jsonData is only decoded when accessed. Each segment is
+     * read from its start, and the records before the truncated position only add their strings to the dictionary.
+     */
+    private static class EntryIterator implements Iterator<SagaLogEntry> {
+        final Iterator<FileSagaLogSegment> segmentIterator;
+        final long fromPosition;
+        final long toPosition;
+        FileSagaLogSegment segment;
+        SagaLogStringDictionary dictionary;
+        long position;
+
+        EntryIterator(List<FileSagaLogSegment> segments, long fromPosition, long toPosition) {
+            this.segmentIterator = segments.iterator();
+            this.fromPosition = fromPosition;
+            this.toPosition = toPosition;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (true) {
+                if (segment != null && position < toPosition) {
+                    int offset = (int) (position - segment.basePosition);
+                    if (segment.hasRoomFor(offset, 0) && segment.recordLength(offset) > 0) {
+                        if (position >= fromPosition) {
+                            return true;
+                        }
+                        SagaLogEntryCodec.skip(segment.payload(offset), dictionary);
+                        position += FileSagaLogSegment.RECORD_HEADER_SIZE + segment.recordLength(offset);
+                        continue;
+                    }
+                }
+                if (!segmentIterator.hasNext()) {
+                    return false;
+                }
+                segment = segmentIterator.next();
+                dictionary = SagaLogStringDictionary.forDecoding();
+                position = segment.basePosition;
+                if (position >= toPosition) {
+                    return false;
+                }
+                if (segment.endPosition() <= fromPosition) {
+                    segment = null; // entirely truncated, no need to read its dictionary
+                }
+            }
+        }
+
+        @Override
+        public SagaLogEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int offset = (int) (position - segment.basePosition);
+            SagaLogEntry entry = SagaLogEntryCodec.decode(new FileSagaLogEntryId(position), segment.payload(offset), dictionary);
+            position += FileSagaLogSegment.RECORD_HEADER_SIZE + segment.recordLength(offset);
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryCodec;
+import no.ssb.sagalog.SagaLogStringDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A checkpoint file holding the entries of the saga executions that were still incomplete at a position in the log,
+ * so that recovery only has to read the checkpoint and the segments after that position. The file starts with a
+ * header of [int magic][byte version][long position], followed by records of [long entryPosition][int length][payload]
+ * in log order. A checkpoint is written to a temporary file that is forced and then atomically renamed, so the
+ * checkpoint file is always complete. Version 2 checkpoints hold version 2 encoded entries that share the string
+ * dictionary of the file, version 1 checkpoints hold version 1 encoded entries.
+ */
+class FileSagaLogCheckpoint {
+
+    static final String FILE_NAME = "checkpoint";
+    static final String TEMP_FILE_NAME = "checkpoint.tmp";
+
+    static final int MAGIC = 0x534c4350; // "SLCP"
+    static final byte VERSION_1 = 1;
+    static final byte VERSION_2 = 2;
+    static final int HEADER_SIZE = 4 + 1 + 8;
+    static final int RECORD_HEADER_SIZE = 8 + 4;
+
+    final long position;
+    private final byte version;
+    private final ByteBuffer buffer;
+
+    private FileSagaLogCheckpoint(long position, byte version, ByteBuffer buffer) {
+        this.position = position;
+        this.version = version;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the checkpoint in the folder, or null if the folder has no checkpoint.
+     */
+    static FileSagaLogCheckpoint read(Path folder) throws IOException {
+        Path path = folder.resolve(FILE_NAME);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("Not a saga-log checkpoint: " + path);
+        }
+        byte version = buffer.get(4);
+        if (version != VERSION_1 && version != VERSION_2) {
+            throw new IllegalStateException("Unsupported saga-log checkpoint version " + version + ": " + path);
+        }
+        return new FileSagaLogCheckpoint(buffer.getLong(5), version, buffer);
+    }
+
+    /**
+     * Write the entries as the checkpoint at the given position, replacing any previous checkpoint in the folder.
+     */
+    static FileSagaLogCheckpoint write(Path folder, long position, Iterator<SagaLogEntry> entries) throws IOException {
+        Path tempPath = folder.resolve(TEMP_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(MAGIC).put(VERSION_2).putLong(position);
+            SagaLogStringDictionary dictionary = SagaLogStringDictionary.forEncoding();
+            while (entries.hasNext()) {
+                SagaLogEntry entry = entries.next();
+                int maxLength = SagaLogEntryCodec.maxEncodedSize(entry);
+                if (buffer.remaining() < RECORD_HEADER_SIZE + maxLength) {
+                    writeFully(channel, buffer.flip());
+                    buffer.clear();
+                    if (buffer.capacity() < RECORD_HEADER_SIZE + maxLength) {
+                        buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + maxLength);
+                    }
+                }
+                int recordStart = buffer.position();
+                buffer.putLong(((FileSagaLogEntryId) entry.getId()).position).putInt(0);
+                SagaLogEntryCodec.encode(entry, buffer, dictionary);
+                buffer.putInt(recordStart + 8, buffer.position() - recordStart - RECORD_HEADER_SIZE);
+            }
+            writeFully(channel, buffer.flip());
+            channel.force(true);
+        }
+        Files.move(tempPath, folder.resolve(FILE_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return read(folder);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the entries of the checkpoint at or after the given position, decoded lazily from the mapped file.
+     */
+    Iterator<SagaLogEntry> entries(long fromPosition) {
+        SagaLogStringDictionary dictionary = version == VERSION_2 ? SagaLogStringDictionary.forDecoding() : null;
+        return new Iterator<>() {
+            int offset = HEADER_SIZE;
+
+            @Override
+            public boolean hasNext() {
+                while (offset < buffer.capacity() && buffer.getLong(offset) < fromPosition) {
+                    int length = buffer.getInt(offset + 8);
+                    if (dictionary != null) {
+                        SagaLogEntryCodec.skip(payload(offset, length), dictionary);
+                    }
+                    offset += RECORD_HEADER_SIZE + length;
+                }
+                return offset < buffer.capacity();
+            }
+
+            @Override
+            public SagaLogEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long entryPosition = buffer.getLong(offset);
+                int length = buffer.getInt(offset + 8);
+                ByteBuffer payload = payload(offset, length);
+                offset += RECORD_HEADER_SIZE + length;
+                return SagaLogEntryCodec.decode(new FileSagaLogEntryId(entryPosition), payload, dictionary);
+            }
+        };
+    }
+
+    /**
+     * @return the number of entries of the checkpoint at or after fromPosition and before toPosition, counted from the
+     * record headers without decoding the entries.
+     */
+    long count(long fromPosition, long toPosition) {
+        long count = 0;
+        for (int offset = HEADER_SIZE; offset < buffer.capacity(); offset += RECORD_HEADER_SIZE + buffer.getInt(offset + 8)) {
+            long entryPosition = buffer.getLong(offset);
+            if (entryPosition >= toPosition) {
+                break;
+            }
+            if (entryPosition >= fromPosition) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private ByteBuffer payload(int offset, int length) {
+        return buffer.duplicate().limit(offset + RECORD_HEADER_SIZE + length).position(offset + RECORD_HEADER_SIZE).slice();
+    }
+}
@@ -0,0 +1,35 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLogEntryId;
+
+/**
+ * The id of an entry in a file saga-log is the position of the entry record in the log, i.e. the base position of the
+ * segment holding the record plus the offset of the record within that segment.
+ */
+class FileSagaLogEntryId implements SagaLogEntryId {
+    final long position;
+
+    FileSagaLogEntryId(long position) {
+        this.position = position;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileSagaLogEntryId that = (FileSagaLogEntryId) o;
+        return position == that.position;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(position);
+    }
+
+    @Override
+    public String toString() {
+        return "FileSagaLogEntryId{" +
+                "position=" + position +
+                '}';
+    }
+}
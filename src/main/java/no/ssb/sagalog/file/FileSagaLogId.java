@@ -0,0 +1,50 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLogId;
+
+import java.util.Objects;
+
+class FileSagaLogId implements SagaLogId {
+    private final String clusterInstanceId;
+    private final String logName;
+
+    FileSagaLogId(String clusterInstanceId, String logName) {
+        this.clusterInstanceId = clusterInstanceId;
+        if (logName == null) {
+            throw new IllegalArgumentException("logName cannot be null");
+        }
+        this.logName = logName;
+    }
+
+    @Override
+    public String getClusterInstanceId() {
+        return clusterInstanceId;
+    }
+
+    @Override
+    public String getLogName() {
+        return logName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileSagaLogId that = (FileSagaLogId) o;
+        return clusterInstanceId.equals(that.clusterInstanceId) &&
+                logName.equals(that.logName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(clusterInstanceId, logName);
+    }
+
+    @Override
+    public String toString() {
+        return "FileSagaLogId{" +
+                "clusterInstanceId='" + clusterInstanceId + '\'' +
+                ", logName='" + logName + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,39 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLogFsyncPolicy;
+import no.ssb.sagalog.SagaLogInitializer;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+public class FileSagaLogInitializer implements SagaLogInitializer {
+
+    public FileSagaLogInitializer() {
+    }
+
+    public FileSagaLogPool initialize(Map<String, String> configuration) {
+        String clusterInstanceId = configuration.getOrDefault("cluster.instance-id", "TheOnlyInstance");
+        Path folder = Path.of(configuration.getOrDefault("file.folder", "sagalogs"));
+        int segmentSize = Integer.parseInt(configuration.getOrDefault("file.segment-size", "8388608"));
+        SagaLogFsyncPolicy fsyncPolicy = SagaLogFsyncPolicy.valueOf(configuration.getOrDefault("file.fsync.policy", "PerBatch"));
+        long fsyncTimeWindowMillis = Long.parseLong(configuration.getOrDefault("file.fsync.time-window-ms", "2"));
+        long checkpointIntervalBytes = Long.parseLong(configuration.getOrDefault("file.checkpoint.interval-bytes", "67108864"));
+        FileSagaLogPool pool = new FileSagaLogPool(clusterInstanceId, folder, segmentSize, fsyncPolicy, fsyncTimeWindowMillis, checkpointIntervalBytes);
+        pool.configureAutoScaling(configuration);
+        return pool;
+    }
+
+    public Map<String, String> configurationOptionsAndDefaults() {
+        return Map.of(
+                "cluster.instance-id", "TheOnlyInstance",
+                "file.folder", "sagalogs",
+                "file.segment-size", "8388608",
+                "file.fsync.policy", "PerBatch",
+                "file.fsync.time-window-ms", "2",
+                "file.checkpoint.interval-bytes", "67108864",
+                "pool.auto-scaling.max-logs", "0",
+                "pool.auto-scaling.wait-threshold-ms", "50",
+                "pool.auto-scaling.log-name-prefix", "auto-scaled-"
+        );
+    }
+}
@@ -0,0 +1,123 @@
+package no.ssb.sagalog.file;
+
+
+import no.ssb.sagalog.AbstractSagaLogPool;
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogBusyException;
+import no.ssb.sagalog.SagaLogFsyncPolicy;
+import no.ssb.sagalog.SagaLogId;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class FileSagaLogPool extends AbstractSagaLogPool {
+
+    private final Path folder;
+    private final int segmentSize;
+    private final SagaLogFsyncPolicy fsyncPolicy;
+    private final long fsyncTimeWindowMillis;
+    private final long checkpointIntervalBytes;
+
+    public FileSagaLogPool(String clusterInstanceId, Path folder, int segmentSize) {
+        this(clusterInstanceId, folder, segmentSize, SagaLogFsyncPolicy.PerBatch, 0);
+    }
+
+    public FileSagaLogPool(String clusterInstanceId, Path folder, int segmentSize, SagaLogFsyncPolicy fsyncPolicy, long fsyncTimeWindowMillis) {
+        this(clusterInstanceId, folder, segmentSize, fsyncPolicy, fsyncTimeWindowMillis, 0);
+    }
+
+    /**
+     * @param checkpointIntervalBytes checkpoint each log every time this many bytes have been written to it, or never
+     *                                if zero.
+     */
+    public FileSagaLogPool(String clusterInstanceId, Path folder, int segmentSize, SagaLogFsyncPolicy fsyncPolicy, long fsyncTimeWindowMillis, long checkpointIntervalBytes) {
+        super(clusterInstanceId);
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+        }
+        if (checkpointIntervalBytes < 0) {
+            throw new IllegalArgumentException("checkpointIntervalBytes must not be negative");
+        }
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncTimeWindowMillis = fsyncTimeWindowMillis;
+        this.checkpointIntervalBytes = checkpointIntervalBytes;
+        try {
+            Files.createDirectories(folder);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public FileSagaLogId idFor(String clusterInstanceId, String logName) {
+        return new FileSagaLogId(clusterInstanceId, logName);
+    }
+
+    @Override
+    public Set<SagaLogId> clusterWideLogIds() {
+        Set<SagaLogId> logIds = new LinkedHashSet<>();
+        for (Path instanceFolder : subFolders(folder)) {
+            String clusterInstanceId = decode(instanceFolder.getFileName().toString());
+            for (Path logFolder : subFolders(instanceFolder)) {
+                logIds.add(idFor(clusterInstanceId, decode(logFolder.getFileName().toString())));
+            }
+        }
+        return logIds;
+    }
+
+    @Override
+    protected boolean deleteExternal(SagaLogId logId) {
+        Path logFolder = folderOf(logId);
+        if (!Files.isDirectory(logFolder)) {
+            return false;
+        }
+        try (Stream<Path> walk = Files.walk(logFolder)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    @Override
+    protected SagaLog connectExternal(SagaLogId logId) throws SagaLogBusyException {
+        return new FileSagaLog(logId, folderOf(logId), segmentSize, fsyncPolicy, fsyncTimeWindowMillis, checkpointIntervalBytes, metrics());
+    }
+
+    Path folderOf(SagaLogId logId) {
+        return folder.resolve(encode(logId.getClusterInstanceId())).resolve(encode(logId.getLogName()));
+    }
+
+    private static List<Path> subFolders(Path parent) {
+        if (!Files.isDirectory(parent)) {
+            return List.of();
+        }
+        try (Stream<Path> list = Files.list(parent)) {
+            return list.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String encode(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8).replace(".", "%2E").replace("*", "%2A");
+    }
+
+    private static String decode(String fileName) {
+        return URLDecoder.decode(fileName, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,287 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import no.ssb.sagalog.SagaLogEntryCodec;
+import no.ssb.sagalog.SagaLogStringDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size memory-mapped segment file holding a contiguous range of the saga-log. Records are laid out back to
+ * back as [int length][int crc32][payload], and a length of zero marks the end of the written part of the segment.
+ * The length is always written last, so a record is not visible to a scan before all of its bytes are in place.
+ * <p>
+ * Payloads are version 2 encoded entries that share the string dictionary of the segment, so the records of a segment
+ * are read from the start of the segment. Segments written by earlier versions hold version 1 entries, which do not
+ * use the dictionary.
+ */
+class FileSagaLogSegment {
+
+    static final int RECORD_HEADER_SIZE = 8;
+
+    static final String FILE_SUFFIX = ".segment";
+    static final int MAX_RETAINED_RECORD_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<RecordEncoder> RECORD_ENCODER = ThreadLocal.withInitial(RecordEncoder::new);
+
+    final Path path;
+    final long basePosition;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private FileSagaLogSegment(Path path, long basePosition, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.basePosition = basePosition;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static Path pathFor(Path folder, long basePosition) {
+        return folder.resolve(String.format("%020d%s", basePosition, FILE_SUFFIX));
+    }
+
+    static boolean isSegmentFile(Path path) {
+        return path.getFileName().toString().endsWith(FILE_SUFFIX);
+    }
+
+    static long basePositionOf(Path path) {
+        String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.length() - FILE_SUFFIX.length()));
+    }
+
+    static FileSagaLogSegment create(Path folder, long basePosition, int capacity) throws IOException {
+        Path path = pathFor(folder, basePosition);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new FileSagaLogSegment(path, basePosition, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+    }
+
+    static FileSagaLogSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Files.size(path);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Segment file is too large: " + path);
+        }
+        return new FileSagaLogSegment(path, basePositionOf(path), channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    long endPosition() {
+        return basePosition + buffer.capacity();
+    }
+
+    boolean hasRoomFor(int offset, int payloadLength) {
+        return (long) offset + RECORD_HEADER_SIZE + payloadLength <= buffer.capacity();
+    }
+
+    /**
+     * Scan forward from the given offset and find the offset following the last complete and intact record.
+     */
+    int scanEndOffset(int offset) {
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || !hasRoomFor(offset, length)) {
+                break;
+            }
+            if (crcOf(offset + RECORD_HEADER_SIZE, length) != buffer.getInt(offset + 4)) {
+                break; // torn write
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Zero all bytes from the given offset until the end of the segment, removing any partially written record.
+     */
+    void clearFrom(int offset) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        while (dup.remaining() >= 8) {
+            dup.putLong(0);
+        }
+        while (dup.hasRemaining()) {
+            dup.put((byte) 0);
+        }
+    }
+
+    /**
+     * @return a cleared heap buffer of at least the given capacity to encode records into before the write lock is
+     * taken. The buffer is reused by the calling thread for the next write, unless it is larger than
+     * {@link #MAX_RETAINED_RECORD_BUFFER_SIZE}.
+     */
+    static ByteBuffer recordBuffer(int capacity) {
+        RecordEncoder encoder = RECORD_ENCODER.get();
+        if (capacity > MAX_RETAINED_RECORD_BUFFER_SIZE) {
+            return ByteBuffer.allocate(capacity);
+        }
+        if (encoder.buffer.capacity() < capacity) {
+            encoder.buffer = ByteBuffer.allocate(Math.min(MAX_RETAINED_RECORD_BUFFER_SIZE, Math.max(capacity, 2 * encoder.buffer.capacity())));
+        }
+        return encoder.buffer.clear();
+    }
+
+    /**
+     * @return the room to reserve for the record of a validated builder, which is the record header, the head of the
+     * entry and the largest tail the entry can have.
+     */
+    static int recordSlotSize(SagaLogEntryBuilder builder) {
+        return RECORD_HEADER_SIZE + SagaLogEntryCodec.encodedHeadSize(builder) + SagaLogEntryCodec.maxEncodedTailSize(builder);
+    }
+
+    /**
+     * @return checksums of the calling thread, one for each record that is encoded at the same time.
+     */
+    static CRC32[] checksums(int count) {
+        RecordEncoder encoder = RECORD_ENCODER.get();
+        if (encoder.crcs.length < count) {
+            CRC32[] crcs = Arrays.copyOf(encoder.crcs, count);
+            for (int i = encoder.crcs.length; i < count; i++) {
+                crcs[i] = new CRC32();
+            }
+            encoder.crcs = crcs;
+        }
+        return encoder.crcs;
+    }
+
+    /**
+     * Encode the head of the entry of a validated builder into a slot of the given size at the position of the heap
+     * buffer, start the checksum of the record with it, and advance the position past the slot. Does not depend on the
+     * segment the record is appended to, so it is done before the write lock is taken.
+     */
+    static void encodeRecordHead(SagaLogEntryBuilder builder, int slotSize, ByteBuffer records, CRC32 crc) {
+        int start = records.position();
+        records.position(start + RECORD_HEADER_SIZE);
+        SagaLogEntryCodec.encodeHead(builder, records);
+        int headLength = records.position() - start - RECORD_HEADER_SIZE;
+        records.putInt(start, headLength);
+        records.putInt(start + 4, slotSize);
+        crc.reset();
+        crc.update(records.array(), records.arrayOffset() + start + RECORD_HEADER_SIZE, headLength);
+        records.position(start + slotSize);
+    }
+
+    /**
+     * @return the size of the slot of the record at the position of the buffer, until the tail has been encoded.
+     */
+    static int recordSlotSize(ByteBuffer records) {
+        return records.getInt(records.position() + 4);
+    }
+
+    /**
+     * Encode the tail of the entry after the head in the slot at the position of the heap buffer with the dictionary of
+     * the segment the record is appended to, and complete the record header. The position is left at the record.
+     *
+     * @return the payload length of the record.
+     */
+    static int encodeRecordTail(SagaLogEntryBuilder builder, ByteBuffer records, CRC32 crc, SagaLogStringDictionary dictionary) {
+        int start = records.position();
+        int headLength = records.getInt(start);
+        int tailStart = start + RECORD_HEADER_SIZE + headLength;
+        records.position(tailStart);
+        SagaLogEntryCodec.encodeTail(builder, records, dictionary);
+        crc.update(records.array(), records.arrayOffset() + tailStart, records.position() - tailStart);
+        int payloadLength = records.position() - start - RECORD_HEADER_SIZE;
+        records.putInt(start, payloadLength);
+        records.putInt(start + 4, (int) crc.getValue());
+        records.position(start);
+        return payloadLength;
+    }
+
+    private static class RecordEncoder {
+        CRC32[] crcs = new CRC32[0];
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+    }
+
+    /**
+     * @return the dictionary of the version 2 records before the given offset, for appending records after them.
+     */
+    SagaLogStringDictionary dictionary(int endOffset) {
+        SagaLogStringDictionary dictionary = SagaLogStringDictionary.forEncoding();
+        for (int offset = 0; offset < endOffset; offset += RECORD_HEADER_SIZE + recordLength(offset)) {
+            SagaLogEntryCodec.skip(payload(offset), dictionary);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Copy the record from the position of the given buffer to the given offset, and advance the position of the buffer
+     * past the record. The length is written last, so that a record is not seen by recovery until it is complete.
+     */
+    void append(int offset, ByteBuffer records) {
+        int start = records.position();
+        int payloadLength = records.getInt(start);
+        int limit = records.limit();
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset + 4);
+        dup.put(records.position(start + 4).limit(start + RECORD_HEADER_SIZE + payloadLength));
+        records.limit(limit);
+        buffer.putInt(offset, payloadLength);
+    }
+
+    /**
+     * @return the number of records that start at or after fromOffset and before toOffset, counted from the start of
+     * the segment.
+     */
+    int countRecords(int fromOffset, int toOffset) {
+        int count = 0;
+        int offset = 0;
+        while (offset < toOffset && offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0) {
+                break;
+            }
+            if (offset >= fromOffset) {
+                count++;
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        return count;
+    }
+
+    int recordLength(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    /**
+     * @return a read-only view of the payload of the record at the given offset, backed by the mapped segment.
+     */
+    ByteBuffer payload(int offset) {
+        ByteBuffer dup = buffer.asReadOnlyBuffer();
+        dup.limit(offset + RECORD_HEADER_SIZE + buffer.getInt(offset));
+        dup.position(offset + RECORD_HEADER_SIZE);
+        return dup.slice();
+    }
+
+    private int crcOf(int offset, int length) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.limit(offset + length);
+        dup.position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(dup);
+        return (int) crc.getValue();
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
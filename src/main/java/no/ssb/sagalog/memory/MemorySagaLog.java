@@ -4,26 +4,106 @@ package no.ssb.sagalog.memory;
 import no.ssb.sagalog.SagaLog;
 import no.ssb.sagalog.SagaLogEntry;
 import no.ssb.sagalog.SagaLogEntryBuilder;
+import no.ssb.sagalog.SagaLogEntryBuilderPool;
+import no.ssb.sagalog.SagaLogEntryCodec;
 import no.ssb.sagalog.SagaLogEntryId;
 import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogMetrics;
 
 import java.nio.ByteBuffer;
-import java.util.Deque;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * A write is a lock-free append followed by a locked index update. The entry is appended to the log without locking,
+ * see {@link MemorySagaLogEntries}, and then added to the index of its execution, which is guarded by the monitor of
+ * that execution and found or created with computeIfAbsent on a ConcurrentHashMap. Writers to different executions
+ * only meet on the id counter, the bins of that map and block switches in the off-heap arena, while writers to the same
+ * execution are serialized on its index. Truncation and compaction hold the monitor of the log, which writes never
+ * take.
+ * <p>
+ * Executions that have ended are compacted away from the log in the background, in batches that each hold the
+ * truncate lock for a short while, so that memory tracks the sagas that are still running. Writes never wait for
+ * compaction, but may wait for truncation or compaction when the log is over its memory budget.
+ */
 class MemorySagaLog implements SagaLog {
 
+    static final int COMPACTION_BATCH_SIZE = 1024;
+
+    /**
+     * Runs the background compaction of all memory logs that are not given an executor, on daemon threads of its own
+     * rather than on the common pool, so that compaction neither competes with the tasks of the application in the
+     * common pool nor is starved by them. Idle threads time out.
+     */
+    static final ThreadPoolExecutor COMPACTION_EXECUTOR = createCompactionExecutor();
+
+    /**
+     * Estimated heap bytes held per entry in addition to the jsonData, for the entry, its strings, its slot and its
+     * place in the index.
+     */
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    /**
+     * The most distinct nodeIds and sagaNames that the log keeps one String instance of for its entries to share. They
+     * come from the small graphs of the sagas, so names beyond this are kept as written, one instance per entry, rather
+     * than growing the map of shared names without bound.
+     */
+    static final int MAX_SHARED_NAMES = 4096;
+
     private final SagaLogId sagaLogId;
+    private final Executor compactionExecutor;
     private final AtomicLong nextId = new AtomicLong(0);
-    private final Deque<SagaLogEntry> incompleteEntries = new ConcurrentLinkedDeque<>();
+    private final MemorySagaLogEntries incompleteEntries = new MemorySagaLogEntries();
+    private final Map<String, MemorySagaLogExecution> executionById = new ConcurrentHashMap<>();
+    private final Map<String, String> sharedNames = new ConcurrentHashMap<>();
+    private final Queue<MemorySagaLogExecution> endedExecutions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger endedExecutionCount = new AtomicInteger();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final AtomicLong retainedEntries = new AtomicLong();
+    final AtomicInteger delayedWrites = new AtomicInteger();
+    private final SagaLogMetrics metrics;
+    private final MemorySagaLogBudget budget;
 
     MemorySagaLog(SagaLogId sagaLogId) {
+        this(sagaLogId, COMPACTION_EXECUTOR);
+    }
+
+    MemorySagaLog(SagaLogId sagaLogId, Executor compactionExecutor) {
+        this(sagaLogId, compactionExecutor, SagaLogMetrics.disabled());
+    }
+
+    MemorySagaLog(SagaLogId sagaLogId, Executor compactionExecutor, SagaLogMetrics metrics) {
+        this(sagaLogId, compactionExecutor, metrics, MemorySagaLogBudget.unbounded());
+    }
+
+    MemorySagaLog(SagaLogId sagaLogId, Executor compactionExecutor, SagaLogMetrics metrics, MemorySagaLogBudget budget) {
         this.sagaLogId = sagaLogId;
+        this.compactionExecutor = compactionExecutor;
+        this.metrics = metrics;
+        this.budget = budget;
+        metrics.registerLog(sagaLogId, retainedEntries::get, incompleteEntries::offHeapBytes);
+        budget.register(this);
     }
 
     @Override
@@ -33,50 +113,371 @@ class MemorySagaLog implements SagaLog {
 
     @Override
     public Stream<SagaLogEntry> readEntries(String executionId) {
-        return incompleteEntries.stream().filter(e -> executionId.equals(e.getExecutionId()));
+        MemorySagaLogExecution execution = executionById.get(executionId);
+        if (execution == null) {
+            return Stream.empty();
+        }
+        return execution.entries().stream();
     }
 
+    @Override
+    public Map<String, List<SagaLogEntry>> getSnapshotOfSagaLogEntriesByNodeId(String executionId) {
+        MemorySagaLogExecution execution = executionById.get(executionId);
+        if (execution == null) {
+            return new LinkedHashMap<>();
+        }
+        return execution.entriesByNodeId();
+    }
+
+    /**
+     * The builder is validated before an id is taken, so an invalid entry fails without leaving a gap in the ids. The
+     * entry is built straight from the builder, and pooled builders are returned to the pool of the calling thread
+     * before this method returns. A write that waits for budget admission works on a detached copy of the builder.
+     */
     @Override
     public CompletableFuture<SagaLogEntry> write(SagaLogEntryBuilder builder) {
-        synchronized (this) {
-            if (builder.id() == null) {
-                builder.id(new MemorySagaLogEntryId(nextId.getAndIncrement()));
+        long start = System.nanoTime();
+        try {
+            builder.validate();
+            int jsonDataLength = builder.jsonData() == null ? -1 : SagaLogEntryCodec.utf8Length(builder.jsonData());
+            CompletableFuture<SagaLogEntry> future;
+            if (budget.tryAdmit(this)) {
+                future = CompletableFuture.completedFuture(writeAdmitted(builder, jsonDataLength));
+            } else {
+                SagaLogEntryBuilder detached = SagaLogEntryBuilderPool.detach(builder);
+                future = budget.admission(this).thenApply(v -> writeAdmitted(detached, jsonDataLength));
             }
-            SagaLogEntry entry = builder.build();
-            incompleteEntries.add(entry);
-            return CompletableFuture.completedFuture(entry);
+            metrics.recordWrite(start, Math.max(0, jsonDataLength), future);
+            return future;
+        } finally {
+            SagaLogEntryBuilderPool.release(builder);
         }
     }
 
+    private SagaLogEntry writeAdmitted(SagaLogEntryBuilder builder, int jsonDataLength) {
+        long id;
+        if (builder.id() == null) {
+            id = nextId.getAndIncrement();
+            builder.id(new MemorySagaLogEntryId(id));
+        } else {
+            id = ((MemorySagaLogEntryId) builder.id()).id;
+            nextId.accumulateAndGet(id + 1, Math::max);
+        }
+        return append(builder, jsonDataLength, id);
+    }
+
+    /**
+     * Reserves a contiguous range of ids for the batch with a single atomic add, after the whole batch has been
+     * validated. Entries of the batch become visible to readers one at a time as they are appended. Batches where any
+     * builder already has an id are written one entry at a time. A batch is admitted by the memory budget as a whole.
+     */
+    @Override
+    public CompletableFuture<List<SagaLogEntry>> writeAll(List<SagaLogEntryBuilder> builders) {
+        for (SagaLogEntryBuilder builder : builders) {
+            if (builder.id() != null) {
+                return SagaLog.super.writeAll(builders);
+            }
+        }
+        try {
+            for (SagaLogEntryBuilder builder : builders) {
+                builder.validate();
+            }
+            if (!budget.tryAdmit(this)) {
+                List<SagaLogEntryBuilder> detached = new ArrayList<>(builders.size());
+                for (SagaLogEntryBuilder builder : builders) {
+                    detached.add(SagaLogEntryBuilderPool.detach(builder));
+                }
+                return budget.admission(this).thenCompose(v -> writeAllAdmitted(detached));
+            }
+            return writeAllAdmitted(builders);
+        } finally {
+            for (SagaLogEntryBuilder builder : builders) {
+                SagaLogEntryBuilderPool.release(builder);
+            }
+        }
+    }
+
+    private CompletableFuture<List<SagaLogEntry>> writeAllAdmitted(List<SagaLogEntryBuilder> builders) {
+        long start = System.nanoTime();
+        long id = nextId.getAndAdd(builders.size());
+        List<SagaLogEntry> entries = new ArrayList<>(builders.size());
+        long totalBytes = 0;
+        for (int i = 0; i < builders.size(); i++, id++) {
+            SagaLogEntryBuilder builder = builders.get(i);
+            int jsonDataLength = builder.jsonData() == null ? -1 : SagaLogEntryCodec.utf8Length(builder.jsonData());
+            builder.id(new MemorySagaLogEntryId(id));
+            entries.add(append(builder, jsonDataLength, id));
+            totalBytes += Math.max(0, jsonDataLength);
+        }
+        CompletableFuture<List<SagaLogEntry>> future = CompletableFuture.completedFuture(entries);
+        metrics.recordWrite(start, entries.size(), totalBytes, future);
+        return future;
+    }
+
+    /**
+     * @param builder a validated builder that holds the id of the entry.
+     */
+    private SagaLogEntry append(SagaLogEntryBuilder builder, int jsonDataLength, long id) {
+        shareStrings(builder);
+        SagaLogEntry entry;
+        if (builder.jsonData() == null) {
+            entry = builder.build();
+        } else {
+            ByteBuffer jsonDataBytes = incompleteEntries.allocate(id, jsonDataLength);
+            SagaLogEntryCodec.putUtf8(jsonDataBytes, builder.jsonData());
+            entry = builder.build(jsonDataBytes.flip());
+        }
+        incompleteEntries.put(id, entry);
+        retainedEntries.incrementAndGet();
+        MemorySagaLogExecution execution = addToIndex(entry);
+        if (entry.isEndOfSaga()) {
+            executionEnded(execution);
+        }
+        return entry;
+    }
+
+    /**
+     * Replace the strings of the builder with equal String instances that are already held by the log, so that equal
+     * strings are not held once per entry. This is not dictionary encoding like the file backend does: each entry still
+     * holds a reference per string, and only duplicate String instances are saved.
+     * <ul>
+     * <li>The executionId is shared once the execution is in the index, so the first entry of an execution supplies the
+     * instance that the later entries share.</li>
+     * <li>nodeIds and sagaNames are shared for up to {@link #MAX_SHARED_NAMES} distinct names per log.</li>
+     * </ul>
+     */
+    private void shareStrings(SagaLogEntryBuilder builder) {
+        MemorySagaLogExecution execution = executionById.get(builder.executionId());
+        if (execution != null) {
+            builder.executionId(execution.executionId);
+        }
+        builder.nodeId(sharedName(builder.nodeId()));
+        builder.sagaName(sharedName(builder.sagaName()));
+    }
+
+    private String sharedName(String name) {
+        if (name == null) {
+            return null;
+        }
+        String shared = sharedNames.get(name);
+        if (shared != null) {
+            return shared;
+        }
+        if (sharedNames.size() >= MAX_SHARED_NAMES) {
+            return name;
+        }
+        shared = sharedNames.putIfAbsent(name, name);
+        return shared == null ? name : shared;
+    }
+
+    private MemorySagaLogExecution addToIndex(SagaLogEntry entry) {
+        while (true) {
+            MemorySagaLogExecution execution = executionById.computeIfAbsent(entry.getExecutionId(), MemorySagaLogExecution::new);
+            if (execution.add(entry)) {
+                return execution;
+            }
+            executionById.remove(execution.executionId, execution); // retired by concurrent truncate
+        }
+    }
+
+    private void executionEnded(MemorySagaLogExecution execution) {
+        endedExecutions.add(execution);
+        if (endedExecutionCount.incrementAndGet() >= COMPACTION_BATCH_SIZE) {
+            scheduleCompaction();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactionScheduled.compareAndSet(false, true)) {
+            compactionExecutor.execute(this::compactInBackground);
+        }
+    }
+
+    private void compactInBackground() {
+        try {
+            int visited;
+            do {
+                visited = compactBatch(COMPACTION_BATCH_SIZE);
+            } while (visited == COMPACTION_BATCH_SIZE);
+        } finally {
+            compactionScheduled.set(false);
+            budget.released();
+        }
+        if (endedExecutionCount.get() >= COMPACTION_BATCH_SIZE) {
+            scheduleCompaction(); // executions ended after the last batch, but before the flag was cleared
+        }
+    }
+
+    private static ThreadPoolExecutor createCompactionExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "sagalog-memory-compaction-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public CompletableFuture<Void> compact() {
+        int remaining = endedExecutionCount.get();
+        while (remaining > 0) {
+            int visited = compactBatch(Math.min(remaining, COMPACTION_BATCH_SIZE));
+            if (visited == 0) {
+                break; // compacted concurrently in the background
+            }
+            remaining -= visited;
+        }
+        budget.released();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Remove the entries of up to maxExecutions ended executions from the log and the index, and drop the chunks
+     * that become empty. Executions that no longer hold their start, because it was truncated, are left for truncate.
+     *
+     * @return the number of ended executions that were visited.
+     */
+    private synchronized int compactBatch(int maxExecutions) {
+        int visited = 0;
+        long[] touchedChunks = new long[16];
+        int touchedChunkCount = 0;
+        MemorySagaLogExecution execution;
+        while (visited < maxExecutions && (execution = endedExecutions.poll()) != null) {
+            endedExecutionCount.decrementAndGet();
+            visited++;
+            List<SagaLogEntry> entries = execution.retireIfComplete();
+            if (entries == null) {
+                continue;
+            }
+            executionById.remove(execution.executionId, execution);
+            retainedEntries.addAndGet(-entries.size());
+            for (SagaLogEntry entry : entries) {
+                long id = MemorySagaLogExecution.idOf(entry);
+                incompleteEntries.remove(id);
+                long chunkBaseId = id & ~MemorySagaLogEntries.CHUNK_MASK;
+                if (touchedChunkCount == 0 || touchedChunks[touchedChunkCount - 1] != chunkBaseId) {
+                    if (touchedChunkCount == touchedChunks.length) {
+                        touchedChunks = Arrays.copyOf(touchedChunks, touchedChunkCount * 2);
+                    }
+                    touchedChunks[touchedChunkCount++] = chunkBaseId;
+                }
+            }
+        }
+        Arrays.sort(touchedChunks, 0, touchedChunkCount);
+        for (int i = 0; i < touchedChunkCount; i++) {
+            if (i == 0 || touchedChunks[i] != touchedChunks[i - 1]) {
+                incompleteEntries.dropIfEmpty(touchedChunks[i]);
+            }
+        }
+        return visited;
+    }
+
     @Override
     public CompletableFuture<Void> truncate(SagaLogEntryId entryId) {
-        Set<SagaLogEntry> toBeRemoved = new LinkedHashSet<>();
-        Set toBeRemovedIds = new LinkedHashSet<>();
-        for (SagaLogEntry sle : incompleteEntries) {
-            toBeRemoved.add(sle);
-            toBeRemovedIds.add(sle.getId());
-            if (entryId.equals(sle.getId())) {
+        long start = System.nanoTime();
+        truncateTo(((MemorySagaLogEntryId) entryId).id);
+        metrics.recordTruncate(start);
+        budget.released();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private synchronized void truncateTo(long id) {
+        if (id > incompleteEntries.truncatedId() && id <= incompleteEntries.lastId()) {
+            Set<String> executionIds = executionIdsUpTo(id);
+            incompleteEntries.truncate(id);
+            truncateIndex(executionIds, id);
+        }
+    }
+
+    /**
+     * @return the executionIds of the entries that are not yet truncated and have an id less than or equal to the given
+     * id. Every execution that holds an entry that is truncated by truncating to the id has an entry among these, as the
+     * entries before them are already truncated from the executions.
+     */
+    private Set<String> executionIdsUpTo(long id) {
+        Set<String> executionIds = new HashSet<>();
+        Iterator<SagaLogEntry> it = incompleteEntries.iterator();
+        while (it.hasNext()) {
+            SagaLogEntry entry = it.next();
+            if (MemorySagaLogExecution.idOf(entry) > id) {
                 break;
             }
+            executionIds.add(entry.getExecutionId());
         }
-        if (toBeRemovedIds.contains(entryId)) {
-            incompleteEntries.removeAll(toBeRemoved);
+        return executionIds;
+    }
+
+    /**
+     * Executions that are entirely truncated are removed from the index, while the rest keep their remaining entries.
+     */
+    private void truncateIndex(Set<String> executionIds, long truncatedId) {
+        for (String executionId : executionIds) {
+            MemorySagaLogExecution execution = executionById.get(executionId);
+            if (execution == null) {
+                continue;
+            }
+            retainedEntries.addAndGet(-execution.truncate(truncatedId));
+            if (execution.isRetired()) {
+                executionById.remove(execution.executionId, execution);
+            }
         }
-        return CompletableFuture.completedFuture(null);
+    }
+
+    int indexedExecutionCount() {
+        return executionById.size();
+    }
+
+    long retainedEntries() {
+        return retainedEntries.get();
+    }
+
+    long offHeapBytes() {
+        return incompleteEntries.offHeapBytes();
+    }
+
+    /**
+     * @return the estimated memory held by the log, the off-heap jsonData plus a fixed overhead per entry.
+     */
+    long retainedBytes() {
+        return incompleteEntries.offHeapBytes() + retainedEntries.get() * ENTRY_OVERHEAD_BYTES;
+    }
+
+    /**
+     * @return the id that the next entry written without an id gets, which changes on every write.
+     */
+    long nextId() {
+        return nextId.get();
+    }
+
+    int chunkCount() {
+        return incompleteEntries.chunkCount();
     }
 
     @Override
     public CompletableFuture<Void> truncate() {
-        SagaLogEntry lastEntry = incompleteEntries.peekLast();
-        if (lastEntry == null) {
-            return CompletableFuture.completedFuture(null);
+        long start = System.nanoTime();
+        truncateAll();
+        metrics.recordTruncate(start);
+        budget.released();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private synchronized void truncateAll() {
+        long lastId = incompleteEntries.lastId();
+        if (lastId > incompleteEntries.truncatedId()) {
+            Set<String> executionIds = executionIdsUpTo(lastId);
+            incompleteEntries.truncate(lastId);
+            truncateIndex(executionIds, lastId);
         }
-        return truncate(lastEntry.getId());
     }
 
     @Override
     public Stream<SagaLogEntry> readIncompleteSagas() {
-        return incompleteEntries.stream();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(incompleteEntries.iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
     }
 
     @Override
@@ -86,23 +487,44 @@ class MemorySagaLog implements SagaLog {
 
     @Override
     public SagaLogEntryId fromString(String idString) {
-        return new MemorySagaLogEntryId(Long.parseLong(idString));
+        return idOf(Long.parseLong(idString));
     }
 
     @Override
     public byte[] toBytes(SagaLogEntryId id) {
-        byte[] bytes = new byte[8];
-        ByteBuffer.wrap(bytes).putLong(((MemorySagaLogEntryId) id).id);
-        return bytes;
+        return SagaLogEntryCodec.longToBytes(((MemorySagaLogEntryId) id).id);
     }
 
     @Override
     public SagaLogEntryId fromBytes(byte[] idBytes) {
-        return new MemorySagaLogEntryId(ByteBuffer.wrap(idBytes).getLong());
+        return idOf(SagaLogEntryCodec.longFromBytes(idBytes));
+    }
+
+    /**
+     * @return the id held by the entry with the given id if the entry is still retained, so that parsing the id of a
+     * retained entry does not allocate.
+     */
+    private SagaLogEntryId idOf(long id) {
+        SagaLogEntry entry = incompleteEntries.get(id);
+        return entry != null ? entry.getId() : new MemorySagaLogEntryId(id);
+    }
+
+    @Override
+    public int compare(SagaLogEntryId id1, SagaLogEntryId id2) {
+        return Long.compare(((MemorySagaLogEntryId) id1).id, ((MemorySagaLogEntryId) id2).id);
     }
 
     @Override
     public void close() {
-        incompleteEntries.clear();
+        metrics.unregisterLog(sagaLogId);
+        synchronized (this) {
+            incompleteEntries.truncate(incompleteEntries.lastId());
+            incompleteEntries.clear();
+            executionById.clear();
+            endedExecutions.clear();
+            endedExecutionCount.set(0);
+            retainedEntries.set(0);
+        }
+        budget.unregister(this);
     }
 }
@@ -0,0 +1,70 @@
+package no.ssb.sagalog.memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bump-pointer allocator of off-heap memory for the jsonData of the entries in one chunk of a memory saga-log. The
+ * arena has no free operation, all its memory is released together when the chunk is dropped by truncate. Concurrent
+ * allocations claim space in the current block with a single atomic add, only switching to a new block is locked.
+ */
+class MemorySagaLogArena {
+
+    static final int MIN_BLOCK_SIZE = 8 * 1024;
+    static final int MAX_BLOCK_SIZE = 1024 * 1024;
+
+    private final AtomicLong totalAllocatedBytes;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private volatile Block block;
+    private int nextBlockSize = MIN_BLOCK_SIZE;
+
+    /**
+     * @param totalAllocatedBytes counter shared by all arenas of a saga-log, incremented by each allocation.
+     */
+    MemorySagaLogArena(AtomicLong totalAllocatedBytes) {
+        this.totalAllocatedBytes = totalAllocatedBytes;
+    }
+
+    /**
+     * @return a direct buffer with position zero and limit size.
+     */
+    ByteBuffer allocate(int size) {
+        if (size > MAX_BLOCK_SIZE / 2) {
+            allocatedBytes.addAndGet(size);
+            totalAllocatedBytes.addAndGet(size);
+            return ByteBuffer.allocateDirect(size); // large payloads get a dedicated buffer
+        }
+        while (true) {
+            Block current = block;
+            if (current != null) {
+                int offset = current.nextOffset.getAndAdd(size);
+                if (offset + size <= current.buffer.capacity()) {
+                    return current.buffer.duplicate().position(offset).limit(offset + size).slice();
+                }
+            }
+            synchronized (this) {
+                if (block == current) {
+                    int blockSize = Math.max(nextBlockSize, size);
+                    nextBlockSize = Math.min(nextBlockSize * 2, MAX_BLOCK_SIZE);
+                    allocatedBytes.addAndGet(blockSize);
+                    totalAllocatedBytes.addAndGet(blockSize);
+                    block = new Block(ByteBuffer.allocateDirect(blockSize));
+                }
+            }
+        }
+    }
+
+    long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    private static class Block {
+        final ByteBuffer buffer;
+        final AtomicInteger nextOffset = new AtomicInteger();
+
+        Block(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package no.ssb.sagalog.memory;
+
+import no.ssb.sagalog.SagaLogBudgetExceededException;
+import no.ssb.sagalog.SagaLogMetrics;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Memory budgets of the logs of a pool, per log and for all logs of the pool together. A write to a log that is over
+ * budget is either rejected, or delayed until truncation or compaction brings the log back within budget, and then
+ * rejected if that takes longer than the maximum delay. Delayed writes are admitted in order per log, one at a time,
+ * and are written by the thread that freed the memory. The budgets are soft, since writes that are admitted at the same
+ * time may all be written even if together they exceed the budget.
+ */
+class MemorySagaLogBudget {
+
+    private static final MemorySagaLogBudget UNBOUNDED = new MemorySagaLogBudget(0, 0, 0, SagaLogMetrics.disabled());
+
+    static MemorySagaLogBudget unbounded() {
+        return UNBOUNDED;
+    }
+
+    private final long maxLogBytes;
+    private final long maxPoolBytes;
+    private final long maxDelayNanos;
+    private final SagaLogMetrics metrics;
+    private final boolean bounded;
+    private final Set<MemorySagaLog> logs = ConcurrentHashMap.newKeySet();
+    private final Queue<DelayedWrite> delayedWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxLogBytes   the budget of each log, or 0 for no budget
+     * @param maxPoolBytes  the budget of all logs together, or 0 for no budget
+     * @param maxDelayNanos the maximum time a write is delayed, or 0 to reject writes immediately when over budget
+     */
+    MemorySagaLogBudget(long maxLogBytes, long maxPoolBytes, long maxDelayNanos, SagaLogMetrics metrics) {
+        this.maxLogBytes = maxLogBytes;
+        this.maxPoolBytes = maxPoolBytes;
+        this.maxDelayNanos = maxDelayNanos;
+        this.metrics = metrics;
+        this.bounded = maxLogBytes > 0 || maxPoolBytes > 0;
+    }
+
+    void register(MemorySagaLog log) {
+        if (bounded) {
+            logs.add(log);
+        }
+    }
+
+    void unregister(MemorySagaLog log) {
+        if (bounded) {
+            logs.remove(log);
+            released();
+        }
+    }
+
+    /**
+     * @return true if a write to the log can proceed immediately.
+     */
+    boolean tryAdmit(MemorySagaLog log) {
+        return !bounded || (log.delayedWrites.get() == 0 && hasCapacity(log));
+    }
+
+    /**
+     * @return a future that completes when a write to the log that was not admitted immediately can proceed, or
+     * exceptionally with SagaLogBudgetExceededException when the maximum delay is reached first.
+     */
+    CompletableFuture<Void> admission(MemorySagaLog log) {
+        if (maxDelayNanos == 0) {
+            metrics.recordWriteRejected();
+            return CompletableFuture.failedFuture(exceeded(log));
+        }
+        DelayedWrite delayedWrite = new DelayedWrite(log);
+        log.delayedWrites.incrementAndGet();
+        delayedWrites.add(delayedWrite);
+        CompletableFuture.delayedExecutor(maxDelayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            if (delayedWrite.claim()) {
+                metrics.recordWriteRejected();
+                delayedWrite.future.completeExceptionally(exceeded(log));
+            }
+        });
+        released(); // memory may have been freed since the write was refused
+        return delayedWrite.future;
+    }
+
+    /**
+     * Admit delayed writes while their logs are within budget. Called whenever a log of the pool frees memory.
+     */
+    void released() {
+        if (!bounded) {
+            return;
+        }
+        DelayedWrite delayedWrite;
+        while ((delayedWrite = nextAdmissible()) != null) {
+            delayedWrite.future.complete(null);
+        }
+    }
+
+    private synchronized DelayedWrite nextAdmissible() {
+        Set<MemorySagaLog> blocked = null;
+        for (Iterator<DelayedWrite> it = delayedWrites.iterator(); it.hasNext(); ) {
+            DelayedWrite delayedWrite = it.next();
+            if (delayedWrite.future.isDone()) {
+                it.remove(); // rejected on timeout
+                continue;
+            }
+            if (blocked != null && blocked.contains(delayedWrite.log)) {
+                continue; // keep the order of writes to the same log
+            }
+            if (maxPoolBytes > 0 && poolBytes() >= maxPoolBytes) {
+                return null;
+            }
+            if (maxLogBytes > 0 && delayedWrite.log.retainedBytes() >= maxLogBytes) {
+                if (blocked == null) {
+                    blocked = new HashSet<>();
+                }
+                blocked.add(delayedWrite.log);
+                continue;
+            }
+            it.remove();
+            if (delayedWrite.claim()) {
+                return delayedWrite;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasCapacity(MemorySagaLog log) {
+        return (maxLogBytes == 0 || log.retainedBytes() < maxLogBytes)
+                && (maxPoolBytes == 0 || poolBytes() < maxPoolBytes);
+    }
+
+    long poolBytes() {
+        long bytes = 0;
+        for (MemorySagaLog log : logs) {
+            bytes += log.retainedBytes();
+        }
+        return bytes;
+    }
+
+    private SagaLogBudgetExceededException exceeded(MemorySagaLog log) {
+        return new SagaLogBudgetExceededException(String.format("Memory budget exceeded writing to saga-log %s. Log: %d of %d bytes, pool: %d of %d bytes",
+                log.id(), log.retainedBytes(), maxLogBytes, poolBytes(), maxPoolBytes));
+    }
+
+    private static class DelayedWrite {
+        final MemorySagaLog log;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        DelayedWrite(MemorySagaLog log) {
+            this.log = log;
+        }
+
+        /**
+         * Claim the right to complete the future, and stop holding back later writes to the same log.
+         */
+        boolean claim() {
+            if (!claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            log.delayedWrites.decrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package no.ssb.sagalog.memory;
+
+import no.ssb.sagalog.SagaLogEntry;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Entries of a memory saga-log kept in a linked list of fixed-size chunks, where the slot of an entry is given by its
+ * monotonic id. Truncation only moves the truncated id forward and drops the chunks that are entirely below it, so
+ * truncated chunks are reclaimed without visiting the individual entries. Each chunk owns an off-heap arena that holds
+ * the jsonData of its entries, and the arena is released together with the chunk.
+ * <p>
+ * Appending is lock-free: an entry is published by setting its slot, and new chunks are linked in with a CAS. Only
+ * allocating jsonData space locks, when an arena switches to a new block. Since the slot is given by the id, the log
+ * order is the id order regardless of the order in which writers publish. Readers skip slots that are not yet
+ * published. Truncation must be serialized by the caller, but may run concurrently with writes.
+ */
+class MemorySagaLogEntries {
+
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final VarHandle TAIL;
+    private static final VarHandle NEXT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TAIL = lookup.findVarHandle(MemorySagaLogEntries.class, "tail", Chunk.class);
+            NEXT = lookup.findVarHandle(Chunk.class, "next", Chunk.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Chunk head;
+    private volatile Chunk tail;
+    private volatile long truncatedId = -1;
+    private final AtomicLong lastId = new AtomicLong(-1);
+    private final AtomicLong offHeapBytes = new AtomicLong();
+
+    MemorySagaLogEntries() {
+        clear();
+    }
+
+    /**
+     * Publish the entry in the slot given by id. Entries with an id that is already truncated are dropped.
+     */
+    void put(long id, SagaLogEntry entry) {
+        Chunk chunk = chunkFor(id);
+        if (chunk == null) {
+            return;
+        }
+        if (chunk.slots.getAndSet((int) (id & CHUNK_MASK), entry) == null) {
+            chunk.published.incrementAndGet();
+        }
+        long last = lastId.get();
+        while (id > last && !lastId.compareAndSet(last, id)) {
+            last = lastId.get();
+        }
+    }
+
+    /**
+     * Allocate off-heap memory from the arena of the chunk that holds the slot given by id.
+     */
+    ByteBuffer allocate(long id, int size) {
+        Chunk chunk = chunkFor(id);
+        if (chunk == null) {
+            return ByteBuffer.allocate(size); // already truncated, will be dropped by put
+        }
+        return chunk.arena.allocate(size);
+    }
+
+    private Chunk chunkFor(long id) {
+        if (id <= truncatedId) {
+            return null;
+        }
+        Chunk chunk = tail;
+        if (id < chunk.baseId) {
+            chunk = head;
+            if (id < chunk.baseId) {
+                return null;
+            }
+        }
+        while (id >= chunk.baseId + CHUNK_SIZE) {
+            Chunk next = chunk.next;
+            if (next == null || id < next.baseId) {
+                Chunk newChunk = new Chunk(id & ~CHUNK_MASK, offHeapBytes);
+                newChunk.next = next;
+                if (!NEXT.compareAndSet(chunk, next, newChunk)) {
+                    continue; // another writer linked in a chunk, retry from same chunk
+                }
+                if (next == null) {
+                    advanceTail(newChunk);
+                }
+                next = newChunk;
+            }
+            chunk = next;
+        }
+        return chunk;
+    }
+
+    private void advanceTail(Chunk chunk) {
+        Chunk t = tail;
+        while (chunk.baseId > t.baseId && !TAIL.compareAndSet(this, t, chunk)) {
+            t = tail;
+        }
+    }
+
+    SagaLogEntry get(long id) {
+        Chunk chunk = existingChunk(id);
+        return chunk == null ? null : chunk.slots.get((int) (id & CHUNK_MASK));
+    }
+
+    private Chunk existingChunk(long id) {
+        if (id <= truncatedId) {
+            return null;
+        }
+        Chunk t = tail;
+        if (id >= t.baseId && id < t.baseId + CHUNK_SIZE) {
+            return t; // most lookups are of recent entries
+        }
+        for (Chunk chunk = head; chunk != null && chunk.baseId <= id; chunk = chunk.next) {
+            if (id < chunk.baseId + CHUNK_SIZE) {
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Clear the slot given by id, leaving a gap that readers skip. The memory of the entry is only reclaimed when its
+     * chunk is dropped, see dropIfEmpty. Must not be called concurrently with truncate or itself.
+     */
+    void remove(long id) {
+        Chunk chunk = existingChunk(id);
+        if (chunk != null) {
+            chunk.slots.set((int) (id & CHUNK_MASK), null);
+        }
+    }
+
+    /**
+     * Drop the chunk that holds the slot given by id from the middle of the list if all of its slots have been published
+     * and then removed. A chunk with a slot that is claimed but not yet published is kept, as the writer of the slot may
+     * already hold the chunk. The head chunk is left for truncate to drop, as writers do not link in chunks in front of
+     * the head. Must not be called concurrently with truncate or remove.
+     *
+     * @return true if the chunk was dropped.
+     */
+    boolean dropIfEmpty(long id) {
+        Chunk previous = head;
+        Chunk chunk = previous.next;
+        while (chunk != null && chunk.baseId + CHUNK_SIZE <= id) {
+            previous = chunk;
+            chunk = chunk.next;
+        }
+        if (chunk == null || chunk.baseId > id) {
+            return false;
+        }
+        Chunk next = chunk.next;
+        if (next == null || next.baseId != chunk.baseId + CHUNK_SIZE || chunk.published.get() < CHUNK_SIZE) {
+            return false; // keep the tail, chunks not yet published, and chunks that writers may link a chunk in after
+        }
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            if (chunk.slots.get(i) != null) {
+                return false;
+            }
+        }
+        if (!NEXT.compareAndSet(previous, chunk, next)) {
+            return false; // a writer linked in a chunk in front of this one
+        }
+        offHeapBytes.addAndGet(-chunk.arena.allocatedBytes());
+        return true;
+    }
+
+    long lastId() {
+        return lastId.get();
+    }
+
+    long truncatedId() {
+        return truncatedId;
+    }
+
+    long offHeapBytes() {
+        return offHeapBytes.get();
+    }
+
+    /**
+     * Remove all entries with an id less than or equal to the given id. Must not be called concurrently with itself.
+     */
+    void truncate(long id) {
+        if (id <= truncatedId) {
+            return;
+        }
+        truncatedId = id;
+        Chunk chunk = head;
+        while (chunk.next != null && chunk.next.baseId <= id + 1) {
+            offHeapBytes.addAndGet(-chunk.arena.allocatedBytes());
+            chunk = chunk.next;
+        }
+        head = chunk;
+    }
+
+    int chunkCount() {
+        int n = 0;
+        for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+            n++;
+        }
+        return n;
+    }
+
+    void clear() {
+        offHeapBytes.set(0);
+        Chunk chunk = new Chunk((truncatedId + 1) & ~CHUNK_MASK, offHeapBytes);
+        head = chunk;
+        tail = chunk;
+    }
+
+    Iterator<SagaLogEntry> iterator() {
+        return new EntryIterator(head, truncatedId);
+    }
+
+    private static class Chunk {
+        final long baseId;
+        final AtomicReferenceArray<SagaLogEntry> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final AtomicInteger published = new AtomicInteger();
+        final MemorySagaLogArena arena;
+        volatile Chunk next;
+
+        Chunk(long baseId, AtomicLong offHeapBytes) {
+            this.baseId = baseId;
+            this.arena = new MemorySagaLogArena(offHeapBytes);
+        }
+    }
+
+    private static class EntryIterator implements Iterator<SagaLogEntry> {
+        Chunk chunk;
+        int slot;
+        SagaLogEntry next;
+
+        EntryIterator(Chunk head, long truncatedId) {
+            this.chunk = head;
+            this.slot = (int) Math.max(0, truncatedId + 1 - head.baseId);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && chunk != null) {
+                if (slot >= CHUNK_SIZE) {
+                    chunk = chunk.next;
+                    slot = 0;
+                    continue;
+                }
+                next = chunk.slots.get(slot++);
+            }
+            return next != null;
+        }
+
+        @Override
+        public SagaLogEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SagaLogEntry entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
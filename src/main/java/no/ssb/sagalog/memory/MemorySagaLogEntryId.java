@@ -2,8 +2,6 @@ package no.ssb.sagalog.memory;
 
 import no.ssb.sagalog.SagaLogEntryId;
 
-import java.util.Objects;
-
 class MemorySagaLogEntryId implements SagaLogEntryId {
     final long id;
 
@@ -21,7 +19,7 @@ class MemorySagaLogEntryId implements SagaLogEntryId {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        return Long.hashCode(id);
     }
 
     @Override
@@ -0,0 +1,139 @@
+package no.ssb.sagalog.memory;
+
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of all entries in a memory saga-log that belong to a single saga execution, kept in log order and grouped by
+ * nodeId. Once all entries are truncated, or the execution is compacted, the execution is retired, and writers must
+ * then add their entry to a new execution instead.
+ */
+class MemorySagaLogExecution {
+
+    final String executionId;
+    private final List<SagaLogEntry> entries = new ArrayList<>(8);
+    private final Map<String, List<SagaLogEntry>> entriesByNodeId = new LinkedHashMap<>();
+    private long lastId = -1;
+    private boolean retired;
+
+    MemorySagaLogExecution(String executionId) {
+        this.executionId = executionId;
+    }
+
+    /**
+     * Add the entry in id order. Concurrent writers may add entries out of id order, but almost always in order, so
+     * the insertion point is searched from the end.
+     *
+     * @return false if this execution is retired and the entry was not added.
+     */
+    synchronized boolean add(SagaLogEntry entry) {
+        if (retired) {
+            return false;
+        }
+        long id = idOf(entry);
+        if (id > lastId) {
+            lastId = id;
+        }
+        insertInIdOrder(entries, entry, id);
+        insertInIdOrder(entriesByNodeId.computeIfAbsent(entry.getNodeId(), nodeId -> new ArrayList<>(4)), entry, id);
+        return true;
+    }
+
+    private static void insertInIdOrder(List<SagaLogEntry> list, SagaLogEntry entry, long id) {
+        int i = list.size();
+        while (i > 0 && idOf(list.get(i - 1)) > id) {
+            i--;
+        }
+        list.add(i, entry);
+    }
+
+    /**
+     * Remove all entries with an id less than or equal to truncatedId. The execution is retired if all its entries
+     * were removed.
+     *
+     * @return the number of entries that were removed.
+     */
+    synchronized int truncate(long truncatedId) {
+        if (lastId <= truncatedId) {
+            int removed = entries.size();
+            entries.clear();
+            entriesByNodeId.clear();
+            retired = true;
+            return removed;
+        }
+        int n = 0;
+        while (n < entries.size() && idOf(entries.get(n)) <= truncatedId) {
+            n++;
+        }
+        if (n > 0) {
+            entries.subList(0, n).clear();
+            entriesByNodeId.clear();
+            for (SagaLogEntry entry : entries) {
+                entriesByNodeId.computeIfAbsent(entry.getNodeId(), nodeId -> new ArrayList<>(4)).add(entry);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Retire this execution if it holds both the start and the end of its saga.
+     *
+     * @return the entries of the retired execution, or null if the execution is not complete.
+     */
+    synchronized List<SagaLogEntry> retireIfComplete() {
+        if (retired || !hasStartOfSaga() || !hasEndOfSaga()) {
+            return null;
+        }
+        List<SagaLogEntry> retiredEntries = new ArrayList<>(entries);
+        entries.clear();
+        entriesByNodeId.clear();
+        retired = true;
+        return retiredEntries;
+    }
+
+    private boolean hasStartOfSaga() {
+        List<SagaLogEntry> startEntries = entriesByNodeId.get("S");
+        if (startEntries != null) {
+            for (SagaLogEntry entry : startEntries) {
+                if (entry.getEntryType() == SagaLogEntryType.Start) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean hasEndOfSaga() {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).isEndOfSaga()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized boolean isRetired() {
+        return retired;
+    }
+
+    synchronized List<SagaLogEntry> entries() {
+        return new ArrayList<>(entries);
+    }
+
+    synchronized Map<String, List<SagaLogEntry>> entriesByNodeId() {
+        Map<String, List<SagaLogEntry>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, List<SagaLogEntry>> e : entriesByNodeId.entrySet()) {
+            copy.put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+        return copy;
+    }
+
+    static long idOf(SagaLogEntry entry) {
+        return ((MemorySagaLogEntryId) entry.getId()).id;
+    }
+}
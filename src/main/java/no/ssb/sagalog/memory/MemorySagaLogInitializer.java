@@ -2,6 +2,7 @@ package no.ssb.sagalog.memory;
 
 import no.ssb.sagalog.SagaLogInitializer;
 
+import java.time.Duration;
 import java.util.Map;
 
 public class MemorySagaLogInitializer implements SagaLogInitializer {
@@ -10,10 +11,32 @@ public class MemorySagaLogInitializer implements SagaLogInitializer {
     }
 
     public MemorySagaLogPool initialize(Map<String, String> configuration) {
-        return new MemorySagaLogPool(configuration.getOrDefault("cluster.instance-id", "TheOnlyInstance"));
+        MemorySagaLogPool pool = new MemorySagaLogPool(
+                configuration.getOrDefault("cluster.instance-id", "TheOnlyInstance"),
+                Long.parseLong(configuration.getOrDefault("memory.budget.log-bytes", "0")),
+                Long.parseLong(configuration.getOrDefault("memory.budget.pool-bytes", "0")),
+                Duration.ofMillis(Long.parseLong(configuration.getOrDefault("memory.budget.max-write-delay-ms", "0")))
+        );
+        long evictionIntervalMillis = Long.parseLong(configuration.getOrDefault("memory.eviction.interval-ms", "0"));
+        if (evictionIntervalMillis > 0) {
+            pool.enableEviction(Duration.ofMillis(evictionIntervalMillis),
+                    Duration.ofMillis(Long.parseLong(configuration.getOrDefault("memory.eviction.idle-ms", "60000"))));
+        }
+        pool.configureAutoScaling(configuration);
+        return pool;
     }
 
     public Map<String, String> configurationOptionsAndDefaults() {
-        return Map.of("cluster.instance-id", "TheOnlyInstance");
+        return Map.of(
+                "cluster.instance-id", "TheOnlyInstance",
+                "memory.budget.log-bytes", "0",
+                "memory.budget.pool-bytes", "0",
+                "memory.budget.max-write-delay-ms", "0",
+                "memory.eviction.interval-ms", "0",
+                "memory.eviction.idle-ms", "60000",
+                "pool.auto-scaling.max-logs", "0",
+                "pool.auto-scaling.wait-threshold-ms", "50",
+                "pool.auto-scaling.log-name-prefix", "auto-scaled-"
+        );
     }
 }
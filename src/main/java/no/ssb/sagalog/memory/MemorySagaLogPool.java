@@ -4,14 +4,45 @@ package no.ssb.sagalog.memory;
 import no.ssb.sagalog.AbstractSagaLogPool;
 import no.ssb.sagalog.SagaLog;
 import no.ssb.sagalog.SagaLogBusyException;
+import no.ssb.sagalog.SagaLogEntry;
 import no.ssb.sagalog.SagaLogId;
 
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class MemorySagaLogPool extends AbstractSagaLogPool {
 
+    /**
+     * Runs the eviction of all pools on one daemon thread, so that pools do not need a thread each and eviction never
+     * keeps the JVM alive.
+     */
+    private static final ScheduledThreadPoolExecutor EVICTION_SCHEDULER = createEvictionScheduler();
+
+    private final MemorySagaLogBudget budget;
+    private final Map<SagaLogId, IdleSince> idleSinceByLogId = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> eviction;
+    private boolean shutdown;
+
     public MemorySagaLogPool(String clusterInstanceId) {
+        this(clusterInstanceId, 0, 0, Duration.ZERO);
+    }
+
+    /**
+     * @param maxLogBytes   the memory budget of each log, or 0 for no budget
+     * @param maxPoolBytes  the memory budget of all logs of the pool together, or 0 for no budget
+     * @param maxWriteDelay how long a write to a log that is over budget waits for truncation or compaction before
+     *                      it fails with SagaLogBudgetExceededException, or zero to fail immediately
+     */
+    public MemorySagaLogPool(String clusterInstanceId, long maxLogBytes, long maxPoolBytes, Duration maxWriteDelay) {
         super(clusterInstanceId);
+        this.budget = new MemorySagaLogBudget(maxLogBytes, maxPoolBytes, maxWriteDelay.toNanos(), metrics());
     }
 
     @Override
@@ -31,6 +62,125 @@ public class MemorySagaLogPool extends AbstractSagaLogPool {
 
     @Override
     protected SagaLog connectExternal(SagaLogId logId) throws SagaLogBusyException {
-        return new MemorySagaLog(logId);
+        return new MemorySagaLog(logId, MemorySagaLog.COMPACTION_EXECUTOR, metrics(), budget);
+    }
+
+    long retainedBytes() {
+        return budget.poolBytes();
+    }
+
+    private static ScheduledThreadPoolExecutor createEvictionScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "sagalog-memory-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Evict logs in the background that have been released, fully truncated and not written to for at least the
+     * given idle time. Evicted logs stay registered, and are connected again, empty, the next time they are acquired.
+     * Eviction is stopped by shutdown, and the scheduled task only holds the pool weakly, so a pool that is dropped
+     * without shutdown is still collected, after which its task cancels itself. Enabling eviction again replaces the
+     * previous interval and idle time.
+     *
+     * @param interval how often to look for idle logs
+     * @param idleTime how long a log must have been idle before it is evicted
+     */
+    public synchronized void enableEviction(Duration interval, Duration idleTime) {
+        if (shutdown) {
+            throw new IllegalStateException("Pool is shut down");
+        }
+        if (eviction != null) {
+            eviction.cancel(false);
+        }
+        EvictionTask task = new EvictionTask(this, idleTime.toNanos());
+        eviction = EVICTION_SCHEDULER.scheduleWithFixedDelay(task, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+        task.future = eviction;
+    }
+
+    synchronized boolean isEvictionEnabled() {
+        return eviction != null && !eviction.isDone();
+    }
+
+    private static class EvictionTask implements Runnable {
+        final WeakReference<MemorySagaLogPool> poolRef;
+        final long idleNanos;
+        volatile ScheduledFuture<?> future;
+
+        EvictionTask(MemorySagaLogPool pool, long idleNanos) {
+            this.poolRef = new WeakReference<>(pool);
+            this.idleNanos = idleNanos;
+        }
+
+        @Override
+        public void run() {
+            MemorySagaLogPool pool = poolRef.get();
+            if (pool == null) {
+                ScheduledFuture<?> f = future;
+                if (f != null) {
+                    f.cancel(false);
+                }
+                return;
+            }
+            pool.evictIdleLogs(idleNanos);
+        }
+    }
+
+    /**
+     * A log is idle since the first time it was seen fully truncated, as long as no entry has been written to it since.
+     *
+     * @return the number of logs that were evicted.
+     */
+    int evictIdleLogs(long idleNanos) {
+        long now = System.nanoTime();
+        idleSinceByLogId.keySet().retainAll(connectedLogIds());
+        int evicted = 0;
+        for (SagaLogId logId : connectedLogIds()) {
+            if (evictIfAvailable(logId, sagaLog -> isIdle(logId, (MemorySagaLog) sagaLog, now, idleNanos))) {
+                idleSinceByLogId.remove(logId);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private boolean isIdle(SagaLogId logId, MemorySagaLog sagaLog, long now, long idleNanos) {
+        try (Stream<SagaLogEntry> entries = sagaLog.readIncompleteSagas()) {
+            if (entries.findAny().isPresent()) {
+                idleSinceByLogId.remove(logId);
+                return false;
+            }
+        }
+        long nextId = sagaLog.nextId();
+        IdleSince idleSince = idleSinceByLogId.get(logId);
+        if (idleSince == null || idleSince.nextId != nextId) {
+            idleSinceByLogId.put(logId, new IdleSince(now, nextId));
+            return idleNanos == 0;
+        }
+        return now - idleSince.nanos >= idleNanos;
+    }
+
+    private static class IdleSince {
+        final long nanos;
+        final long nextId;
+
+        IdleSince(long nanos, long nextId) {
+            this.nanos = nanos;
+            this.nextId = nextId;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            if (eviction != null) {
+                eviction.cancel(false);
+            }
+        }
+        super.shutdown();
     }
 }
@@ -0,0 +1,30 @@
+package no.ssb.sagalog.replication;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Applies each message directly on followers in the same process, on the thread that sends it. Used for testing and
+ * for keeping a warm copy of the logs of a pool in another pool of the same process.
+ */
+public class InProcessSagaLogReplicationTransport implements SagaLogReplicationTransport {
+
+    private final List<SagaLogReplicationFollower> followers;
+
+    public InProcessSagaLogReplicationTransport(SagaLogReplicationFollower... followers) {
+        this.followers = List.of(followers);
+    }
+
+    @Override
+    public CompletableFuture<Void> send(ByteBuffer message) {
+        try {
+            for (SagaLogReplicationFollower follower : followers) {
+                follower.apply(message.duplicate());
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
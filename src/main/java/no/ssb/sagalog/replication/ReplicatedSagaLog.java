@@ -0,0 +1,132 @@
+package no.ssb.sagalog.replication;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import no.ssb.sagalog.SagaLogEntryId;
+import no.ssb.sagalog.SagaLogExecutionEntries;
+import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogPool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+
+/**
+ * Writes and truncates the delegate log, then ships the written entries or the truncation to the followers. The
+ * returned futures complete when both the delegate and all followers have completed, so an entry that has been
+ * acknowledged is present in every follower. Reads are served by the delegate. Closing removes the delegate from its
+ * pool, unless the delegate is the warm copy of a follower, which stays connected.
+ */
+class ReplicatedSagaLog implements SagaLog {
+
+    private final SagaLogPool delegatePool; // null when the delegate is kept connected by a follower
+    private final SagaLog delegate;
+    private final SagaLogReplicationTransport transport;
+
+    ReplicatedSagaLog(SagaLogPool delegatePool, SagaLog delegate, SagaLogReplicationTransport transport) {
+        this.delegatePool = delegatePool;
+        this.delegate = delegate;
+        this.transport = transport;
+    }
+
+    @Override
+    public SagaLogId id() {
+        return delegate.id();
+    }
+
+    @Override
+    public CompletableFuture<SagaLogEntry> write(SagaLogEntryBuilder builder) {
+        return delegate.write(builder).thenCompose(entry ->
+                transport.send(SagaLogReplicationMessage.write(delegate, List.of(entry))).thenApply(v -> entry));
+    }
+
+    @Override
+    public CompletableFuture<List<SagaLogEntry>> writeAll(List<SagaLogEntryBuilder> builders) {
+        return delegate.writeAll(builders).thenCompose(entries ->
+                transport.send(SagaLogReplicationMessage.write(delegate, entries)).thenApply(v -> entries));
+    }
+
+    @Override
+    public CompletableFuture<Void> truncate(SagaLogEntryId id) {
+        return delegate.truncate(id).thenCompose(v -> transport.send(SagaLogReplicationMessage.truncate(delegate, id)));
+    }
+
+    /**
+     * Followers truncate all the entries they hold when the message arrives, which may include entries written after
+     * this call that have not yet been acknowledged.
+     */
+    @Override
+    public CompletableFuture<Void> truncate() {
+        return delegate.truncate().thenCompose(v -> transport.send(SagaLogReplicationMessage.truncateAll(delegate)));
+    }
+
+    @Override
+    public CompletableFuture<Void> compact() {
+        return delegate.compact();
+    }
+
+    @Override
+    public CompletableFuture<Void> checkpoint() {
+        return delegate.checkpoint();
+    }
+
+    @Override
+    public Stream<SagaLogEntry> readIncompleteSagas() {
+        return delegate.readIncompleteSagas();
+    }
+
+    @Override
+    public Stream<SagaLogEntry> readEntries(String executionId) {
+        return delegate.readEntries(executionId);
+    }
+
+    @Override
+    public Map<String, List<SagaLogEntry>> getSnapshotOfSagaLogEntriesByNodeId(String executionId) {
+        return delegate.getSnapshotOfSagaLogEntriesByNodeId(executionId);
+    }
+
+    @Override
+    public Flow.Publisher<SagaLogExecutionEntries> readIncompleteExecutions() {
+        return delegate.readIncompleteExecutions();
+    }
+
+    @Override
+    public SagaLogEntryBuilder builder() {
+        return delegate.builder();
+    }
+
+    @Override
+    public String toString(SagaLogEntryId id) {
+        return delegate.toString(id);
+    }
+
+    @Override
+    public SagaLogEntryId fromString(String id) {
+        return delegate.fromString(id);
+    }
+
+    @Override
+    public byte[] toBytes(SagaLogEntryId id) {
+        return delegate.toBytes(id);
+    }
+
+    @Override
+    public SagaLogEntryId fromBytes(byte[] idBytes) {
+        return delegate.fromBytes(idBytes);
+    }
+
+    @Override
+    public int compare(SagaLogEntryId id1, SagaLogEntryId id2) {
+        return delegate.compare(id1, id2);
+    }
+
+    @Override
+    public void close() {
+        if (delegatePool != null) {
+            delegatePool.remove(delegate.id());
+        }
+    }
+}
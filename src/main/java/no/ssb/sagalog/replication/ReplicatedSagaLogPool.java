@@ -0,0 +1,88 @@
+package no.ssb.sagalog.replication;
+
+import no.ssb.sagalog.AbstractSagaLogPool;
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogBusyException;
+import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogPool;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A pool of saga-logs that are replicated from this pool, the leader, to one or more follower pools. Logs are stored in
+ * the delegate pool, and every write and truncate is shipped to the followers through the transport before it is
+ * acknowledged. Followers apply the messages with a {@link SagaLogReplicationFollower}, which keeps a warm copy of
+ * each log, so that another instance can take over the logs of a failed leader without a cold read of the whole log.
+ * <p>
+ * When the pool is given the follower of this instance, the logs replicated to it from other leaders are among the
+ * cluster-wide logs of the pool, and are connected from the warm copy of the follower, so that recovery and takeover
+ * through this pool see them. Writes to such a log are replicated through the transport under the id of the log.
+ */
+public class ReplicatedSagaLogPool extends AbstractSagaLogPool {
+
+    private final SagaLogPool delegate;
+    private final SagaLogReplicationTransport transport;
+    private final SagaLogReplicationFollower follower;
+
+    public ReplicatedSagaLogPool(SagaLogPool delegate, SagaLogReplicationTransport transport) {
+        this(delegate, transport, null);
+    }
+
+    /**
+     * @param follower the follower that applies the messages of other leaders on this instance, or null.
+     */
+    public ReplicatedSagaLogPool(SagaLogPool delegate, SagaLogReplicationTransport transport, SagaLogReplicationFollower follower) {
+        super(delegate.getLocalClusterInstanceId());
+        this.delegate = delegate;
+        this.transport = transport;
+        this.follower = follower;
+    }
+
+    @Override
+    public SagaLogId idFor(String clusterInstanceId, String logName) {
+        return delegate.idFor(clusterInstanceId, logName);
+    }
+
+    @Override
+    public Set<SagaLogId> clusterWideLogIds() {
+        if (follower == null) {
+            return delegate.clusterWideLogIds();
+        }
+        Set<SagaLogId> logIds = new LinkedHashSet<>(delegate.clusterWideLogIds());
+        logIds.addAll(follower.replicatedLogIds());
+        return logIds;
+    }
+
+    private boolean isReplicatedFromOtherLeader(SagaLogId logId) {
+        return follower != null && follower.replicatedLogIds().contains(logId);
+    }
+
+    @Override
+    protected SagaLog connectExternal(SagaLogId logId) throws SagaLogBusyException {
+        if (isReplicatedFromOtherLeader(logId)) {
+            return new ReplicatedSagaLog(null, follower.pool().connect(logId), transport);
+        }
+        return new ReplicatedSagaLog(delegate, delegate.connect(logId), transport);
+    }
+
+    /**
+     * The warm copy of a log that is replicated from another leader is kept by the follower and never deleted here.
+     */
+    @Override
+    protected boolean deleteExternal(SagaLogId logId) {
+        if (isReplicatedFromOtherLeader(logId)) {
+            return false;
+        }
+        return delegate.delete(logId);
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            super.shutdown();
+        } finally {
+            delegate.shutdown();
+        }
+    }
+}
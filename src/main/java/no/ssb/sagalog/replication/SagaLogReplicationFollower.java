@@ -0,0 +1,135 @@
+package no.ssb.sagalog.replication;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import no.ssb.sagalog.SagaLogEntryCodec;
+import no.ssb.sagalog.SagaLogEntryId;
+import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies replication messages from a leader to the logs of a follower pool. Each replicated log is connected in the
+ * follower pool under the cluster-instance-id and log-name of the leader, and kept connected, so that another instance
+ * can take over a log of a failed leader by taking ownership of it in the follower pool, without reading it from
+ * external storage. The follower pool must use a backend that writes entries with the ids given by the leader, such as
+ * the memory backend.
+ * <p>
+ * Messages of the same log may arrive out of order. Writes of entries that have already been truncated are dropped,
+ * and a truncate of entries that have not all arrived yet is remembered, so that those entries are dropped when they
+ * arrive. Messages of the same log are applied one at a time.
+ */
+public class SagaLogReplicationFollower {
+
+    private final SagaLogPool pool;
+    private final Set<SagaLogId> replicatedLogIds = ConcurrentHashMap.newKeySet();
+    private final Map<SagaLogId, ReplicatedLog> replicatedLogById = new ConcurrentHashMap<>();
+
+    public SagaLogReplicationFollower(SagaLogPool pool) {
+        this.pool = pool;
+    }
+
+    public SagaLogPool pool() {
+        return pool;
+    }
+
+    /**
+     * @return the ids in the follower pool of the logs that have been replicated to it.
+     */
+    public Set<SagaLogId> replicatedLogIds() {
+        return Collections.unmodifiableSet(replicatedLogIds);
+    }
+
+    /**
+     * Apply a message to the follower pool. Returns when the message has been applied.
+     *
+     * @param message a message from position to limit as sent by a leader.
+     * @throws IllegalArgumentException if the message is not a valid replication message.
+     */
+    public void apply(ByteBuffer message) {
+        ByteBuffer buffer = message.duplicate();
+        byte version = buffer.get();
+        if (version != SagaLogReplicationMessage.VERSION_1) {
+            throw new IllegalArgumentException("Unsupported replication message version " + version);
+        }
+        byte type = buffer.get();
+        SagaLogId logId = pool.idFor(SagaLogEntryCodec.getString(buffer), SagaLogEntryCodec.getString(buffer));
+        SagaLog sagaLog = pool.connect(logId);
+        replicatedLogIds.add(logId);
+        ReplicatedLog replicatedLog = replicatedLogById.computeIfAbsent(logId, id -> new ReplicatedLog());
+        synchronized (replicatedLog) {
+            apply(type, buffer, sagaLog, replicatedLog);
+        }
+    }
+
+    private void apply(byte type, ByteBuffer buffer, SagaLog sagaLog, ReplicatedLog replicatedLog) {
+        switch (type) {
+            case SagaLogReplicationMessage.WRITE:
+                int count = SagaLogEntryCodec.getVarint(buffer);
+                List<SagaLogEntryBuilder> builders = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] id = SagaLogReplicationMessage.getBytes(buffer);
+                    int length = SagaLogEntryCodec.getVarint(buffer);
+                    ByteBuffer encoded = buffer.slice().limit(length);
+                    buffer.position(buffer.position() + length);
+                    SagaLogEntry entry = SagaLogEntryCodec.decode(sagaLog.fromBytes(id), encoded);
+                    if (replicatedLog.truncatedId != null && sagaLog.compare(entry.getId(), replicatedLog.truncatedId) <= 0) {
+                        continue; // already truncated by the leader
+                    }
+                    replicatedLog.lastWrittenId = max(sagaLog, replicatedLog.lastWrittenId, entry.getId());
+                    builders.add(sagaLog.builder()
+                            .id(entry.getId())
+                            .executionId(entry.getExecutionId())
+                            .entryType(entry.getEntryType())
+                            .nodeId(entry.getNodeId())
+                            .sagaName(entry.getSagaName())
+                            .jsonData(entry.getJsonData()));
+                }
+                if (!builders.isEmpty()) {
+                    sagaLog.writeAll(builders).join();
+                }
+                break;
+            case SagaLogReplicationMessage.TRUNCATE:
+                SagaLogEntryId truncatedId = sagaLog.fromBytes(SagaLogReplicationMessage.getBytes(buffer));
+                replicatedLog.truncatedId = max(sagaLog, replicatedLog.truncatedId, truncatedId);
+                if (replicatedLog.lastWrittenId != null && sagaLog.compare(replicatedLog.lastWrittenId, truncatedId) >= 0) {
+                    sagaLog.truncate(truncatedId).join();
+                } else {
+                    sagaLog.truncate().join(); // every entry written so far comes before the truncated entry
+                }
+                break;
+            case SagaLogReplicationMessage.TRUNCATE_ALL:
+                replicatedLog.truncatedId = max(sagaLog, replicatedLog.truncatedId, replicatedLog.lastWrittenId);
+                sagaLog.truncate().join();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown replication message type " + type);
+        }
+    }
+
+    private static SagaLogEntryId max(SagaLog sagaLog, SagaLogEntryId id1, SagaLogEntryId id2) {
+        if (id1 == null) {
+            return id2;
+        }
+        if (id2 == null) {
+            return id1;
+        }
+        return sagaLog.compare(id1, id2) >= 0 ? id1 : id2;
+    }
+
+    /**
+     * The truncate point and the last written entry of a replicated log, guarded by its own monitor.
+     */
+    private static class ReplicatedLog {
+        SagaLogEntryId truncatedId;
+        SagaLogEntryId lastWrittenId;
+    }
+}
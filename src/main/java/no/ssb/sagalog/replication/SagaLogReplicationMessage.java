@@ -0,0 +1,83 @@
+package no.ssb.sagalog.replication;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryCodec;
+import no.ssb.sagalog.SagaLogEntryId;
+import no.ssb.sagalog.SagaLogId;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encoding of replication messages. Every message starts with [byte version][byte type][clusterInstanceId][logName],
+ * where the strings are encoded as by {@link SagaLogEntryCodec#putString(ByteBuffer, String)}, followed by:
+ * <ul>
+ * <li>WRITE: [varint count] and count times [varint idLength][id bytes][varint entryLength][encoded entry]</li>
+ * <li>TRUNCATE: [varint idLength][id bytes]</li>
+ * <li>TRUNCATE_ALL: nothing</li>
+ * </ul>
+ * Entry ids are encoded with {@link SagaLog#toBytes(SagaLogEntryId)} of the leader and decoded with
+ * {@link SagaLog#fromBytes(byte[])} of the follower.
+ */
+class SagaLogReplicationMessage {
+
+    static final byte VERSION_1 = 1;
+
+    static final byte WRITE = 1;
+    static final byte TRUNCATE = 2;
+    static final byte TRUNCATE_ALL = 3;
+
+    static ByteBuffer write(SagaLog sagaLog, List<SagaLogEntry> entries) {
+        byte[][] ids = new byte[entries.size()][];
+        int size = headerSize(sagaLog.id()) + SagaLogEntryCodec.varintSize(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            SagaLogEntry entry = entries.get(i);
+            ids[i] = sagaLog.toBytes(entry.getId());
+            int entrySize = SagaLogEntryCodec.encodedSize(entry);
+            size += SagaLogEntryCodec.varintSize(ids[i].length) + ids[i].length + SagaLogEntryCodec.varintSize(entrySize) + entrySize;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putHeader(buffer, WRITE, sagaLog.id());
+        SagaLogEntryCodec.putVarint(buffer, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            SagaLogEntry entry = entries.get(i);
+            SagaLogEntryCodec.putVarint(buffer, ids[i].length);
+            buffer.put(ids[i]);
+            SagaLogEntryCodec.putVarint(buffer, SagaLogEntryCodec.encodedSize(entry));
+            SagaLogEntryCodec.encode(entry, buffer);
+        }
+        return buffer.flip();
+    }
+
+    static ByteBuffer truncate(SagaLog sagaLog, SagaLogEntryId entryId) {
+        byte[] id = sagaLog.toBytes(entryId);
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize(sagaLog.id()) + SagaLogEntryCodec.varintSize(id.length) + id.length);
+        putHeader(buffer, TRUNCATE, sagaLog.id());
+        SagaLogEntryCodec.putVarint(buffer, id.length);
+        buffer.put(id);
+        return buffer.flip();
+    }
+
+    static ByteBuffer truncateAll(SagaLog sagaLog) {
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize(sagaLog.id()));
+        putHeader(buffer, TRUNCATE_ALL, sagaLog.id());
+        return buffer.flip();
+    }
+
+    private static int headerSize(SagaLogId logId) {
+        return 2 + SagaLogEntryCodec.stringSize(logId.getClusterInstanceId()) + SagaLogEntryCodec.stringSize(logId.getLogName());
+    }
+
+    private static void putHeader(ByteBuffer buffer, byte type, SagaLogId logId) {
+        buffer.put(VERSION_1).put(type);
+        SagaLogEntryCodec.putString(buffer, logId.getClusterInstanceId());
+        SagaLogEntryCodec.putString(buffer, logId.getLogName());
+    }
+
+    static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[SagaLogEntryCodec.getVarint(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,20 @@
+package no.ssb.sagalog.replication;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ships replication messages from a leader pool to its followers. Messages are opaque to the transport, and must be
+ * passed to {@link SagaLogReplicationFollower#apply(ByteBuffer)} on every follower. A transport may deliver messages
+ * of the same saga-log out of order, as followers write entries with the ids assigned by the leader, drop entries
+ * that arrive after they have been truncated, and remember a truncate that arrives before the entries it truncates.
+ */
+public interface SagaLogReplicationTransport {
+
+    /**
+     * @param message the message from position to limit, must not be modified by the transport.
+     * @return a future that completes when every follower has applied the message, or completes exceptionally if the
+     * message could not be applied by one or more followers.
+     */
+    CompletableFuture<Void> send(ByteBuffer message);
+}
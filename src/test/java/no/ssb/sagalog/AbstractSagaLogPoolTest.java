@@ -5,14 +5,17 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.time.Duration;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
 
 public class AbstractSagaLogPoolTest {
 
@@ -82,11 +85,11 @@ public class AbstractSagaLogPoolTest {
         pool.tryAcquire(new SagaLogOwner("me"));
     }
 
-    @Test(expectedExceptions = IllegalStateException.class)
-    public void thatAcquireWithTimeoutAnAlreadyOwnedLogWillThrowException() throws InterruptedException {
+    @Test
+    public void thatAcquireWithTimeoutAnAlreadyOwnedLogTimesOut() throws InterruptedException {
         SagaLogId logId = pool.registerInstanceLocalIdFor("already-owned");
         assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("you"), logId));
-        pool.tryAcquire(new SagaLogOwner("me"), 1, TimeUnit.MILLISECONDS);
+        assertNull(pool.tryAcquire(new SagaLogOwner("me"), 1, TimeUnit.MILLISECONDS));
     }
 
     @Test
@@ -194,4 +197,256 @@ public class AbstractSagaLogPoolTest {
         Set<SagaLogId> logIds = pool.instanceLocalLogIds();
         assertEquals(logIds, Set.of(l1, l2, l3));
     }
+
+    @Test
+    public void thatRemoveAndDeleteDropOwnershipState() {
+        SagaLogId external = pool.idFor("otherInstance", "e1");
+        SagaLog sagaLog = pool.tryTakeOwnership(new SagaLogOwner("me"), external);
+        assertNotNull(sagaLog);
+        assertEquals(pool.ownershipSlotCount(), 1);
+        pool.releaseOwnership(external);
+        pool.remove(external);
+        assertEquals(pool.ownershipSlotCount(), 0);
+
+        SagaLogId another = pool.idFor("otherInstance", "e2");
+        pool.tryTakeOwnership(new SagaLogOwner("me"), another);
+        pool.releaseOwnership(another);
+        pool.remove(another);
+        pool.delete(another);
+        assertEquals(pool.ownershipSlotCount(), 0);
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("you"), another));
+    }
+
+    @Test
+    public void thatRemoveKeepsOwnershipOfOwnedLog() {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("l1");
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("me"), logId));
+        pool.remove(logId);
+        assertNull(pool.tryTakeOwnership(new SagaLogOwner("you"), logId));
+        pool.releaseOwnership(logId);
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("you"), logId));
+    }
+
+    @Test
+    public void thatTakingOwnershipWithTimeoutWaitsForRelease() throws Exception {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("l1");
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("you"), logId));
+        CompletableFuture<SagaLog> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.tryTakeOwnership(new SagaLogOwner("me"), logId, 10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        pool.releaseOwnership(logId);
+        assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+        SagaLogOwnership ownership = pool.instanceLocalSagaLogOwnerships().iterator().next();
+        assertEquals(ownership.getOwner(), new SagaLogOwner("me"));
+        assertTrue(Math.abs(ownership.getAcquired().toInstant().toEpochMilli() - System.currentTimeMillis()) < 5000);
+    }
+
+    @Test
+    public void thatBlockedAcquirersAreServedInArrivalOrder() throws Exception {
+        pool.registerInstanceLocalIdFor("l1");
+        SagaLog sagaLog = pool.tryAcquire(new SagaLogOwner("first"));
+        assertNotNull(sagaLog);
+        CompletableFuture<SagaLog> second = acquireOnThread("second");
+        awaitWaitingAcquirers(1);
+        CompletableFuture<SagaLog> third = acquireOnThread("third");
+        awaitWaitingAcquirers(2);
+
+        pool.release(sagaLog.id());
+        assertEquals(second.get(5, TimeUnit.SECONDS).id(), sagaLog.id());
+        assertFalse(third.isDone());
+        assertNull(pool.tryAcquire(new SagaLogOwner("barging")));
+
+        pool.release(sagaLog.id());
+        assertEquals(third.get(5, TimeUnit.SECONDS).id(), sagaLog.id());
+        assertEquals(pool.waitingAcquirerCount(), 0);
+    }
+
+    @Test
+    public void thatTryAcquireWithTimeoutDoesNotWaitLongerThanTimeout() throws InterruptedException {
+        pool.registerInstanceLocalIdFor("l1");
+        assertNotNull(pool.tryAcquire(new SagaLogOwner("first")));
+        long start = System.nanoTime();
+        assertNull(pool.tryAcquire(new SagaLogOwner("second"), 200, TimeUnit.MILLISECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 200 && elapsedMillis < 400, "elapsed " + elapsedMillis + " ms");
+        assertEquals(pool.waitingAcquirerCount(), 0);
+    }
+
+    @Test
+    public void thatTryAcquireWithTimeoutWaitsForAvailableLogHeldByDirectOwnership() throws Exception {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("l1");
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("direct"), logId));
+        assertNull(pool.tryAcquire(new SagaLogOwner("second"), 50, TimeUnit.MILLISECONDS));
+
+        CompletableFuture<SagaLog> third = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                third.complete(pool.tryAcquire(new SagaLogOwner("third"), 10, TimeUnit.SECONDS));
+            } catch (Throwable t) {
+                third.completeExceptionally(t);
+            }
+        });
+        thread.start();
+        Thread.sleep(50);
+        assertFalse(third.isDone());
+        pool.release(logId);
+        assertEquals(third.get(5, TimeUnit.SECONDS).id(), logId);
+    }
+
+    @Test
+    public void thatAcquireAsyncIsCompletedByRelease() throws Exception {
+        pool.registerInstanceLocalIdFor("l1");
+        SagaLog sagaLog = pool.tryAcquire(new SagaLogOwner("first"));
+        CompletableFuture<SagaLog> second = pool.acquireAsync(new SagaLogOwner("second"), Duration.ofSeconds(10));
+        CompletableFuture<SagaLog> third = pool.acquireAsync(new SagaLogOwner("third"), Duration.ofSeconds(10));
+        assertFalse(second.isDone());
+        assertEquals(pool.waitingAcquirerCount(), 2);
+
+        pool.release(sagaLog.id());
+        assertEquals(second.get(5, TimeUnit.SECONDS).id(), sagaLog.id());
+        assertFalse(third.isDone());
+        assertEquals(pool.instanceLocalSagaLogOwnerships().iterator().next().getOwner().getOwnerId(), "second");
+
+        pool.release(sagaLog.id());
+        assertEquals(third.get(5, TimeUnit.SECONDS).id(), sagaLog.id());
+        assertEquals(pool.waitingAcquirerCount(), 0);
+    }
+
+    @Test
+    public void thatAcquireAsyncCompletesWithNullOnTimeout() throws Exception {
+        pool.registerInstanceLocalIdFor("l1");
+        SagaLog sagaLog = pool.tryAcquire(new SagaLogOwner("first"));
+        CompletableFuture<SagaLog> second = pool.acquireAsync(new SagaLogOwner("second"), Duration.ofMillis(50));
+        assertNull(second.get(5, TimeUnit.SECONDS));
+        assertEquals(pool.waitingAcquirerCount(), 0);
+        assertEquals(pool.metrics().acquireTimeouts(), 1);
+
+        pool.release(sagaLog.id());
+        assertNotNull(pool.tryAcquire(new SagaLogOwner("third")));
+    }
+
+    @Test
+    public void thatCancelledAcquireAsyncIsSkipped() throws Exception {
+        pool.registerInstanceLocalIdFor("l1");
+        SagaLog sagaLog = pool.tryAcquire(new SagaLogOwner("first"));
+        CompletableFuture<SagaLog> second = pool.acquireAsync(new SagaLogOwner("second"), Duration.ofSeconds(10));
+        CompletableFuture<SagaLog> third = pool.acquireAsync(new SagaLogOwner("third"), Duration.ofSeconds(10));
+        second.cancel(false);
+        assertEquals(pool.waitingAcquirerCount(), 1);
+
+        pool.release(sagaLog.id());
+        assertEquals(third.get(5, TimeUnit.SECONDS).id(), sagaLog.id());
+    }
+
+    @Test
+    public void thatTakeOwnershipAsyncIsCompletedByReleaseOwnership() throws Exception {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("l1");
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("first"), logId));
+        CompletableFuture<SagaLog> cancelled = pool.takeOwnershipAsync(new SagaLogOwner("cancelled"), logId, Duration.ofSeconds(10));
+        CompletableFuture<SagaLog> second = pool.takeOwnershipAsync(new SagaLogOwner("second"), logId, Duration.ofSeconds(10));
+        CompletableFuture<SagaLog> timedOut = pool.takeOwnershipAsync(new SagaLogOwner("timed-out"), logId, Duration.ofMillis(50));
+        cancelled.cancel(false);
+        assertNull(timedOut.get(5, TimeUnit.SECONDS));
+        assertFalse(second.isDone());
+
+        pool.releaseOwnership(logId);
+        assertEquals(second.get(5, TimeUnit.SECONDS).id(), logId);
+        assertEquals(pool.instanceLocalSagaLogOwnerships().iterator().next().getOwner().getOwnerId(), "second");
+        pool.releaseOwnership(logId);
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("third"), logId));
+    }
+
+    @Test
+    public void thatTakeOwnershipAsyncOfFreeLogCompletesImmediately() {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("l1");
+        CompletableFuture<SagaLog> future = pool.takeOwnershipAsync(new SagaLogOwner("first"), logId, Duration.ofSeconds(10));
+        assertTrue(future.isDone());
+        assertEquals(future.join().id(), logId);
+    }
+
+    @Test
+    public void thatAutoScalingAddsLogsForWaitingAcquirersUpToMax() throws Exception {
+        SagaLogId base = pool.registerInstanceLocalIdFor("base");
+        pool.enableAutoScaling("auto-", 2, Duration.ofMillis(20));
+        assertNotNull(pool.tryAcquire(new SagaLogOwner("first")));
+
+        SagaLog added = pool.tryAcquire(new SagaLogOwner("second"), 5, TimeUnit.SECONDS);
+        assertNotNull(added);
+        assertEquals(added.id(), pool.idFor("UnitTestInstance01", "auto-0"));
+        assertEquals(pool.instanceLocalLogIds().size(), 2);
+
+        CompletableFuture<SagaLog> third = pool.acquireAsync(new SagaLogOwner("third"), Duration.ofMillis(200));
+        assertNull(third.get(5, TimeUnit.SECONDS)); // max reached
+        assertEquals(pool.instanceLocalLogIds().size(), 2);
+        assertEquals(pool.metrics().scaledUp(), 1);
+
+        pool.release(base);
+        assertEquals(pool.acquireAsync(new SagaLogOwner("fourth"), Duration.ofSeconds(5)).get(5, TimeUnit.SECONDS).id(), base);
+    }
+
+    @Test
+    public void thatIdleSurplusLogIsRetiredWhenReleasedFullyTruncated() throws Exception {
+        SagaLogId base = pool.registerInstanceLocalIdFor("base");
+        pool.enableAutoScaling("auto-", 2, Duration.ofMillis(1));
+        pool.tryAcquire(new SagaLogOwner("first"));
+        SagaLog added = pool.tryAcquire(new SagaLogOwner("second"), 5, TimeUnit.SECONDS);
+        added.write(added.builder().startSaga("e1", "the-saga", "{}")).join();
+        pool.release(base);
+
+        pool.release(added.id()); // not truncated, kept
+        assertEquals(pool.instanceLocalLogIds().size(), 2);
+
+        assertEquals(pool.tryTakeOwnership(new SagaLogOwner("second"), added.id()), added);
+        added.truncate().join();
+        pool.releaseOwnership(added.id());
+        pool.tryAcquire(new SagaLogOwner("third")); // takes base, the surplus log is now the only one available
+        SagaLog surplus = pool.tryAcquire(new SagaLogOwner("fourth"));
+        assertEquals(surplus.id(), added.id());
+        pool.release(base);
+        pool.release(surplus.id());
+
+        assertEquals(pool.instanceLocalLogIds(), Set.of(base));
+        assertEquals(pool.metrics().scaledDown(), 1);
+        assertEquals(pool.ownershipSlotCount(), 1); // only the base log
+    }
+
+    private CompletableFuture<SagaLog> acquireOnThread(String ownerId) {
+        CompletableFuture<SagaLog> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(pool.tryAcquire(new SagaLogOwner(ownerId), 10, TimeUnit.SECONDS));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        thread.start();
+        return future;
+    }
+
+    private void awaitWaitingAcquirers(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.waitingAcquirerCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(pool.waitingAcquirerCount(), expected);
+    }
+
+    @Test
+    public void thatLogsOwnedBeforeShutdownCanBeReleasedAfterIt() {
+        pool.registerInstanceLocalIdFor("acquired");
+        SagaLog acquired = pool.tryAcquire(new SagaLogOwner("acquirer"));
+        SagaLogId takenId = pool.idFor("other-instance", "taken");
+        assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("taker"), takenId));
+
+        pool.shutdown();
+
+        pool.release(acquired.id());
+        pool.releaseOwnership(takenId);
+        expectThrows(IllegalStateException.class, () -> pool.releaseOwnership(takenId));
+    }
 }
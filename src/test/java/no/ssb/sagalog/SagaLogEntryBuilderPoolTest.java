@@ -0,0 +1,51 @@
+package no.ssb.sagalog;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class SagaLogEntryBuilderPoolTest {
+
+    @Test
+    public void thatReleasedBuilderIsResetAndReused() {
+        SagaLogEntryBuilder builder = SagaLogEntryBuilderPool.acquire().startSaga("e1", "the-saga", "{}");
+        SagaLogEntryBuilderPool.release(builder);
+        assertNull(builder.executionId());
+        assertNull(builder.entryType());
+        assertNull(builder.jsonData());
+        assertSame(SagaLogEntryBuilderPool.acquire(), builder);
+    }
+
+    @Test
+    public void thatBuilderThatWasNotAcquiredIsNotPooled() {
+        SagaLogEntryBuilder builder = new SagaLogEntryBuilder().startSaga("e1", "the-saga", "{}");
+        SagaLogEntryBuilderPool.release(builder);
+        assertSame(builder.executionId(), "e1");
+        assertNotSame(SagaLogEntryBuilderPool.acquire(), builder);
+    }
+
+    @Test
+    public void thatBuilderReleasedTwiceIsPooledOnce() {
+        SagaLogEntryBuilder builder = SagaLogEntryBuilderPool.acquire();
+        SagaLogEntryBuilderPool.release(builder);
+        SagaLogEntryBuilderPool.release(builder);
+        assertSame(SagaLogEntryBuilderPool.acquire(), builder);
+        assertNotSame(SagaLogEntryBuilderPool.acquire(), builder);
+    }
+
+    @Test
+    public void thatDetachedBuilderIsACopyAndTheOriginalIsReleased() {
+        SagaLogEntryBuilder builder = SagaLogEntryBuilderPool.acquire().startAction("e1", "n1");
+        SagaLogEntryBuilder detached = SagaLogEntryBuilderPool.detach(builder);
+        assertNotSame(detached, builder);
+        assertSame(detached.executionId(), "e1");
+        assertSame(detached.nodeId(), "n1");
+        assertNull(builder.executionId());
+        assertSame(SagaLogEntryBuilderPool.acquire(), builder);
+        SagaLogEntryBuilderPool.release(detached);
+        assertSame(detached.executionId(), "e1");
+        assertSame(SagaLogEntryBuilderPool.detach(detached), detached);
+    }
+}
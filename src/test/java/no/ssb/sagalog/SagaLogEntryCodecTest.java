@@ -0,0 +1,194 @@
+package no.ssb.sagalog;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class SagaLogEntryCodecTest {
+
+    static class TestEntryId implements SagaLogEntryId {
+    }
+
+    static final SagaLogEntryId ID = new TestEntryId();
+
+    SagaLogEntry roundTrip(SagaLogEntryBuilder builder) {
+        SagaLogEntry entry = builder.id(ID).build();
+        ByteBuffer buffer = ByteBuffer.allocate(SagaLogEntryCodec.encodedSize(entry));
+        SagaLogEntryCodec.encode(entry, buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        SagaLogEntry decoded = SagaLogEntryCodec.decode(ID, buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    void assertSameFields(SagaLogEntry actual, SagaLogEntry expected) {
+        assertEquals(actual, expected);
+        assertEquals(actual.getEntryType(), expected.getEntryType());
+        assertEquals(actual.getNodeId(), expected.getNodeId());
+        assertEquals(actual.getSagaName(), expected.getSagaName());
+        assertEquals(actual.getJsonData(), expected.getJsonData());
+    }
+
+    @Test
+    public void thatAllEntryTypesCanBeEncodedAndDecoded() {
+        SagaLogEntryBuilder[] builders = {
+                new SagaLogEntryBuilder().startSaga("e1", "The-Saga", "{\"input\":42}"),
+                new SagaLogEntryBuilder().startAction("e1", "action1"),
+                new SagaLogEntryBuilder().endAction("e1", "action1", "{\"output\":\"æøå\"}"),
+                new SagaLogEntryBuilder().endSaga("e1"),
+                new SagaLogEntryBuilder().abort("e1", "action1"),
+                new SagaLogEntryBuilder().compDone("e1", "action1"),
+                new SagaLogEntryBuilder().control()
+        };
+        for (SagaLogEntryBuilder builder : builders) {
+            assertSameFields(roundTrip(builder), builder.id(ID).build());
+        }
+    }
+
+    @Test
+    public void thatNullFieldsAreDecodedAsNull() {
+        SagaLogEntry decoded = roundTrip(new SagaLogEntryBuilder().startAction("e1", "n1"));
+        assertNull(decoded.getSagaName());
+        assertNull(decoded.getJsonData());
+    }
+
+    @Test
+    public void thatNonAsciiAndLongValuesAreEncodedAsUtf8() {
+        String json = "{\"emoji\":\"😀\",\"text\":\"" + "ü".repeat(1000) + "\"}";
+        SagaLogEntry decoded = roundTrip(new SagaLogEntryBuilder().endAction("exec-€", "node-ø", json));
+        assertEquals(decoded.getExecutionId(), "exec-€");
+        assertEquals(decoded.getNodeId(), "node-ø");
+        assertEquals(decoded.getJsonData(), json);
+        assertEquals(SagaLogEntryCodec.utf8Length(json), json.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void thatBuilderAndEntryEncodingAreIdentical() {
+        SagaLogEntryBuilder builder = new SagaLogEntryBuilder().startSaga("e1", "The-Saga", "{}").id(ID);
+        ByteBuffer fromBuilder = ByteBuffer.allocate(SagaLogEntryCodec.encodedSize(builder));
+        SagaLogEntryCodec.encode(builder, fromBuilder);
+        ByteBuffer fromEntry = ByteBuffer.allocate(SagaLogEntryCodec.encodedSize(builder.build()));
+        SagaLogEntryCodec.encode(builder.build(), fromEntry);
+        assertEquals(fromBuilder.flip(), fromEntry.flip());
+    }
+
+    @Test
+    public void thatDecodedEntryCanBeEncodedAgainWithoutDecodingJsonData() {
+        SagaLogEntry decoded = roundTrip(new SagaLogEntryBuilder().startSaga("e1", "The-Saga", "{\"a\":1}"));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SagaLogEntryCodec.encodedSize(decoded));
+        SagaLogEntryCodec.encode(decoded, buffer);
+        buffer.flip();
+        assertSameFields(SagaLogEntryCodec.decode(ID, buffer), decoded);
+    }
+
+    @Test
+    public void thatJsonDataIsDecodedLazilyFromSourceBuffer() {
+        SagaLogEntry entry = new SagaLogEntryBuilder().startSaga("e1", "The-Saga", "{\"a\":1}").id(ID).build();
+        ByteBuffer buffer = ByteBuffer.allocate(SagaLogEntryCodec.encodedSize(entry));
+        SagaLogEntryCodec.encode(entry, buffer);
+        buffer.flip();
+        SagaLogEntry decoded = SagaLogEntryCodec.decode(ID, buffer);
+        buffer.put(buffer.limit() - 2, (byte) '2');
+        assertEquals(decoded.getJsonData(), "{\"a\":2}");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatUnknownVersionIsRejected() {
+        SagaLogEntryCodec.decode(ID, ByteBuffer.wrap(new byte[]{99, 0, 1, 1, 0, 0}));
+    }
+
+    @Test
+    public void thatLongBytesAreBigEndianAndRoundTrip() {
+        assertEquals(SagaLogEntryCodec.longToBytes(0x0102030405060708L), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        for (long value : new long[]{0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 40}) {
+            assertEquals(SagaLogEntryCodec.longFromBytes(SagaLogEntryCodec.longToBytes(value)), value);
+        }
+    }
+
+    @Test
+    public void thatBuilderWithoutEntryTypeIsNotEncoded() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        expectThrows(NullPointerException.class, () -> SagaLogEntryCodec.encode(new SagaLogEntryBuilder().executionId("e1").nodeId("n1"), buffer));
+        assertEquals(buffer.position(), 0);
+    }
+
+    @Test
+    public void thatVersion2EntriesReferenceRepeatedStringsInTheDictionary() {
+        SagaLogStringDictionary encoding = SagaLogStringDictionary.forEncoding();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        SagaLogEntry[] entries = {
+                new SagaLogEntryBuilder().startSaga("execution-1", "The-Saga", "{\"input\":42}").id(ID).build(),
+                new SagaLogEntryBuilder().startAction("execution-1", "action1").id(ID).build(),
+                new SagaLogEntryBuilder().endAction("execution-1", "action1", "{}").id(ID).build(),
+                new SagaLogEntryBuilder().control().id(ID).build()
+        };
+        int[] sizes = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            int start = buffer.position();
+            SagaLogEntryCodec.encode(entries[i], buffer, encoding);
+            sizes[i] = buffer.position() - start;
+            assertTrue(sizes[i] <= SagaLogEntryCodec.maxEncodedSize(entries[i]));
+        }
+        assertEquals(sizes[2], SagaLogEntryCodec.encodedSize(entries[2]) - "execution-1action1".length()); // one byte per reference
+        assertEquals(sizes[3], SagaLogEntryCodec.maxEncodedSize(entries[3])); // executionId and nodeId "c" are in different tables
+
+        buffer.flip();
+        SagaLogStringDictionary decoding = SagaLogStringDictionary.forDecoding();
+        SagaLogEntry first = SagaLogEntryCodec.decode(ID, buffer, decoding);
+        assertSameFields(first, entries[0]);
+        SagaLogEntry second = SagaLogEntryCodec.decode(ID, buffer, decoding);
+        assertSameFields(second, entries[1]);
+        assertSame(second.getExecutionId(), first.getExecutionId());
+        assertSameFields(SagaLogEntryCodec.decode(ID, buffer, decoding), entries[2]);
+        assertSameFields(SagaLogEntryCodec.decode(ID, buffer, decoding), entries[3]);
+        assertEquals(decoding.size(), encoding.size());
+    }
+
+    @Test
+    public void thatSkippedEntriesBuildTheSameDictionary() {
+        SagaLogStringDictionary encoding = SagaLogStringDictionary.forEncoding();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        SagaLogEntryCodec.encode(new SagaLogEntryBuilder().startSaga("e1", "The-Saga", "{}").id(ID).build(), buffer, encoding);
+        SagaLogEntryCodec.encode(new SagaLogEntryBuilder().startAction("e1", "action1").id(ID).build(), buffer, encoding);
+        SagaLogEntryBuilder last = new SagaLogEntryBuilder().endAction("e1", "action1", "{\"k\":\"æøå\"}");
+        SagaLogEntryCodec.encodeHead(last, buffer);
+        SagaLogEntryCodec.encodeTail(last, buffer, encoding);
+        buffer.flip();
+
+        SagaLogStringDictionary decoding = SagaLogStringDictionary.forDecoding();
+        SagaLogEntryCodec.skip(buffer, decoding);
+        SagaLogEntryCodec.skip(buffer, decoding);
+        assertSameFields(SagaLogEntryCodec.decode(ID, buffer, decoding), last.id(ID).build());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void thatVersion2EntryWithoutDictionaryIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        SagaLogEntryCodec.encode(new SagaLogEntryBuilder().startAction("e1", "n1").id(ID).build(), buffer, SagaLogStringDictionary.forEncoding());
+        expectThrows(IllegalArgumentException.class, () -> SagaLogEntryCodec.decode(ID, buffer.flip()));
+    }
+
+    @Test
+    public void thatVersion1EntriesAreDecodedAndSkippedWithADictionary() {
+        SagaLogEntry entry = new SagaLogEntryBuilder().endAction("e1", "n1", "{}").id(ID).build();
+        ByteBuffer buffer = ByteBuffer.allocate(2 * SagaLogEntryCodec.encodedSize(entry));
+        SagaLogEntryCodec.encode(entry, buffer);
+        SagaLogEntryCodec.encode(entry, buffer);
+        buffer.flip();
+        SagaLogStringDictionary dictionary = SagaLogStringDictionary.forDecoding();
+        SagaLogEntryCodec.skip(buffer, dictionary);
+        assertSameFields(SagaLogEntryCodec.decode(ID, buffer, dictionary), entry);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(dictionary.size(), 0);
+    }
+}
@@ -0,0 +1,114 @@
+package no.ssb.sagalog;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class SagaLogGroupCommitTest {
+
+    @Test
+    public void thatPerEntryPolicyFlushesEveryCommit() {
+        AtomicInteger flushes = new AtomicInteger();
+        try (SagaLogGroupCommit groupCommit = new SagaLogGroupCommit("test", SagaLogFsyncPolicy.PerEntry, 0, TimeUnit.MILLISECONDS, flushes::incrementAndGet)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(groupCommit.commit(i).join(), Integer.valueOf(i));
+            }
+        }
+        assertEquals(flushes.get(), 10);
+    }
+
+    @Test
+    public void thatPerBatchPolicyGroupsConcurrentCommits() throws InterruptedException {
+        AtomicInteger flushes = new AtomicInteger();
+        CountDownLatch firstFlushStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstFlush = new CountDownLatch(1);
+        Runnable slowFlush = () -> {
+            if (flushes.getAndIncrement() == 0) {
+                firstFlushStarted.countDown();
+                try {
+                    releaseFirstFlush.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        try (SagaLogGroupCommit groupCommit = new SagaLogGroupCommit("test", SagaLogFsyncPolicy.PerBatch, 0, TimeUnit.MILLISECONDS, slowFlush)) {
+            CompletableFuture<Integer> first = groupCommit.commit(-1);
+            assertTrue(firstFlushStarted.await(10, TimeUnit.SECONDS));
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(groupCommit.commit(i));
+            }
+            releaseFirstFlush.countDown();
+            assertEquals(first.join(), Integer.valueOf(-1));
+            for (int i = 0; i < 100; i++) {
+                assertEquals(futures.get(i).join(), Integer.valueOf(i));
+            }
+        }
+        assertEquals(flushes.get(), 2);
+    }
+
+    @Test
+    public void thatTimeWindowPolicyGroupsCommitsWithinWindow() throws InterruptedException {
+        AtomicInteger flushes = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (SagaLogGroupCommit groupCommit = new SagaLogGroupCommit("test", SagaLogFsyncPolicy.TimeWindow, 200, TimeUnit.MILLISECONDS, flushes::incrementAndGet)) {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                int value = i;
+                futures.add(CompletableFuture.supplyAsync(() -> groupCommit.commit(value), executor).thenCompose(f -> f));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(flushes.get() < 64, "flushes: " + flushes.get());
+    }
+
+    @Test
+    public void thatCommitsAreCompletedOnTheCompletionExecutor() {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "completion"));
+        try (SagaLogGroupCommit groupCommit = new SagaLogGroupCommit("test", SagaLogFsyncPolicy.PerBatch, 0, TimeUnit.MILLISECONDS, () -> {
+        }, executor)) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            groupCommit.commit("value").whenComplete((value, failure) -> future.complete(Thread.currentThread().getName()));
+            assertEquals(future.join(), "completion");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void thatFlushFailureFailsCommits() {
+        try (SagaLogGroupCommit groupCommit = new SagaLogGroupCommit("test", SagaLogFsyncPolicy.PerBatch, 0, TimeUnit.MILLISECONDS, () -> {
+            throw new IllegalStateException("disk on fire");
+        })) {
+            groupCommit.commit("entry").join();
+            fail("Expected commit to fail");
+        } catch (CompletionException e) {
+            assertEquals(e.getCause().getMessage(), "disk on fire");
+        }
+    }
+
+    @Test
+    public void thatCloseCompletesPendingCommitsAndRejectsNewOnes() {
+        SagaLogGroupCommit groupCommit = new SagaLogGroupCommit("test", SagaLogFsyncPolicy.TimeWindow, 10, TimeUnit.SECONDS, () -> {
+        });
+        CompletableFuture<String> pending = groupCommit.commit("pending");
+        groupCommit.close();
+        assertEquals(pending.join(), "pending");
+        assertTrue(groupCommit.commit("rejected").isCompletedExceptionally());
+    }
+}
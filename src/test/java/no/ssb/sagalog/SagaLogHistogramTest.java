@@ -0,0 +1,68 @@
+package no.ssb.sagalog;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SagaLogHistogramTest {
+
+    @Test
+    public void thatBucketsCoverAllValuesInOrder() {
+        assertEquals(SagaLogHistogram.bucketOf(0), 0);
+        assertEquals(SagaLogHistogram.bucketOf(Long.MAX_VALUE), SagaLogHistogram.BUCKETS - 1);
+        for (int bucket = 0; bucket < SagaLogHistogram.BUCKETS; bucket++) {
+            assertEquals(SagaLogHistogram.bucketOf(SagaLogHistogram.lowestValueOf(bucket)), bucket);
+            assertEquals(SagaLogHistogram.bucketOf(SagaLogHistogram.highestValueOf(bucket)), bucket);
+        }
+    }
+
+    @Test
+    public void thatPercentilesAreWithinRelativeError() {
+        SagaLogHistogram histogram = new SagaLogHistogram("test");
+        for (long v = 1; v <= 100_000; v++) {
+            histogram.record(v * 1000);
+        }
+        assertEquals(histogram.count(), 100_000);
+        assertEquals(histogram.max(), 100_000_000);
+        assertWithin(histogram.valueAtPercentile(50), 50_000_000);
+        assertWithin(histogram.valueAtPercentile(99), 99_000_000);
+        assertEquals(histogram.valueAtPercentile(100), 100_000_000);
+        assertWithin((long) histogram.mean(), 50_000_500);
+    }
+
+    @Test
+    public void thatEmptyHistogramReportsZero() {
+        SagaLogHistogram histogram = new SagaLogHistogram("test");
+        assertEquals(histogram.count(), 0);
+        assertEquals(histogram.valueAtPercentile(99), 0);
+        assertEquals(histogram.mean(), 0.0);
+    }
+
+    @Test
+    public void thatConcurrentRecordingIsCounted() throws InterruptedException {
+        SagaLogHistogram histogram = new SagaLogHistogram("test");
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(histogram.count(), 80_000);
+        assertEquals(histogram.max(), 9_999);
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(Math.abs(actual - expected) <= expected / 8, actual + " is not within 12.5% of " + expected);
+    }
+}
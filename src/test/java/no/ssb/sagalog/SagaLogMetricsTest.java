@@ -0,0 +1,88 @@
+package no.ssb.sagalog;
+
+import no.ssb.sagalog.memory.MemorySagaLogPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class SagaLogMetricsTest {
+
+    SagaLogPool pool;
+
+    @BeforeMethod
+    public void setup() {
+        pool = new MemorySagaLogPool("UnitTestInstance01");
+    }
+
+    @AfterMethod
+    public void teardown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void thatWritesAndTruncatesAreRecorded() {
+        SagaLog sagaLog = pool.connect(pool.registerInstanceLocalIdFor("metrics"));
+        sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{\"a\":1}")).join();
+        sagaLog.write(sagaLog.builder().endSaga("e1")).join();
+        sagaLog.truncate().join();
+
+        SagaLogMetrics metrics = pool.metrics();
+        assertEquals(metrics.writeEntries(), 2);
+        assertEquals(metrics.writeBytes(), 7);
+        assertEquals(metrics.writeLatency().count(), 2);
+        assertEquals(metrics.truncateLatency().count(), 1);
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(snapshot.get(SagaLogMetrics.WRITE_ENTRIES), Long.valueOf(2));
+        assertEquals(snapshot.get(SagaLogMetrics.WRITE_LATENCY + ".count"), Long.valueOf(2));
+        assertEquals(snapshot.get(SagaLogMetrics.LOG_ENTRIES), Long.valueOf(0));
+        assertTrue(snapshot.containsKey(SagaLogMetrics.LOG_BYTES));
+    }
+
+    @Test
+    public void thatGaugesAreRemovedWithLog() {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("metrics");
+        SagaLog sagaLog = pool.connect(logId);
+        sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+        assertEquals(pool.metrics().snapshot().get(SagaLogMetrics.LOG_ENTRIES), Long.valueOf(1));
+
+        pool.remove(logId);
+        assertFalse(pool.metrics().snapshot().containsKey(SagaLogMetrics.LOG_ENTRIES));
+    }
+
+    @Test
+    public void thatAcquireAndOwnershipAreRecorded() throws InterruptedException {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("metrics");
+        SagaLogOwner owner = new SagaLogOwner("o1");
+        SagaLog sagaLog = pool.tryAcquire(owner, 1, TimeUnit.SECONDS);
+        assertNotNull(sagaLog);
+        assertNull(pool.tryAcquire(new SagaLogOwner("o2"), 10, TimeUnit.MILLISECONDS));
+        assertNull(pool.tryTakeOwnership(new SagaLogOwner("o3"), logId));
+        pool.release(logId);
+
+        SagaLogMetrics metrics = pool.metrics();
+        assertEquals(metrics.acquireWait().count(), 2);
+        assertTrue(metrics.acquireWait().max() >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(metrics.acquireTimeouts(), 1);
+        assertEquals(metrics.alreadyOwned(), 1);
+        assertEquals(metrics.ownershipHeld().count(), 1);
+    }
+
+    @Test
+    public void thatDisabledMetricsIgnoreRecording() {
+        SagaLogMetrics metrics = SagaLogMetrics.disabled();
+        metrics.recordAcquireTimeout();
+        metrics.recordAcquireWait(1000);
+        assertEquals(metrics.acquireTimeouts(), 0);
+        assertEquals(metrics.acquireWait().count(), 0);
+    }
+}
@@ -0,0 +1,144 @@
+package no.ssb.sagalog;
+
+import no.ssb.sagalog.file.FileSagaLogPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class SagaLogPoolRecoveryTest {
+
+    Path folder;
+    ForkJoinPool executor;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("saga-log-pool-recovery-test");
+        executor = new ForkJoinPool(4);
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        executor.shutdownNow();
+        try (Stream<Path> walk = Files.walk(folder)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private void writeLogs(String clusterInstanceId, int logs, int executionsPerLog) {
+        FileSagaLogPool pool = new FileSagaLogPool(clusterInstanceId, folder, 4096);
+        try {
+            for (int i = 0; i < logs; i++) {
+                SagaLog sagaLog = pool.connect(pool.registerInstanceLocalIdFor("log-" + i));
+                for (int e = 0; e < executionsPerLog; e++) {
+                    String executionId = clusterInstanceId + "-" + i + "-" + e;
+                    sagaLog.write(sagaLog.builder().startSaga(executionId, "the-saga", "{}")).join();
+                    if (e % 2 == 0) {
+                        sagaLog.write(sagaLog.builder().endSaga(executionId)).join();
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatAllClusterWideLogsAreRecoveredAndNonLocalLogsRemoved() throws Exception {
+        writeLogs("other", 10, 5);
+        writeLogs("local", 2, 5);
+
+        FileSagaLogPool pool = new FileSagaLogPool("local", folder, 4096);
+        try {
+            SagaLogId local0 = pool.registerInstanceLocalIdFor("log-0");
+            SagaLogId local1 = pool.registerInstanceLocalIdFor("log-1");
+            Set<String> recoveredExecutions = ConcurrentHashMap.newKeySet();
+            AtomicInteger incomplete = new AtomicInteger();
+
+            Set<SagaLogId> recovered = new SagaLogPoolRecovery(pool, executor, 3).recover((sagaLog, execution) -> {
+                recoveredExecutions.add(execution.getExecutionId());
+                if (!execution.isComplete()) {
+                    incomplete.incrementAndGet();
+                }
+            }).get(30, TimeUnit.SECONDS);
+
+            assertEquals(recovered.size(), 12);
+            assertEquals(recoveredExecutions.size(), 60);
+            assertEquals(incomplete.get(), 24);
+
+            // non-local logs are released, so another pool can connect to them
+            FileSagaLogPool other = new FileSagaLogPool("other", folder, 4096);
+            try {
+                assertNotNull(other.connect(other.registerInstanceLocalIdFor("log-0")));
+            } finally {
+                other.shutdown();
+            }
+            // local logs remain connected in the pool
+            assertTrue(pool.instanceLocalLogIds().containsAll(Set.of(local0, local1)));
+            assertNotNull(pool.tryTakeOwnership(new SagaLogOwner("me"), local0));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatFailingLogDoesNotStopRecoveryOfOtherLogs() throws Exception {
+        writeLogs("other", 4, 1);
+
+        FileSagaLogPool pool = new FileSagaLogPool("local", folder, 4096);
+        try {
+            Set<String> recoveredExecutions = ConcurrentHashMap.newKeySet();
+            try {
+                new SagaLogPoolRecovery(pool, executor, 2).recover((sagaLog, execution) -> {
+                    if (execution.getExecutionId().equals("other-2-0")) {
+                        throw new IllegalStateException("handler failure");
+                    }
+                    recoveredExecutions.add(execution.getExecutionId());
+                }).join();
+                fail("Expected recovery to fail");
+            } catch (CompletionException e) {
+                assertEquals(e.getCause().getSuppressed().length, 1);
+            }
+            assertEquals(recoveredExecutions, Set.of("other-0-0", "other-1-0", "other-3-0"));
+            // the failed log is removed from the pool too
+            FileSagaLogPool other = new FileSagaLogPool("other", folder, 4096);
+            try {
+                assertNotNull(other.connect(other.registerInstanceLocalIdFor("log-2")));
+            } finally {
+                other.shutdown();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatRecoveryOfEmptyPoolCompletes() throws Exception {
+        FileSagaLogPool pool = new FileSagaLogPool("local", folder, 4096);
+        try {
+            assertEquals(new SagaLogPoolRecovery(pool, executor, 4).recover((sagaLog, execution) -> {
+            }).get(5, TimeUnit.SECONDS), Set.of());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
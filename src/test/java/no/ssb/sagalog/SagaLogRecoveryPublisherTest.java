@@ -0,0 +1,167 @@
+package no.ssb.sagalog;
+
+import no.ssb.sagalog.memory.MemorySagaLogPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Flow;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class SagaLogRecoveryPublisherTest {
+
+    SagaLogPool pool;
+    SagaLog sagaLog;
+
+    @BeforeMethod
+    public void setup() {
+        pool = new MemorySagaLogPool("UnitTestInstance01");
+        sagaLog = pool.connect(pool.registerInstanceLocalIdFor("recovery"));
+    }
+
+    @AfterMethod
+    public void teardown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void thatExecutionsArePublishedWhenEndedAndOpenExecutionsAtEndOfLog() {
+        sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+        sagaLog.write(sagaLog.builder().startSaga("e2", "the-saga", "{}")).join();
+        sagaLog.write(sagaLog.builder().startAction("e1", "n1")).join();
+        sagaLog.write(sagaLog.builder().startAction("e2", "n1")).join();
+        sagaLog.write(sagaLog.builder().control()).join();
+        sagaLog.write(sagaLog.builder().endAction("e2", "n1", "{}")).join();
+        sagaLog.write(sagaLog.builder().startSaga("e3", "the-saga", "{}")).join();
+        sagaLog.write(sagaLog.builder().endSaga("e2")).join();
+        sagaLog.write(sagaLog.builder().abort("e3", "S")).join();
+        sagaLog.write(sagaLog.builder().compDone("e3", "S")).join();
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        sagaLog.readIncompleteExecutions().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEquals(subscriber.received.size(), 3);
+
+        SagaLogExecutionEntries e2 = subscriber.received.get(0);
+        assertEquals(e2.getExecutionId(), "e2");
+        assertTrue(e2.isComplete());
+        assertEquals(e2.getEntriesByNodeId().keySet(), Set.of("S", "n1", "E"));
+        assertEquals(e2.getEntriesByNodeId().get("n1").size(), 2);
+
+        SagaLogExecutionEntries e3 = subscriber.received.get(1);
+        assertEquals(e3.getExecutionId(), "e3");
+        assertTrue(e3.isComplete());
+
+        SagaLogExecutionEntries e1 = subscriber.received.get(2);
+        assertEquals(e1.getExecutionId(), "e1");
+        assertFalse(e1.isComplete());
+        assertEquals(e1.getEntriesByNodeId().keySet(), Set.of("S", "n1"));
+    }
+
+    @Test
+    public void thatPublisherOnlyReadsAsFarAsRequested() {
+        for (int i = 0; i < 10; i++) {
+            sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", "{}")).join();
+            sagaLog.write(sagaLog.builder().endSaga("e" + i)).join();
+        }
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        sagaLog.readIncompleteExecutions().subscribe(subscriber);
+        assertEquals(subscriber.received.size(), 0);
+
+        subscriber.subscription.request(3);
+        assertEquals(subscriber.received.size(), 3);
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(7);
+        assertEquals(subscriber.received.size(), 10);
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void thatRequestFromOnNextDoesNotRecurse() {
+        for (int i = 0; i < 10000; i++) {
+            sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", "{}")).join();
+            sagaLog.write(sagaLog.builder().startAction("e" + i, "n1")).join();
+        }
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(SagaLogExecutionEntries item) {
+                super.onNext(item);
+                subscription.request(1);
+            }
+        };
+        sagaLog.readIncompleteExecutions().subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals(subscriber.received.size(), 10000);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void thatCancelStopsPublishing() {
+        for (int i = 0; i < 10; i++) {
+            sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", "{}")).join();
+            sagaLog.write(sagaLog.builder().endSaga("e" + i)).join();
+        }
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(SagaLogExecutionEntries item) {
+                super.onNext(item);
+                if (received.size() == 2) {
+                    subscription.cancel();
+                }
+            }
+        };
+        sagaLog.readIncompleteExecutions().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(subscriber.received.size(), 2);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void thatNonPositiveRequestSignalsError() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        sagaLog.readIncompleteExecutions().subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    static class RecordingSubscriber implements Flow.Subscriber<SagaLogExecutionEntries> {
+        final List<SagaLogExecutionEntries> received = new ArrayList<>();
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(SagaLogExecutionEntries item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package no.ssb.sagalog;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+public class SagaLogStringDictionaryTest {
+
+    @Test
+    public void thatLeastRecentlyUsedExecutionIdIsReplacedWhenFull() {
+        SagaLogStringDictionary encoding = SagaLogStringDictionary.forEncoding(2, 2);
+        SagaLogStringDictionary decoding = SagaLogStringDictionary.forDecoding(2, 2);
+        encoding.executionIds.add("a");
+        encoding.executionIds.add("b");
+        assertEquals(encoding.executionIds.indexOf("a"), 0);
+        encoding.executionIds.add("c");
+        decoding.executionIds.add("a");
+        decoding.executionIds.add("b");
+        assertEquals(decoding.executionIds.get(0), "a");
+        decoding.executionIds.add("c");
+        assertEquals(encoding.size(), 2);
+        assertEquals(encoding.executionIds.indexOf("b"), -1);
+        assertEquals(encoding.executionIds.indexOf("a"), 0);
+        assertEquals(encoding.executionIds.indexOf("c"), 1);
+        assertEquals(decoding.executionIds.get(0), "a");
+        assertEquals(decoding.executionIds.get(1), "c");
+    }
+
+    @Test
+    public void thatNamesAreNeverEvicted() {
+        SagaLogStringDictionary encoding = SagaLogStringDictionary.forEncoding(2, 2);
+        for (String value : new String[]{"a", "b", "c"}) {
+            encoding.names.add(value);
+        }
+        assertEquals(encoding.names.indexOf("a"), 0);
+        assertEquals(encoding.names.indexOf("b"), 1);
+        assertEquals(encoding.names.indexOf("c"), -1);
+    }
+
+    @Test
+    public void thatIndexFindsEveryStringAfterManyEvictions() {
+        int capacity = 64;
+        SagaLogStringDictionary encoding = SagaLogStringDictionary.forEncoding(1, capacity);
+        SagaLogStringDictionary decoding = SagaLogStringDictionary.forDecoding(1, capacity);
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            String value = "e" + random.nextInt(200);
+            int index = encoding.executionIds.indexOf(value);
+            if (index >= 0) {
+                assertEquals(decoding.executionIds.get(index), value);
+            } else {
+                encoding.executionIds.add(value);
+                decoding.executionIds.add(value);
+            }
+        }
+        for (int i = 0; i < capacity; i++) {
+            String value = decoding.executionIds.get(i);
+            assertEquals(encoding.executionIds.indexOf(value), i);
+        }
+    }
+
+    @Test
+    public void thatUniqueExecutionIdsDoNotEvictNames() {
+        SagaLogStringDictionary encoding = SagaLogStringDictionary.forEncoding(4, 4);
+        SagaLogStringDictionary decoding = SagaLogStringDictionary.forDecoding(4, 4);
+        SagaLogStringDictionary skipping = SagaLogStringDictionary.forDecoding(4, 4);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        List<SagaLogEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            SagaLogEntry entry = new SagaLogEntryBuilder().startAction("e" + i, "n" + (i % 2)).id(SagaLogEntryCodecTest.ID).build();
+            entries.add(entry);
+            SagaLogEntryCodec.encode(entry, buffer, encoding);
+        }
+        int before = buffer.position();
+        SagaLogEntryCodec.encode(new SagaLogEntryBuilder().startAction("e99", "n1").id(SagaLogEntryCodecTest.ID).build(), buffer, encoding);
+        assertEquals(buffer.position() - before, 6, "version, jsonData, entryType and three references of one byte each");
+        buffer.flip();
+        ByteBuffer skipped = buffer.duplicate();
+        for (SagaLogEntry entry : entries) {
+            SagaLogEntry decoded = SagaLogEntryCodec.decode(entry.getId(), buffer, decoding);
+            assertEquals(decoded.getExecutionId(), entry.getExecutionId());
+            assertEquals(decoded.getNodeId(), entry.getNodeId());
+            SagaLogEntryCodec.skip(skipped, skipping);
+        }
+        assertEquals(SagaLogEntryCodec.decode(SagaLogEntryCodecTest.ID, buffer, decoding).getExecutionId(), "e99");
+        assertEquals(SagaLogEntryCodec.decode(SagaLogEntryCodecTest.ID, skipped, skipping).getNodeId(), "n1");
+    }
+
+    @Test
+    public void thatMissingIndexIsRejected() {
+        SagaLogStringDictionary dictionary = SagaLogStringDictionary.forDecoding();
+        dictionary.names.add("a");
+        expectThrows(IllegalArgumentException.class, () -> dictionary.names.get(1));
+        expectThrows(IllegalStateException.class, () -> dictionary.names.indexOf("a"));
+    }
+}
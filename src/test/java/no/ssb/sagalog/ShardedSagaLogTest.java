@@ -0,0 +1,175 @@
+package no.ssb.sagalog;
+
+import no.ssb.sagalog.memory.MemorySagaLogPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ShardedSagaLogTest {
+
+    MemorySagaLogPool pool;
+
+    @BeforeMethod
+    public void setup() {
+        pool = new MemorySagaLogPool("UnitTestInstance01");
+        for (int i = 0; i < 4; i++) {
+            pool.registerInstanceLocalIdFor("shard-" + i);
+        }
+    }
+
+    @AfterMethod
+    public void teardown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void thatExecutionsAreSpreadAcrossShardsAndReadBack() throws InterruptedException {
+        ShardedSagaLog sagaLog = ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 4, 1, TimeUnit.SECONDS);
+        assertNotNull(sagaLog);
+        for (int i = 0; i < 32; i++) {
+            sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", "{}")).join();
+            sagaLog.write(sagaLog.builder().startAction("e" + i, "action1")).join();
+        }
+        for (SagaLog shard : sagaLog.shards()) {
+            assertTrue(shard.readIncompleteSagas().count() > 0);
+        }
+        assertEquals(sagaLog.readIncompleteSagas().count(), 64);
+        List<SagaLogEntry> entries = sagaLog.readEntries("e7").collect(Collectors.toList());
+        assertEquals(entries.size(), 2);
+        assertEquals(entries.get(1).getNodeId(), "action1");
+        assertEquals(sagaLog.getSnapshotOfSagaLogEntriesByNodeId("e7").keySet(), Set.of("S", "action1"));
+    }
+
+    @Test
+    public void thatTruncateToWrittenEntryTruncatesEveryShardUpToThatEntry() throws InterruptedException {
+        ShardedSagaLog sagaLog = ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 4, 1, TimeUnit.SECONDS);
+        SagaLogEntry last = null;
+        for (int i = 0; i < 16; i++) {
+            last = sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", "{}")).join();
+        }
+        sagaLog.write(sagaLog.builder().startSaga("after", "the-saga", "{}")).join();
+
+        sagaLog.truncate(last.getId()).join();
+
+        assertEquals(sagaLog.readIncompleteSagas().map(SagaLogEntry::getExecutionId).collect(Collectors.toList()), List.of("after"));
+    }
+
+    @Test
+    public void thatWriteAllKeepsOrderOfBuilders() throws InterruptedException {
+        ShardedSagaLog sagaLog = ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 4, 1, TimeUnit.SECONDS);
+        List<SagaLogEntry> entries = sagaLog.writeAll(List.of(
+                sagaLog.builder().startSaga("a", "the-saga", "{}"),
+                sagaLog.builder().startSaga("b", "the-saga", "{}"),
+                sagaLog.builder().startSaga("c", "the-saga", "{}"),
+                sagaLog.builder().startSaga("d", "the-saga", "{}")
+        )).join();
+        assertEquals(entries.stream().map(SagaLogEntry::getExecutionId).collect(Collectors.toList()), List.of("a", "b", "c", "d"));
+        sagaLog.truncate(entries.get(3).getId()).join();
+        assertEquals(sagaLog.readIncompleteSagas().count(), 0);
+    }
+
+    @Test
+    public void thatCompositeIdsRoundTripThroughBytesAndStrings() throws InterruptedException {
+        ShardedSagaLog sagaLog = ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 4, 1, TimeUnit.SECONDS);
+        sagaLog.write(sagaLog.builder().startSaga("a", "the-saga", "{}")).join();
+        SagaLogEntryId id = sagaLog.write(sagaLog.builder().startSaga("b", "the-saga", "{}")).join().getId();
+        assertEquals(sagaLog.fromBytes(sagaLog.toBytes(id)), id);
+        assertEquals(sagaLog.fromString(sagaLog.toString(id)), id);
+        SagaLogEntryId readId = sagaLog.readEntries("a").findFirst().orElseThrow().getId();
+        assertEquals(sagaLog.fromString(sagaLog.toString(readId)), readId);
+    }
+
+    @Test
+    public void thatAcquireReleasesShardsOnTimeout() throws InterruptedException {
+        assertNull(ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 5, 50, TimeUnit.MILLISECONDS));
+        ShardedSagaLog sagaLog = ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 4, 1, TimeUnit.SECONDS);
+        assertNotNull(sagaLog);
+        sagaLog.release(pool);
+        assertNotNull(pool.tryAcquire(new SagaLogOwner("other")));
+    }
+
+    @Test
+    public void thatWrittenIdsCompareInWriteOrder() throws InterruptedException {
+        ShardedSagaLog sagaLog = ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 4, 1, TimeUnit.SECONDS);
+        SagaLogEntryId previous = sagaLog.write(sagaLog.builder().startSaga("e0", "the-saga", "{}")).join().getId();
+        for (int i = 1; i < 16; i++) {
+            SagaLogEntryId id = sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", "{}")).join().getId();
+            assertTrue(sagaLog.compare(previous, id) < 0);
+            assertTrue(sagaLog.compare(id, previous) > 0);
+            assertEquals(sagaLog.compare(id, id), 0);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void thatWatermarkOfShardDoesNotMoveBackWhenWritesCompleteOutOfOrder() throws InterruptedException {
+        List<CompletableFuture<Void>> gates = new ArrayList<>();
+        SagaLog first = pool.tryAcquire(new SagaLogOwner("owner"), 1, TimeUnit.SECONDS);
+        SagaLog second = pool.tryAcquire(new SagaLogOwner("owner"), 1, TimeUnit.SECONDS);
+        ShardedSagaLog sagaLog = new ShardedSagaLog(List.of(completingWritesWhenOpened(first, gates), second));
+        String[] executionIdOfShard = new String[2];
+        for (int i = 0; executionIdOfShard[0] == null || executionIdOfShard[1] == null; i++) {
+            executionIdOfShard[sagaLog.shardOf("e" + i)] = "e" + i;
+        }
+
+        CompletableFuture<SagaLogEntry> earlier = sagaLog.write(sagaLog.builder().startSaga(executionIdOfShard[0], "the-saga", "{}"));
+        CompletableFuture<SagaLogEntry> later = sagaLog.write(sagaLog.builder().startAction(executionIdOfShard[0], "action1"));
+        gates.get(1).complete(null);
+        gates.get(0).complete(null);
+        earlier.join();
+        later.join();
+        SagaLogEntry last = sagaLog.write(sagaLog.builder().startSaga(executionIdOfShard[1], "the-saga", "{}")).join();
+
+        sagaLog.truncate(last.getId()).join();
+        assertEquals(sagaLog.readIncompleteSagas().count(), 0);
+    }
+
+    @Test
+    public void thatIdsOfDifferentShardsAreOrderedByShard() throws InterruptedException {
+        ShardedSagaLog sagaLog = ShardedSagaLog.acquire(pool, new SagaLogOwner("owner"), 4, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 16; i++) {
+            sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", "{}")).join();
+        }
+        List<SagaLogEntryId> ids = sagaLog.readIncompleteSagas().map(SagaLogEntry::getId).collect(Collectors.toList());
+        for (SagaLogEntryId id1 : ids) {
+            for (SagaLogEntryId id2 : ids) {
+                assertEquals(Integer.signum(sagaLog.compare(id1, id2)), -Integer.signum(sagaLog.compare(id2, id1)));
+                assertEquals(sagaLog.compare(id1, id2) == 0, id1.equals(id2));
+            }
+        }
+    }
+
+    /**
+     * @return a view of the log where each write completes when the gate that it adds to gates is completed.
+     */
+    static SagaLog completingWritesWhenOpened(SagaLog sagaLog, List<CompletableFuture<Void>> gates) {
+        return (SagaLog) Proxy.newProxyInstance(SagaLog.class.getClassLoader(), new Class<?>[]{SagaLog.class}, (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(sagaLog, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (method.getName().equals("write")) {
+                CompletableFuture<Void> gate = new CompletableFuture<>();
+                gates.add(gate);
+                return gate.thenCompose(v -> (CompletableFuture<?>) result);
+            }
+            return result;
+        });
+    }
+}
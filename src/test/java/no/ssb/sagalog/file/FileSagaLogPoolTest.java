@@ -0,0 +1,123 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogBusyException;
+import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogOwner;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class FileSagaLogPoolTest {
+
+    Path folder;
+    FileSagaLogPool pool;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("file-saga-log-pool-test");
+        pool = new FileSagaLogInitializer().initialize(Map.of(
+                "cluster.instance-id", "PoolTestInstance01",
+                "file.folder", folder.toString(),
+                "file.segment-size", "4096"
+        ));
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        pool.shutdown();
+        try (Stream<Path> walk = Files.walk(folder)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void thatIdForHasCorrectHashcodeEquals() {
+        assertEquals(pool.idFor("", "somelogid"), pool.idFor("", "somelogid"));
+        assertFalse(pool.idFor("", "somelogid") == pool.idFor("", "somelogid"));
+        assertNotEquals(pool.idFor("", "somelogid"), pool.idFor("", "otherlogid"));
+    }
+
+    @Test
+    public void thatClusterWideLogIdsIncludeLogsOfAllInstances() {
+        SagaLogId l1 = pool.registerInstanceLocalIdFor("1");
+        SagaLogId l2 = pool.registerInstanceLocalIdFor("hola-.:$there");
+        SagaLogId x = pool.idFor("otherInstance", "x");
+        pool.connect(l1);
+        pool.connect(l2);
+        pool.connect(x);
+        assertEquals(pool.clusterWideLogIds(), Set.of(l1, l2, x));
+    }
+
+    @Test
+    public void thatEntriesAreRecoveredByAnotherPool() {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("recoverable");
+        SagaLog sagaLog = pool.tryAcquire(new SagaLogOwner("me"));
+        sagaLog.write(sagaLog.builder().startSaga("e1", "Vanilla-Saga", "{}")).join();
+        sagaLog.write(sagaLog.builder().startAction("e1", "action1")).join();
+        pool.release(logId);
+        pool.shutdown();
+
+        FileSagaLogPool otherPool = new FileSagaLogPool("PoolTestInstance02", folder, 4096);
+        try {
+            assertTrue(otherPool.clusterWideLogIds().contains(logId));
+            SagaLog recoveredLog = otherPool.connect(logId);
+            assertEquals(recoveredLog.readIncompleteSagas().count(), 2);
+            otherPool.remove(logId);
+        } finally {
+            otherPool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatConnectingLogOwnedByAnotherPoolIsCountedAsBusy() {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("busy");
+        pool.connect(logId);
+        FileSagaLogPool other = new FileSagaLogPool("PoolTestInstance01", folder, 4096);
+        try {
+            other.connect(logId);
+            fail("Expected SagaLogBusyException");
+        } catch (SagaLogBusyException e) {
+            assertEquals(other.metrics().busy(), 1);
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void thatDeleteRemovesLogFolder() {
+        SagaLogId logId = pool.registerInstanceLocalIdFor("deletable");
+        SagaLog sagaLog = pool.connect(logId);
+        sagaLog.write(sagaLog.builder().startSaga("e1", "Vanilla-Saga", "{}")).join();
+        pool.remove(logId);
+        assertTrue(Files.isDirectory(pool.folderOf(logId)));
+        assertTrue(pool.delete(logId));
+        assertFalse(Files.exists(pool.folderOf(logId)));
+        assertFalse(pool.delete(logId));
+    }
+
+    @Test
+    void thatConnectExternalProducesANonNullSagaLog() throws Exception {
+        SagaLog sagaLog = pool.connectExternal(pool.registerInstanceLocalIdFor("anyId"));
+        assertNotNull(sagaLog);
+        sagaLog.close();
+    }
+}
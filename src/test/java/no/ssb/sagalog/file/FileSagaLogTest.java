@@ -0,0 +1,447 @@
+package no.ssb.sagalog.file;
+
+import no.ssb.sagalog.SagaLogBusyException;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import no.ssb.sagalog.SagaLogEntryCodec;
+import no.ssb.sagalog.SagaLogFsyncPolicy;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class FileSagaLogTest {
+
+    Path folder;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("file-saga-log-test");
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        try (Stream<Path> walk = Files.walk(folder)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    FileSagaLog open(int segmentSize) {
+        return new FileSagaLog(new FileSagaLogId("01", "test"), folder, segmentSize, SagaLogFsyncPolicy.PerBatch, 0);
+    }
+
+    @Test
+    public void thatWriteAndReadEntriesWorks() throws IOException {
+        try (FileSagaLog sagaLog = open(4096)) {
+            Deque<SagaLogEntry> expectedEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+
+            assertEquals(sagaLog.readEntries(expectedEntries.getFirst().getExecutionId()).collect(Collectors.toList()), expectedEntries);
+        }
+    }
+
+    @Test
+    public void thatEntriesSurviveReopen() throws IOException {
+        Deque<SagaLogEntry> expectedEntries;
+        try (FileSagaLog sagaLog = open(4096)) {
+            expectedEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+        }
+        try (FileSagaLog sagaLog = open(4096)) {
+            List<SagaLogEntry> actualEntries = sagaLog.readIncompleteSagas().collect(Collectors.toList());
+            assertEquals(actualEntries, expectedEntries);
+            assertEquals(actualEntries.get(0).getJsonData(), "{\"input\":\"value\"}");
+            assertEquals(actualEntries.get(0).getSagaName(), "Vanilla-Saga");
+        }
+    }
+
+    @Test
+    public void thatTruncateWithReadIncompleteWorks() throws IOException {
+        try (FileSagaLog sagaLog = open(4096)) {
+            Deque<SagaLogEntry> initialEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+            sagaLog.truncate(initialEntries.getLast().getId()).join();
+
+            Deque<SagaLogEntry> expectedEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+
+            List<SagaLogEntry> actualEntries = sagaLog.readIncompleteSagas().collect(Collectors.toList());
+            assertEquals(actualEntries, expectedEntries);
+        }
+        try (FileSagaLog sagaLog = open(4096)) {
+            assertEquals(sagaLog.readIncompleteSagas().count(), 6);
+        }
+    }
+
+    @Test
+    public void thatSegmentsAreRolledAndDeletedOnTruncate() throws IOException {
+        try (FileSagaLog sagaLog = open(1024)) {
+            Deque<SagaLogEntry> expectedEntries = new LinkedList<>();
+            for (int i = 0; i < 50; i++) {
+                expectedEntries.addAll(writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString()));
+            }
+            assertTrue(segmentCount() > 1);
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), expectedEntries);
+
+            sagaLog.truncate().join();
+            assertEquals(sagaLog.readIncompleteSagas().count(), 0);
+            assertEquals(segmentCount(), 1);
+
+            Deque<SagaLogEntry> moreEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), moreEntries);
+        }
+    }
+
+    @Test
+    public void thatEntryLargerThanSegmentSizeCanBeWritten() throws IOException {
+        String largeJson = "\"" + "x".repeat(5000) + "\"";
+        try (FileSagaLog sagaLog = open(1024)) {
+            sagaLog.write(sagaLog.builder().startSaga("e1", "Large-Saga", largeJson)).join();
+            sagaLog.write(sagaLog.builder().endSaga("e1")).join();
+        }
+        try (FileSagaLog sagaLog = open(1024)) {
+            List<SagaLogEntry> entries = sagaLog.readEntries("e1").collect(Collectors.toList());
+            assertEquals(entries.size(), 2);
+            assertEquals(entries.get(0).getJsonData(), largeJson);
+        }
+    }
+
+    @Test
+    public void thatPartiallyWrittenRecordIsIgnoredOnReopen() throws IOException {
+        try (FileSagaLog sagaLog = open(4096)) {
+            writeSuccessfulVanillaSagaExecutionEntries(sagaLog, "e1");
+        }
+        Path segment;
+        try (Stream<Path> list = Files.list(folder)) {
+            segment = list.filter(FileSagaLogSegment::isSegmentFile).findFirst().orElseThrow();
+        }
+        byte[] bytes = Files.readAllBytes(segment);
+        int end = 0;
+        for (int i = 0; i < 6; i++) {
+            end += FileSagaLogSegment.RECORD_HEADER_SIZE + ByteBuffer.wrap(bytes).getInt(end);
+        }
+        ByteBuffer.wrap(bytes).putInt(end, 100).putInt(end + 4, 12345); // torn record header
+        Files.write(segment, bytes);
+        try (FileSagaLog sagaLog = open(4096)) {
+            assertEquals(sagaLog.readIncompleteSagas().count(), 6);
+            sagaLog.write(sagaLog.builder().startSaga("e2", "Vanilla-Saga", "{}")).join();
+            assertEquals(sagaLog.readIncompleteSagas().count(), 7);
+        }
+    }
+
+    @Test
+    public void thatWritesAreCompletedWithEveryFsyncPolicy() throws IOException {
+        for (SagaLogFsyncPolicy policy : SagaLogFsyncPolicy.values()) {
+            try (FileSagaLog sagaLog = new FileSagaLog(new FileSagaLogId("01", policy.name()), folder.resolve(policy.name()), 4096, policy, 1)) {
+                List<CompletableFuture<SagaLogEntry>> futures = new LinkedList<>();
+                for (int i = 0; i < 20; i++) {
+                    futures.add(sagaLog.write(sagaLog.builder().startSaga("e" + i, "Vanilla-Saga", "{}")));
+                }
+                CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+                assertEquals(sagaLog.readIncompleteSagas().count(), 20);
+            }
+        }
+    }
+
+    @Test(expectedExceptions = SagaLogBusyException.class)
+    public void thatOpeningALockedLogThrowsBusyException() throws IOException {
+        try (FileSagaLog sagaLog = open(4096)) {
+            open(4096);
+        }
+    }
+
+    @Test
+    public void thatWriteAllAppendsBatchAcrossSegments() throws IOException {
+        List<SagaLogEntryBuilder> builders = new LinkedList<>();
+        for (int i = 0; i < 100; i++) {
+            builders.add(new SagaLogEntryBuilder().startSaga("e" + i, "Vanilla-Saga", "{\"input\":\"value\"}"));
+        }
+        List<SagaLogEntry> entries;
+        try (FileSagaLog sagaLog = open(1024)) {
+            entries = sagaLog.writeAll(builders).join();
+            assertEquals(entries.size(), 100);
+            assertTrue(segmentCount() > 1);
+            for (int i = 1; i < entries.size(); i++) {
+                assertTrue(((FileSagaLogEntryId) entries.get(i).getId()).position > ((FileSagaLogEntryId) entries.get(i - 1).getId()).position);
+            }
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), entries);
+        }
+        try (FileSagaLog sagaLog = open(1024)) {
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), entries);
+        }
+    }
+
+    @Test
+    public void thatCheckpointDropsCompletedSagasAndOldSegments() throws IOException {
+        try (FileSagaLog sagaLog = open(1024)) {
+            for (int i = 0; i < 20; i++) {
+                writeSuccessfulVanillaSagaExecutionEntries(sagaLog, "completed-" + i);
+            }
+            SagaLogEntry running = sagaLog.write(sagaLog.builder().startSaga("running", "Vanilla-Saga", "{}")).join();
+            assertTrue(segmentCount() > 1);
+
+            sagaLog.checkpoint().join();
+            assertEquals(segmentCount(), 1);
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(running));
+
+            SagaLogEntry action = sagaLog.write(sagaLog.builder().startAction("running", "action1")).join();
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(running, action));
+        }
+        try (FileSagaLog sagaLog = open(1024)) {
+            List<SagaLogEntry> entries = sagaLog.readIncompleteSagas().collect(Collectors.toList());
+            assertEquals(entries.size(), 2);
+            assertEquals(entries.get(0).getExecutionId(), "running");
+            assertEquals(entries.get(1).getNodeId(), "action1");
+        }
+    }
+
+    @Test
+    public void thatRetainedEntriesFollowWritesTruncatesAndCheckpoints() throws IOException {
+        try (FileSagaLog sagaLog = open(1024)) {
+            SagaLogEntry first = null;
+            for (int i = 0; i < 20; i++) {
+                Deque<SagaLogEntry> entries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, "completed-" + i);
+                if (first == null) {
+                    first = entries.getFirst();
+                }
+            }
+            SagaLogEntry running = sagaLog.write(sagaLog.builder().startSaga("running", "Vanilla-Saga", "{}")).join();
+            assertEquals(sagaLog.retainedEntries(), sagaLog.readIncompleteSagas().count());
+
+            sagaLog.truncate(first.getId()).join();
+            assertEquals(sagaLog.retainedEntries(), sagaLog.readIncompleteSagas().count());
+
+            sagaLog.checkpoint().join();
+            sagaLog.write(sagaLog.builder().startAction("running", "action1")).join();
+            sagaLog.write(sagaLog.builder().startSaga("other", "Vanilla-Saga", "{}")).join();
+            assertEquals(sagaLog.retainedEntries(), sagaLog.readIncompleteSagas().count());
+
+            sagaLog.truncate(running.getId()).join();
+            assertEquals(sagaLog.retainedEntries(), 2);
+        }
+        try (FileSagaLog sagaLog = open(1024)) {
+            assertEquals(sagaLog.retainedEntries(), 2);
+            sagaLog.truncate().join();
+            assertEquals(sagaLog.retainedEntries(), 0);
+        }
+    }
+
+    @Test
+    public void thatCheckpointsBuildOnPreviousCheckpoint() throws IOException {
+        try (FileSagaLog sagaLog = open(1024)) {
+            sagaLog.write(sagaLog.builder().startSaga("e1", "Vanilla-Saga", "{}")).join();
+            sagaLog.write(sagaLog.builder().startSaga("e2", "Vanilla-Saga", "{}")).join();
+            sagaLog.checkpoint().join();
+            sagaLog.write(sagaLog.builder().endSaga("e1")).join();
+            SagaLogEntry e3 = sagaLog.write(sagaLog.builder().startSaga("e3", "Vanilla-Saga", "{}")).join();
+            sagaLog.checkpoint().join();
+            assertEquals(sagaLog.readIncompleteSagas().map(SagaLogEntry::getExecutionId).collect(Collectors.toList()), List.of("e2", "e3"));
+
+            sagaLog.truncate(e3.getId()).join();
+            assertEquals(sagaLog.readIncompleteSagas().count(), 0);
+        }
+        try (FileSagaLog sagaLog = open(1024)) {
+            assertEquals(sagaLog.readIncompleteSagas().count(), 0);
+        }
+    }
+
+    @Test
+    public void thatTruncateToCheckpointedEntryWorks() throws IOException {
+        try (FileSagaLog sagaLog = open(1024)) {
+            SagaLogEntry e1 = sagaLog.write(sagaLog.builder().startSaga("e1", "Vanilla-Saga", "{}")).join();
+            SagaLogEntry e2 = sagaLog.write(sagaLog.builder().startSaga("e2", "Vanilla-Saga", "{}")).join();
+            sagaLog.checkpoint().join();
+            SagaLogEntry e3 = sagaLog.write(sagaLog.builder().startSaga("e3", "Vanilla-Saga", "{}")).join();
+
+            sagaLog.truncate(e1.getId()).join();
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(e2, e3));
+        }
+        try (FileSagaLog sagaLog = open(1024)) {
+            assertEquals(sagaLog.readIncompleteSagas().map(SagaLogEntry::getExecutionId).collect(Collectors.toList()), List.of("e2", "e3"));
+        }
+    }
+
+    @Test
+    public void thatCheckpointsAreTakenInBackgroundWhileWriting() throws Exception {
+        try (FileSagaLog sagaLog = new FileSagaLog(new FileSagaLogId("01", "test"), folder, 1024, SagaLogFsyncPolicy.PerBatch, 0, 2048)) {
+            for (int i = 0; i < 200; i++) {
+                writeSuccessfulVanillaSagaExecutionEntries(sagaLog, "completed-" + i);
+            }
+            SagaLogEntry running = sagaLog.write(sagaLog.builder().startSaga("running", "Vanilla-Saga", "{}")).join();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!Files.exists(folder.resolve(FileSagaLogCheckpoint.FILE_NAME)) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.exists(folder.resolve(FileSagaLogCheckpoint.FILE_NAME)));
+            sagaLog.checkpoint().join();
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(running));
+            assertTrue(segmentCount() <= 2);
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> list = Files.list(folder)) {
+            return list.filter(FileSagaLogSegment::isSegmentFile).count();
+        }
+    }
+
+    private Deque<SagaLogEntry> writeSuccessfulVanillaSagaExecutionEntries(FileSagaLog sagaLog, String executionId) {
+        Deque<SagaLogEntryBuilder> entryBuilders = new LinkedList<>();
+        entryBuilders.add(sagaLog.builder().startSaga(executionId, "Vanilla-Saga", "{\"input\":\"value\"}"));
+        entryBuilders.add(sagaLog.builder().startAction(executionId, "action1"));
+        entryBuilders.add(sagaLog.builder().startAction(executionId, "action2"));
+        entryBuilders.add(sagaLog.builder().endAction(executionId, "action1", "{}"));
+        entryBuilders.add(sagaLog.builder().endAction(executionId, "action2", "{}"));
+        entryBuilders.add(sagaLog.builder().endSaga(executionId));
+
+        Deque<SagaLogEntry> entries = new LinkedList<>();
+        for (SagaLogEntryBuilder builder : entryBuilders) {
+            CompletableFuture<SagaLogEntry> entryFuture = sagaLog.write(builder);
+            entries.add(entryFuture.join());
+        }
+        return entries;
+    }
+
+    @Test
+    public void thatIdsCompareInLogOrderAndRoundTrip() throws IOException {
+        try (FileSagaLog sagaLog = open(4096)) {
+            SagaLogEntry first = sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+            SagaLogEntry second = sagaLog.write(sagaLog.builder().startSaga("e2", "the-saga", "{}")).join();
+            assertTrue(sagaLog.compare(first.getId(), second.getId()) < 0);
+            assertEquals(sagaLog.compare(second.getId(), sagaLog.fromBytes(sagaLog.toBytes(second.getId()))), 0);
+        }
+    }
+
+    @Test
+    public void thatCloseCompletesWhileCallbacksOfWritesKeepWriting() throws Exception {
+        FileSagaLog sagaLog = open(4096);
+        CompletableFuture<Void> writing = writeUntilClosed(sagaLog, 0);
+        Thread.sleep(50);
+        CompletableFuture.runAsync(() -> {
+            try {
+                sagaLog.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).get(5, TimeUnit.SECONDS);
+        expectThrows(ExecutionException.class, () -> writing.get(5, TimeUnit.SECONDS));
+    }
+
+    private CompletableFuture<Void> writeUntilClosed(FileSagaLog sagaLog, int i) {
+        return sagaLog.write(sagaLog.builder().startAction("e" + i, "n" + i))
+                .thenCompose(entry -> writeUntilClosed(sagaLog, i + 1));
+    }
+
+    @Test
+    public void thatPooledBuildersAreEncodedAndReturnedAfterWrite() throws IOException {
+        String largeJson = "\"" + "x".repeat(FileSagaLogSegment.MAX_RETAINED_RECORD_BUFFER_SIZE) + "\"";
+        List<SagaLogEntry> written = new LinkedList<>();
+        try (FileSagaLog sagaLog = open(1024)) {
+            SagaLogEntryBuilder builder = sagaLog.pooledBuilder().startSaga("e1", "the-saga", "{}");
+            written.add(sagaLog.write(builder).join());
+            assertSame(sagaLog.pooledBuilder(), builder);
+            written.add(sagaLog.write(builder.endAction("e1", "n1", largeJson)).join());
+            written.addAll(sagaLog.writeAll(List.of(
+                    sagaLog.pooledBuilder().startAction("e1", "n2"),
+                    sagaLog.pooledBuilder().endAction("e1", "n2", "{\"k\":\"\u00e6\"}"))).join());
+
+            SagaLogEntryBuilder invalid = sagaLog.pooledBuilder().executionId("e1");
+            expectThrows(NullPointerException.class, () -> sagaLog.writeAll(List.of(invalid)));
+            assertSame(sagaLog.pooledBuilder(), invalid);
+        }
+        try (FileSagaLog sagaLog = open(1024)) {
+            assertEquals(sagaLog.readEntries("e1").collect(Collectors.toList()), written);
+            assertEquals(written.get(1).getJsonData(), largeJson);
+        }
+    }
+
+    @Test
+    public void thatRepeatedStringsAreStoredOncePerSegmentAndReadAfterTruncateAndReopen() throws IOException {
+        String executionId = UUID.randomUUID().toString();
+        List<SagaLogEntry> written = new LinkedList<>();
+        try (FileSagaLog sagaLog = open(4096)) {
+            written.add(sagaLog.write(sagaLog.builder().startSaga(executionId, "Vanilla-Saga", "{}")).join());
+            for (int i = 0; i < 20; i++) {
+                written.add(sagaLog.write(sagaLog.builder().startAction(executionId, "action" + (i % 4))).join());
+            }
+            long recordSize = Long.parseLong(sagaLog.toString(written.get(20).getId())) - Long.parseLong(sagaLog.toString(written.get(19).getId()));
+            assertEquals(recordSize, FileSagaLogSegment.RECORD_HEADER_SIZE + 6); // version, jsonData, type and three references
+            sagaLog.truncate(written.get(9).getId()).join();
+        }
+        try (FileSagaLog sagaLog = open(4096)) {
+            written.add(sagaLog.write(sagaLog.builder().endSaga(executionId)).join());
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), written.subList(10, written.size()));
+        }
+        try (FileSagaLog sagaLog = open(4096)) {
+            List<SagaLogEntry> entries = sagaLog.readEntries(executionId).collect(Collectors.toList());
+            assertEquals(entries, written.subList(10, written.size()));
+            assertSame(entries.get(1).getExecutionId(), entries.get(0).getExecutionId());
+        }
+    }
+
+    @Test
+    public void thatStringsOfARecordThatFailedToAppendAreNotReferencedByLaterRecords() throws IOException {
+        try (FileSagaLog sagaLog = open(4096)) {
+            SagaLogEntry first = sagaLog.write(sagaLog.builder().startAction("e1", "n1")).join();
+            SagaLogEntryBuilder small = new SagaLogEntryBuilder().startAction("e2", "n");
+            int slotSize = FileSagaLogSegment.recordSlotSize(small);
+            ByteBuffer record = FileSagaLogSegment.recordBuffer(slotSize);
+            CRC32 crc = FileSagaLogSegment.checksums(1)[0];
+            FileSagaLogSegment.encodeRecordHead(small, slotSize, record, crc);
+            record.flip();
+            SagaLogEntryBuilder tooLarge = new SagaLogEntryBuilder().startAction("e2", "n".repeat(100));
+            synchronized (sagaLog) {
+                expectThrows(BufferOverflowException.class, () -> sagaLog.append(tooLarge, record, crc));
+            }
+
+            SagaLogEntry second = sagaLog.write(sagaLog.builder().startAction("e2", "n2")).join();
+            assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(first, second));
+        }
+        try (FileSagaLog sagaLog = open(4096)) {
+            assertEquals(sagaLog.readIncompleteSagas().map(SagaLogEntry::getExecutionId).collect(Collectors.toList()), List.of("e1", "e2"));
+        }
+    }
+
+    @Test
+    public void thatVersion1SegmentsAreStillRead() throws IOException {
+        SagaLogEntry v1 = new SagaLogEntryBuilder().startSaga("e1", "Vanilla-Saga", "{}").id(new FileSagaLogEntryId(0)).build();
+        int payloadLength = SagaLogEntryCodec.encodedSize(v1);
+        ByteBuffer record = ByteBuffer.allocate(FileSagaLogSegment.RECORD_HEADER_SIZE + payloadLength);
+        record.putInt(payloadLength).putInt(0);
+        SagaLogEntryCodec.encode(v1, record);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), FileSagaLogSegment.RECORD_HEADER_SIZE, payloadLength);
+        record.putInt(4, (int) crc.getValue()).flip();
+        FileSagaLogSegment segment = FileSagaLogSegment.create(folder, 0, 4096);
+        segment.append(0, record);
+        segment.force();
+        segment.close();
+
+        try (FileSagaLog sagaLog = open(4096)) {
+            SagaLogEntry v2 = sagaLog.write(sagaLog.builder().startAction("e1", "action1")).join();
+            assertEquals(sagaLog.readEntries("e1").collect(Collectors.toList()), List.of(v1, v2));
+        }
+        try (FileSagaLog sagaLog = open(4096)) {
+            assertEquals(sagaLog.readEntries("e1").map(SagaLogEntry::getNodeId).collect(Collectors.toList()), List.of("S", "action1"));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package no.ssb.sagalog.memory;
+
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MemorySagaLogEntriesTest {
+
+    static SagaLogEntry entry(long id) {
+        return new SagaLogEntryBuilder().id(new MemorySagaLogEntryId(id)).startAction("e" + id, "n").build();
+    }
+
+    static List<Long> ids(Iterator<SagaLogEntry> iterator) {
+        List<Long> ids = new ArrayList<>();
+        iterator.forEachRemaining(e -> ids.add(((MemorySagaLogEntryId) e.getId()).id));
+        return ids;
+    }
+
+    @Test
+    public void thatTruncateDropsWholeChunks() {
+        MemorySagaLogEntries entries = new MemorySagaLogEntries();
+        for (long id = 0; id < 5 * MemorySagaLogEntries.CHUNK_SIZE; id++) {
+            entries.put(id, entry(id));
+        }
+        assertEquals(entries.chunkCount(), 5);
+
+        long truncateId = 3 * MemorySagaLogEntries.CHUNK_SIZE + 10;
+        entries.truncate(truncateId);
+
+        assertEquals(entries.chunkCount(), 2);
+        assertNull(entries.get(truncateId));
+        assertEquals(entries.get(truncateId + 1).getExecutionId(), "e" + (truncateId + 1));
+        List<Long> remaining = ids(entries.iterator());
+        assertEquals(remaining.size(), 5 * MemorySagaLogEntries.CHUNK_SIZE - truncateId - 1);
+        assertEquals(remaining.get(0), Long.valueOf(truncateId + 1));
+    }
+
+    @Test
+    public void thatTruncateAtChunkBoundaryDropsChunk() {
+        MemorySagaLogEntries entries = new MemorySagaLogEntries();
+        for (long id = 0; id < 2 * MemorySagaLogEntries.CHUNK_SIZE + 1; id++) {
+            entries.put(id, entry(id));
+        }
+        entries.truncate(MemorySagaLogEntries.CHUNK_SIZE - 1);
+        assertEquals(entries.chunkCount(), 2);
+        entries.truncate(2 * MemorySagaLogEntries.CHUNK_SIZE - 1);
+        assertEquals(entries.chunkCount(), 1);
+        assertEquals(ids(entries.iterator()), List.of(2L * MemorySagaLogEntries.CHUNK_SIZE));
+    }
+
+    @Test
+    public void thatSparseIdsAreOrdered() {
+        MemorySagaLogEntries entries = new MemorySagaLogEntries();
+        entries.put(1, entry(1));
+        entries.put(100_000, entry(100_000));
+        entries.put(5_000, entry(5_000));
+        assertEquals(entries.chunkCount(), 3);
+        assertEquals(ids(entries.iterator()), List.of(1L, 5_000L, 100_000L));
+        assertEquals(entries.lastId(), 100_000);
+    }
+
+    @Test
+    public void thatEmptyChunksAreDroppedFromTheMiddle() {
+        MemorySagaLogEntries entries = new MemorySagaLogEntries();
+        int size = MemorySagaLogEntries.CHUNK_SIZE;
+        for (long id = 0; id < 3 * size + 1; id++) {
+            entries.put(id, entry(id));
+        }
+        for (long id = 1; id < 4 * size; id++) {
+            entries.remove(id);
+        }
+        assertEquals(entries.chunkCount(), 4);
+
+        assertFalse(entries.dropIfEmpty(0)); // head
+        assertTrue(entries.dropIfEmpty(size));
+        assertTrue(entries.dropIfEmpty(2 * size + 5));
+        assertFalse(entries.dropIfEmpty(3 * size)); // tail
+        assertEquals(entries.chunkCount(), 2);
+        assertEquals(ids(entries.iterator()), List.of(0L));
+
+        // a late write to a dropped chunk links in a new chunk
+        entries.put(size + 7, entry(size + 7));
+        assertEquals(entries.chunkCount(), 3);
+        assertEquals(ids(entries.iterator()), List.of(0L, size + 7L));
+    }
+
+    @Test
+    public void thatChunkWithClaimedButUnpublishedSlotIsNotDropped() {
+        MemorySagaLogEntries entries = new MemorySagaLogEntries();
+        int size = MemorySagaLogEntries.CHUNK_SIZE;
+        for (long id = 0; id < 2 * size + 1; id++) {
+            if (id != size + 3) { // claimed by a slow writer
+                entries.put(id, entry(id));
+            }
+        }
+        for (long id = size; id < 2 * size; id++) {
+            entries.remove(id);
+        }
+        assertFalse(entries.dropIfEmpty(size));
+        entries.put(size + 3, entry(size + 3));
+        assertEquals(entries.get(size + 3).getExecutionId(), "e" + (size + 3));
+        entries.remove(size + 3);
+        assertTrue(entries.dropIfEmpty(size));
+    }
+
+    @Test
+    public void thatConcurrentWritersDoNotLoseEntriesToCompaction() throws Exception {
+        MemorySagaLogEntries entries = new MemorySagaLogEntries();
+        int size = MemorySagaLogEntries.CHUNK_SIZE;
+        long idCount = 64L * size;
+        long keepSlot = 3;
+        AtomicLong nextId = new AtomicLong();
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            futures.add(writers.submit(() -> {
+                for (long id = nextId.getAndIncrement(); id < idCount; id = nextId.getAndIncrement()) {
+                    if ((id & MemorySagaLogEntries.CHUNK_MASK) == keepSlot) {
+                        entries.allocate(id, 16); // resolves the chunk, then publishes late
+                        Thread.sleep(1);
+                    }
+                    entries.put(id, entry(id));
+                }
+                return null;
+            }));
+        }
+        Runnable compact = () -> {
+            long last = entries.lastId();
+            for (long id = 0; id <= last; id++) {
+                if ((id & MemorySagaLogEntries.CHUNK_MASK) != keepSlot && entries.get(id) != null) {
+                    entries.remove(id);
+                }
+            }
+            for (long id = size; id <= last; id += size) {
+                entries.dropIfEmpty(id);
+            }
+        };
+        AtomicBoolean done = new AtomicBoolean();
+        Thread compactor = new Thread(() -> {
+            while (!done.get()) {
+                compact.run();
+            }
+        });
+        compactor.start();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        writers.shutdown();
+        done.set(true);
+        compactor.join();
+        compact.run();
+
+        List<Long> expected = new ArrayList<>();
+        for (long id = keepSlot; id < idCount; id += size) {
+            expected.add(id);
+            assertEquals(entries.get(id).getExecutionId(), "e" + id);
+        }
+        assertEquals(ids(entries.iterator()), expected);
+
+        for (long id = keepSlot; id < idCount; id += size) {
+            entries.remove(id);
+        }
+        for (long id = size; id < idCount; id += size) {
+            entries.dropIfEmpty(id);
+        }
+        assertEquals(entries.chunkCount(), 2); // head and tail
+    }
+}
@@ -1,16 +1,33 @@
 package no.ssb.sagalog.memory;
 
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogBudgetExceededException;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogEntryBuilder;
 import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogOwner;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
 
 public class MemorySagaLogPoolTest {
 
@@ -45,4 +62,119 @@ public class MemorySagaLogPoolTest {
     void thatConnectExternalProducesANonNullSagaLog() {
         assertNotNull(pool.connectExternal(pool.registerInstanceLocalIdFor("anyId")));
     }
+
+    @Test
+    public void thatWriteOverLogBudgetFailsWhenNoDelayIsAllowed() {
+        MemorySagaLogPool budgetPool = new MemorySagaLogPool("PoolTestInstance01", 4 * MemorySagaLog.ENTRY_OVERHEAD_BYTES, 0, Duration.ZERO);
+        try {
+            budgetPool.registerInstanceLocalIdFor("l1");
+            SagaLog sagaLog = budgetPool.tryAcquire(new SagaLogOwner("owner"));
+            for (int i = 0; i < 4; i++) {
+                sagaLog.write(sagaLog.builder().startSaga("e" + i, "the-saga", null)).join();
+            }
+            CompletionException e = expectThrows(CompletionException.class, () -> sagaLog.write(sagaLog.builder().startSaga("e4", "the-saga", null)).join());
+            assertTrue(e.getCause() instanceof SagaLogBudgetExceededException);
+            assertEquals(budgetPool.metrics().writesRejected(), 1);
+
+            sagaLog.truncate().join();
+            sagaLog.write(sagaLog.builder().startSaga("e5", "the-saga", null)).join();
+        } finally {
+            budgetPool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatWriteOverPoolBudgetIsDelayedUntilAnotherLogIsTruncated() throws Exception {
+        MemorySagaLogPool budgetPool = new MemorySagaLogPool("PoolTestInstance01", 0, 4 * MemorySagaLog.ENTRY_OVERHEAD_BYTES, Duration.ofSeconds(10));
+        try {
+            budgetPool.registerInstanceLocalIdFor("l1");
+            budgetPool.registerInstanceLocalIdFor("l2");
+            SagaLog first = budgetPool.tryAcquire(new SagaLogOwner("first"));
+            SagaLog second = budgetPool.tryAcquire(new SagaLogOwner("second"));
+            for (int i = 0; i < 4; i++) {
+                first.write(first.builder().startSaga("e" + i, "the-saga", null)).join();
+            }
+            assertTrue(budgetPool.retainedBytes() >= 4 * MemorySagaLog.ENTRY_OVERHEAD_BYTES);
+            SagaLogEntryBuilder builder = second.pooledBuilder().startSaga("e4", "the-saga", null);
+            CompletableFuture<SagaLogEntry> delayed = second.write(builder);
+            assertSame(second.pooledBuilder(), builder); // returned to the pool of this thread, the delayed write uses a copy
+            CompletableFuture<SagaLogEntry> delayedToo = second.write(builder.startSaga("e5", "the-saga", null));
+            Thread.sleep(50);
+            assertFalse(delayed.isDone());
+
+            first.truncate().join();
+
+            assertEquals(delayed.get(5, TimeUnit.SECONDS).getExecutionId(), "e4");
+            assertEquals(delayedToo.get(5, TimeUnit.SECONDS).getExecutionId(), "e5");
+            assertEquals(second.readIncompleteSagas().map(SagaLogEntry::getExecutionId).collect(Collectors.toList()), List.of("e4", "e5"));
+        } finally {
+            budgetPool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatDelayedWriteFailsAfterMaxDelay() {
+        MemorySagaLogPool budgetPool = new MemorySagaLogPool("PoolTestInstance01", MemorySagaLog.ENTRY_OVERHEAD_BYTES, 0, Duration.ofMillis(20));
+        try {
+            budgetPool.registerInstanceLocalIdFor("l1");
+            SagaLog sagaLog = budgetPool.tryAcquire(new SagaLogOwner("owner"));
+            sagaLog.write(sagaLog.builder().startSaga("e0", "the-saga", null)).join();
+            CompletionException e = expectThrows(CompletionException.class, () -> sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", null)).join());
+            assertTrue(e.getCause() instanceof SagaLogBudgetExceededException);
+        } finally {
+            budgetPool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatOnlyReleasedFullyTruncatedIdleLogsAreEvicted() {
+        SagaLogId l1 = pool.registerInstanceLocalIdFor("l1");
+        SagaLogId l2 = pool.registerInstanceLocalIdFor("l2");
+        SagaLogId l3 = pool.registerInstanceLocalIdFor("l3");
+        SagaLog truncated = pool.tryTakeOwnership(new SagaLogOwner("owner"), l1);
+        truncated.write(truncated.builder().startSaga("e0", "the-saga", "{}")).join();
+        truncated.truncate().join();
+        pool.release(l1);
+        SagaLog incomplete = pool.tryTakeOwnership(new SagaLogOwner("owner"), l2);
+        incomplete.write(incomplete.builder().startSaga("e1", "the-saga", "{}")).join();
+        pool.release(l2);
+        SagaLog owned = pool.tryTakeOwnership(new SagaLogOwner("owner"), l3);
+
+        assertEquals(pool.evictIdleLogs(TimeUnit.HOURS.toNanos(1)), 0); // not idle long enough
+        assertEquals(pool.evictIdleLogs(0), 1);
+        assertEquals(pool.metrics().evicted(), 1);
+
+        assertEquals(pool.instanceLocalLogIds(), Set.of(l1, l2, l3));
+        SagaLog reconnected = pool.tryTakeOwnership(new SagaLogOwner("owner"), l1);
+        assertNotSame(reconnected, truncated);
+        assertSame(pool.tryTakeOwnership(new SagaLogOwner("owner"), l2), incomplete);
+        assertNotNull(owned);
+    }
+
+    @Test
+    public void thatEvictionIsDisabledByDefaultAndStoppedByShutdown() {
+        MemorySagaLogPool initialized = new MemorySagaLogInitializer().initialize(Map.of());
+        try {
+            assertFalse(initialized.isEvictionEnabled());
+            initialized.enableEviction(Duration.ofMinutes(1), Duration.ofMinutes(1));
+            assertTrue(initialized.isEvictionEnabled());
+        } finally {
+            initialized.shutdown();
+        }
+        assertFalse(initialized.isEvictionEnabled());
+        expectThrows(IllegalStateException.class, () -> initialized.enableEviction(Duration.ofMinutes(1), Duration.ofMinutes(1)));
+    }
+
+    @Test
+    public void thatPoolWithEvictionIsCollectedWithoutShutdown() throws InterruptedException {
+        MemorySagaLogPool dropped = new MemorySagaLogPool("DroppedInstance");
+        dropped.enableEviction(Duration.ofMillis(1), Duration.ofMinutes(1));
+        WeakReference<MemorySagaLogPool> droppedRef = new WeakReference<>(dropped);
+        dropped = null;
+        for (int i = 0; i < 100 && droppedRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(droppedRef.get(), null);
+    }
 }
@@ -12,9 +12,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
 
 public class MemorySagaLogTest {
 
@@ -79,6 +86,216 @@ public class MemorySagaLogTest {
         assertEquals(secondFlattenedSnapshot, Set.copyOf(secondEntries));
     }
 
+    @Test
+    public void thatReadEntriesOnlyReturnsEntriesAfterTruncatePoint() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+
+        String executionId = UUID.randomUUID().toString();
+        SagaLogEntry start = sagaLog.write(sagaLog.builder().startSaga(executionId, "Vanilla-Saga", "{}")).join();
+        SagaLogEntry action1 = sagaLog.write(sagaLog.builder().startAction(executionId, "action1")).join();
+        Deque<SagaLogEntry> otherEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+        SagaLogEntry action1End = sagaLog.write(sagaLog.builder().endAction(executionId, "action1", "{}")).join();
+
+        sagaLog.truncate(otherEntries.getFirst().getId()).join();
+
+        assertEquals(sagaLog.readEntries(executionId).collect(Collectors.toList()), List.of(action1End));
+        assertEquals(sagaLog.getSnapshotOfSagaLogEntriesByNodeId(executionId), Map.of("action1", List.of(action1End)));
+        assertEquals(sagaLog.readEntries(otherEntries.getFirst().getExecutionId()).count(), 5);
+        assertEquals(sagaLog.readEntries("unknown").count(), 0);
+    }
+
+    @Test
+    public void thatTruncateRemovesTruncatedExecutionsFromIndex() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+
+        Deque<SagaLogEntry> lastEntries = null;
+        for (int i = 0; i < 100; i++) {
+            lastEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+        }
+        assertEquals(sagaLog.indexedExecutionCount(), 100);
+        Deque<SagaLogEntry> remainingEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+
+        sagaLog.truncate(lastEntries.getLast().getId()).join();
+
+        assertEquals(sagaLog.indexedExecutionCount(), 1);
+        assertEquals(sagaLog.readEntries(lastEntries.getFirst().getExecutionId()).count(), 0);
+        assertEquals(sagaLog.readEntries(remainingEntries.getFirst().getExecutionId()).collect(Collectors.toList()), remainingEntries);
+    }
+
+    @Test
+    public void thatJsonDataIsKeptOffHeapAndReleasedOnTruncate() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+
+        String largeJson = "{\"data\":\"" + "x".repeat(200_000) + "\"}";
+        SagaLogEntry lastEntry = null;
+        for (int i = 0; i < 2 * MemorySagaLogEntries.CHUNK_SIZE; i++) {
+            lastEntry = sagaLog.write(sagaLog.builder().startSaga("e" + i, "Large-Saga", i % 100 == 0 ? largeJson : "{}")).join();
+        }
+        assertEquals(sagaLog.readEntries("e100").findFirst().orElseThrow().getJsonData(), largeJson);
+        assertEquals(sagaLog.readEntries("e101").findFirst().orElseThrow().getJsonData(), "{}");
+        assertTrue(sagaLog.offHeapBytes() > 20 * 200_000, "offHeapBytes: " + sagaLog.offHeapBytes());
+
+        sagaLog.write(sagaLog.builder().startSaga("remaining", "Large-Saga", largeJson)).join();
+        sagaLog.truncate(lastEntry.getId()).join();
+
+        assertTrue(sagaLog.offHeapBytes() < 2 * 200_000, "offHeapBytes: " + sagaLog.offHeapBytes());
+        assertEquals(sagaLog.readEntries("remaining").findFirst().orElseThrow().getJsonData(), largeJson);
+    }
+
+    @Test
+    public void thatConcurrentWritesAreReadInIdOrder() throws InterruptedException {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+
+        int threadCount = 8;
+        int writesPerThread = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            String executionId = "e" + t;
+            executor.execute(() -> {
+                for (int i = 0; i < writesPerThread; i++) {
+                    sagaLog.write(sagaLog.builder().endAction(executionId, "action" + (i % 10), "{\"i\":" + i + "}"));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        List<SagaLogEntry> entries = sagaLog.readIncompleteSagas().collect(Collectors.toList());
+        assertEquals(entries.size(), threadCount * writesPerThread);
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(((MemorySagaLogEntryId) entries.get(i).getId()).id, i);
+        }
+        for (int t = 0; t < threadCount; t++) {
+            List<SagaLogEntry> executionEntries = sagaLog.readEntries("e" + t).collect(Collectors.toList());
+            assertEquals(executionEntries.size(), writesPerThread);
+            assertEquals(executionEntries.get(writesPerThread - 1).getJsonData(), "{\"i\":" + (writesPerThread - 1) + "}");
+        }
+    }
+
+    @Test
+    public void thatWriteAllAssignsContiguousIds() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        sagaLog.write(sagaLog.builder().startSaga("e0", "Vanilla-Saga", "{}")).join();
+
+        List<SagaLogEntry> entries = sagaLog.writeAll(List.of(
+                sagaLog.builder().startSaga("e1", "Vanilla-Saga", "{\"input\":\"value\"}"),
+                sagaLog.builder().startAction("e1", "action1"),
+                sagaLog.builder().startAction("e1", "action2")
+        )).join();
+
+        assertEquals(entries.size(), 3);
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(((MemorySagaLogEntryId) entries.get(i).getId()).id, i + 1);
+        }
+        assertEquals(entries.get(0).getJsonData(), "{\"input\":\"value\"}");
+        assertEquals(sagaLog.readEntries("e1").collect(Collectors.toList()), entries);
+        assertEquals(sagaLog.write(sagaLog.builder().endSaga("e1")).join().getId(), new MemorySagaLogEntryId(4));
+    }
+
+    @Test
+    public void thatWriteAllWithGivenIdsFallsBackToSingleWrites() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        List<SagaLogEntry> entries = sagaLog.writeAll(List.of(
+                sagaLog.builder().id(new MemorySagaLogEntryId(7)).startSaga("e1", "Vanilla-Saga", "{}"),
+                sagaLog.builder().startAction("e1", "action1")
+        )).join();
+        assertEquals(entries.get(0).getId(), new MemorySagaLogEntryId(7));
+        assertEquals(entries.get(1).getId(), new MemorySagaLogEntryId(8));
+    }
+
+    @Test
+    public void thatCompactRemovesEndedExecutionsBehindRunningSaga() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+
+        SagaLogEntry runningStart = sagaLog.write(sagaLog.builder().startSaga("running", "Vanilla-Saga", "{}")).join();
+        Deque<SagaLogEntry> lastEntries = null;
+        for (int i = 0; i < 100; i++) {
+            lastEntries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, UUID.randomUUID().toString());
+        }
+        SagaLogEntry runningAction = sagaLog.write(sagaLog.builder().startAction("running", "action1")).join();
+        assertEquals(sagaLog.indexedExecutionCount(), 101);
+
+        sagaLog.compact().join();
+
+        assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(runningStart, runningAction));
+        assertEquals(sagaLog.indexedExecutionCount(), 1);
+        assertEquals(sagaLog.retainedEntries(), 2);
+        assertEquals(sagaLog.readEntries(lastEntries.getFirst().getExecutionId()).count(), 0);
+
+        // truncate to the id of a compacted entry still truncates
+        sagaLog.truncate(lastEntries.getLast().getId()).join();
+        assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(runningAction));
+        assertEquals(sagaLog.retainedEntries(), 1);
+    }
+
+    @Test
+    public void thatPartialTruncateOfAnEarlierExecutionDoesNotHideLaterExecutionsFromTruncate() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        SagaLogEntry aStart = sagaLog.write(sagaLog.builder().startSaga("A", "Vanilla-Saga", "{}")).join();
+        SagaLogEntry bStart = sagaLog.write(sagaLog.builder().startSaga("B", "Vanilla-Saga", "{}")).join();
+        SagaLogEntry aAction = sagaLog.write(sagaLog.builder().startAction("A", "action1")).join();
+
+        sagaLog.truncate(aStart.getId()).join();
+        sagaLog.truncate(bStart.getId()).join();
+
+        assertEquals(sagaLog.readIncompleteSagas().collect(Collectors.toList()), List.of(aAction));
+        assertEquals(sagaLog.readEntries("B").count(), 0);
+        assertTrue(sagaLog.getSnapshotOfSagaLogEntriesByNodeId("B").isEmpty());
+        assertEquals(sagaLog.readEntries("A").collect(Collectors.toList()), List.of(aAction));
+        assertEquals(sagaLog.indexedExecutionCount(), 1);
+        assertEquals(sagaLog.retainedEntries(), 1);
+    }
+
+    @Test
+    public void thatExecutionWithoutStartOfSagaIsNotCompacted() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+
+        Deque<SagaLogEntry> entries = writeSuccessfulVanillaSagaExecutionEntries(sagaLog, "e1");
+        sagaLog.truncate(entries.getFirst().getId()).join();
+        sagaLog.compact().join();
+
+        assertEquals(sagaLog.readIncompleteSagas().count(), entries.size() - 1);
+    }
+
+    @Test
+    public void thatBackgroundCompactionDropsEmptyChunks() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"), Runnable::run);
+
+        sagaLog.write(sagaLog.builder().startSaga("running", "Vanilla-Saga", "{}")).join();
+        int executions = 4 * MemorySagaLog.COMPACTION_BATCH_SIZE;
+        for (int i = 0; i < executions; i++) {
+            writeSuccessfulVanillaSagaExecutionEntries(sagaLog, "e" + i);
+        }
+        assertTrue(sagaLog.chunkCount() <= 3, "chunkCount: " + sagaLog.chunkCount());
+        assertTrue(sagaLog.indexedExecutionCount() < MemorySagaLog.COMPACTION_BATCH_SIZE, "indexed: " + sagaLog.indexedExecutionCount());
+        assertTrue(sagaLog.offHeapBytes() < 3 * MemorySagaLogArena.MAX_BLOCK_SIZE, "offHeapBytes: " + sagaLog.offHeapBytes());
+
+        sagaLog.compact().join();
+        assertEquals(sagaLog.readIncompleteSagas().map(SagaLogEntry::getExecutionId).collect(Collectors.toSet()), Set.of("running"));
+
+        // writes after compaction go to the tail chunk as before
+        SagaLogEntry last = sagaLog.write(sagaLog.builder().startAction("running", "action1")).join();
+        assertEquals(sagaLog.readIncompleteSagas().count(), 2);
+        sagaLog.truncate(last.getId()).join();
+        assertEquals(sagaLog.readIncompleteSagas().count(), 0);
+    }
+
+    @Test
+    public void thatBackgroundCompactionRunsOnTheCompactionExecutorByDefault() throws InterruptedException {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        long completedTasks = MemorySagaLog.COMPACTION_EXECUTOR.getCompletedTaskCount();
+
+        for (int i = 0; i < MemorySagaLog.COMPACTION_BATCH_SIZE; i++) {
+            writeSuccessfulVanillaSagaExecutionEntries(sagaLog, "e" + i);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (MemorySagaLog.COMPACTION_EXECUTOR.getCompletedTaskCount() == completedTasks && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(MemorySagaLog.COMPACTION_EXECUTOR.getCompletedTaskCount() > completedTasks);
+        assertEquals(sagaLog.indexedExecutionCount(), 0);
+    }
+
     private Deque<SagaLogEntry> writeSuccessfulVanillaSagaExecutionEntries(MemorySagaLog sagaLog, String executionId) {
         Deque<SagaLogEntryBuilder> entryBuilders = new LinkedList<>();
         entryBuilders.add(sagaLog.builder().startSaga(executionId, "Vanilla-Saga", "{}"));
@@ -95,4 +312,61 @@ public class MemorySagaLogTest {
         }
         return entries;
     }
+
+    @Test
+    public void thatIdsCompareInLogOrderAndRoundTrip() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        SagaLogEntry first = sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+        SagaLogEntry second = sagaLog.write(sagaLog.builder().startSaga("e2", "the-saga", "{}")).join();
+        assertTrue(sagaLog.compare(first.getId(), second.getId()) < 0);
+        assertTrue(sagaLog.compare(second.getId(), first.getId()) > 0);
+        assertEquals(sagaLog.compare(first.getId(), sagaLog.fromBytes(sagaLog.toBytes(first.getId()))), 0);
+        assertSame(sagaLog.fromBytes(sagaLog.toBytes(first.getId())), first.getId());
+        assertSame(sagaLog.fromString(sagaLog.toString(second.getId())), second.getId());
+        assertEquals(sagaLog.fromString(sagaLog.toString(second.getId())), second.getId());
+        assertEquals(sagaLog.fromString(sagaLog.toString(second.getId())).hashCode(), second.getId().hashCode());
+    }
+
+    @Test
+    public void thatInvalidWriteDoesNotTakeAnId() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        SagaLogEntry first = sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+        expectThrows(NullPointerException.class, () -> sagaLog.write(sagaLog.builder().executionId("e1")));
+        expectThrows(NullPointerException.class, () -> sagaLog.writeAll(List.of(
+                sagaLog.builder().startAction("e1", "n1"),
+                sagaLog.builder().executionId("e1"))));
+        SagaLogEntry second = sagaLog.write(sagaLog.builder().startAction("e1", "n1")).join();
+        assertEquals(sagaLog.toString(second.getId()), String.valueOf(Long.parseLong(sagaLog.toString(first.getId())) + 1));
+    }
+
+    @Test
+    public void thatPooledBuildersAreReturnedAfterWrite() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        SagaLogEntryBuilder builder = sagaLog.pooledBuilder().startSaga("e1", "the-saga", "{}");
+        SagaLogEntry first = sagaLog.write(builder).join();
+        assertNull(builder.id());
+        assertSame(sagaLog.pooledBuilder(), builder);
+        List<SagaLogEntry> batch = sagaLog.writeAll(List.of(
+                builder.startAction("e1", "n1"),
+                sagaLog.pooledBuilder().endAction("e1", "n1", "{\"k\":1}"))).join();
+
+        assertEquals(sagaLog.readEntries("e1").collect(Collectors.toList()), List.of(first, batch.get(0), batch.get(1)));
+        assertEquals(batch.get(1).getJsonData(), "{\"k\":1}");
+        assertNull(builder.executionId());
+
+        SagaLogEntryBuilder invalid = sagaLog.pooledBuilder().executionId("e1");
+        expectThrows(NullPointerException.class, () -> sagaLog.write(invalid));
+        assertSame(sagaLog.pooledBuilder(), invalid);
+    }
+
+    @Test
+    public void thatEntriesShareTheStringsOfTheLog() {
+        MemorySagaLog sagaLog = new MemorySagaLog(new MemorySagaLogId("01", "test"));
+        SagaLogEntry first = sagaLog.write(sagaLog.builder().startAction(new String("e1"), new String("action1"))).join();
+        SagaLogEntry second = sagaLog.write(sagaLog.builder().endAction(new String("e1"), new String("action1"), "{}")).join();
+        SagaLogEntry other = sagaLog.write(sagaLog.builder().startAction(new String("e2"), new String("action1"))).join();
+        assertSame(second.getExecutionId(), first.getExecutionId());
+        assertSame(second.getNodeId(), first.getNodeId());
+        assertSame(other.getNodeId(), first.getNodeId());
+    }
 }
@@ -0,0 +1,182 @@
+package no.ssb.sagalog.replication;
+
+import no.ssb.sagalog.SagaLog;
+import no.ssb.sagalog.SagaLogEntry;
+import no.ssb.sagalog.SagaLogId;
+import no.ssb.sagalog.SagaLogOwner;
+import no.ssb.sagalog.SagaLogPoolRecovery;
+import no.ssb.sagalog.memory.MemorySagaLogPool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ReplicatedSagaLogPoolTest {
+
+    MemorySagaLogPool followerPool;
+    SagaLogReplicationFollower follower;
+    ReplicatedSagaLogPool leaderPool;
+
+    @BeforeMethod
+    public void setup() {
+        followerPool = new MemorySagaLogPool("follower");
+        follower = new SagaLogReplicationFollower(followerPool);
+        leaderPool = new ReplicatedSagaLogPool(new MemorySagaLogPool("leader"), new InProcessSagaLogReplicationTransport(follower));
+    }
+
+    @AfterMethod
+    public void teardown() {
+        leaderPool.shutdown();
+        followerPool.shutdown();
+    }
+
+    @Test
+    public void thatWritesAreReplicatedWithLeaderIds() {
+        SagaLogId logId = leaderPool.registerInstanceLocalIdFor("replicated");
+        SagaLog sagaLog = leaderPool.tryAcquire(new SagaLogOwner("me"));
+        List<SagaLogEntry> written = List.of(
+                sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{\"input\":\"value\"}")).join(),
+                sagaLog.write(sagaLog.builder().startSaga("e2", "the-saga", "{}")).join(),
+                sagaLog.write(sagaLog.builder().startAction("e1", "n1")).join()
+        );
+        List<SagaLogEntry> batch = sagaLog.writeAll(List.of(
+                sagaLog.builder().endAction("e1", "n1", "{}"),
+                sagaLog.builder().startAction("e2", "n1")
+        )).join();
+
+        SagaLogId followerLogId = followerPool.idFor("leader", "replicated");
+        assertEquals(follower.replicatedLogIds(), Set.of(followerLogId));
+        List<SagaLogEntry> replicated = followerPool.connect(followerLogId).readIncompleteSagas().collect(Collectors.toList());
+        assertEquals(replicated.size(), 5);
+        assertEquals(replicated.subList(0, 3), written);
+        assertEquals(replicated.subList(3, 5), batch);
+        assertEquals(replicated.get(0).getJsonData(), "{\"input\":\"value\"}");
+        assertEquals(logId, sagaLog.id());
+    }
+
+    @Test
+    public void thatTruncateIsReplicated() {
+        leaderPool.registerInstanceLocalIdFor("replicated");
+        SagaLog sagaLog = leaderPool.tryAcquire(new SagaLogOwner("me"));
+        SagaLogEntry first = sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+        SagaLogEntry second = sagaLog.write(sagaLog.builder().startSaga("e2", "the-saga", "{}")).join();
+        sagaLog.truncate(first.getId()).join();
+
+        SagaLog replica = followerPool.connect(followerPool.idFor("leader", "replicated"));
+        assertEquals(replica.readIncompleteSagas().collect(Collectors.toList()), List.of(second));
+
+        sagaLog.truncate().join();
+        assertEquals(replica.readIncompleteSagas().count(), 0);
+    }
+
+    @Test
+    public void thatFollowerTakesOverWarmLogAndContinuesAfterLeaderIds() {
+        leaderPool.registerInstanceLocalIdFor("replicated");
+        SagaLog sagaLog = leaderPool.tryAcquire(new SagaLogOwner("me"));
+        sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+        SagaLogEntry last = sagaLog.write(sagaLog.builder().startAction("e1", "n1")).join();
+
+        SagaLogId followerLogId = followerPool.idFor("leader", "replicated");
+        SagaLog warm = followerPool.connect(followerLogId);
+        SagaLog takenOver = followerPool.tryTakeOwnership(new SagaLogOwner("successor"), followerLogId);
+        assertSame(takenOver, warm);
+        assertEquals(takenOver.getSnapshotOfSagaLogEntriesByNodeId("e1").keySet(), Set.of("S", "n1"));
+
+        SagaLogEntry next = takenOver.write(takenOver.builder().endAction("e1", "n1", "{}")).join();
+        assertEquals(takenOver.toString(next.getId()), String.valueOf(Long.parseLong(sagaLog.toString(last.getId())) + 1));
+    }
+
+    @Test
+    public void thatTruncateArrivingBeforeTheEntriesItTruncatesIsApplied() {
+        MemorySagaLogPool pool = new MemorySagaLogPool("leader");
+        try {
+            SagaLog leader = pool.connect(pool.registerInstanceLocalIdFor("replicated"));
+            SagaLogEntry first = leader.write(leader.builder().startSaga("e1", "the-saga", "{}")).join();
+            SagaLogEntry second = leader.write(leader.builder().startSaga("e2", "the-saga", "{}")).join();
+            SagaLogEntry third = leader.write(leader.builder().startAction("e1", "n1")).join();
+
+            follower.apply(SagaLogReplicationMessage.truncate(leader, second.getId()));
+            follower.apply(SagaLogReplicationMessage.write(leader, List.of(third)));
+            follower.apply(SagaLogReplicationMessage.write(leader, List.of(second)));
+            follower.apply(SagaLogReplicationMessage.write(leader, List.of(first)));
+
+            SagaLog replica = followerPool.connect(followerPool.idFor("leader", "replicated"));
+            assertEquals(replica.readIncompleteSagas().collect(Collectors.toList()), List.of(third));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatWritesArrivingAfterTheirTruncateAreDropped() {
+        MemorySagaLogPool pool = new MemorySagaLogPool("leader");
+        try {
+            SagaLog leader = pool.connect(pool.registerInstanceLocalIdFor("replicated"));
+            SagaLogEntry first = leader.write(leader.builder().startSaga("e1", "the-saga", "{}")).join();
+            SagaLogEntry second = leader.write(leader.builder().startSaga("e2", "the-saga", "{}")).join();
+            SagaLogEntry third = leader.write(leader.builder().startAction("e1", "n1")).join();
+
+            follower.apply(SagaLogReplicationMessage.write(leader, List.of(third)));
+            follower.apply(SagaLogReplicationMessage.write(leader, List.of(second)));
+            follower.apply(SagaLogReplicationMessage.truncate(leader, second.getId()));
+            follower.apply(SagaLogReplicationMessage.write(leader, List.of(first)));
+
+            SagaLog replica = followerPool.connect(followerPool.idFor("leader", "replicated"));
+            assertEquals(replica.readIncompleteSagas().collect(Collectors.toList()), List.of(third));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatClusterWideLogIdsIncludeLogsReplicatedFromOtherLeaders() {
+        leaderPool.registerInstanceLocalIdFor("replicated");
+        SagaLog sagaLog = leaderPool.tryAcquire(new SagaLogOwner("me"));
+        SagaLogEntry start = sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+
+        ReplicatedSagaLogPool successorPool = new ReplicatedSagaLogPool(new MemorySagaLogPool("follower"),
+                message -> CompletableFuture.completedFuture(null), follower);
+        try {
+            SagaLogId followerLogId = followerPool.idFor("leader", "replicated");
+            assertTrue(successorPool.clusterWideLogIds().contains(followerLogId));
+
+            Set<SagaLogId> recovered = new SagaLogPoolRecovery(successorPool, Runnable::run, 1)
+                    .recover((log, execution) -> assertEquals(execution.getEntriesByNodeId(), Map.of("S", List.of(start))))
+                    .join();
+            assertTrue(recovered.contains(followerLogId));
+            assertEquals(followerPool.connect(followerLogId).readIncompleteSagas().collect(Collectors.toList()), List.of(start),
+                    "the warm copy stays connected in the follower after recovery");
+        } finally {
+            successorPool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatWriteFailsWhenReplicationFails() {
+        ReplicatedSagaLogPool pool = new ReplicatedSagaLogPool(new MemorySagaLogPool("leader"),
+                message -> CompletableFuture.failedFuture(new IllegalStateException("follower down")));
+        try {
+            pool.registerInstanceLocalIdFor("replicated");
+            SagaLog sagaLog = pool.tryAcquire(new SagaLogOwner("me"));
+            assertNotNull(sagaLog);
+            sagaLog.write(sagaLog.builder().startSaga("e1", "the-saga", "{}")).join();
+            fail("Expected replication failure");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}